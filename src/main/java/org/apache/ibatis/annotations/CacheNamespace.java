@@ -20,6 +20,8 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.codec.JavaSerializationCodec;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 
@@ -40,5 +42,9 @@ public @interface CacheNamespace {
   boolean readWrite() default true;
   
   boolean blocking() default false;
+
+  Class<? extends CacheCodec> codec() default JavaSerializationCodec.class;
+
+  boolean compression() default false;
   
 }
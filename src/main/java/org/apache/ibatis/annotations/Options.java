@@ -20,6 +20,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.apache.ibatis.mapping.CoalesceMode;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.StatementType;
 
@@ -46,4 +47,16 @@ public @interface Options {
   String keyProperty() default "id";
 
   String keyColumn() default "";
+
+  String poolPartition() default "";
+
+  String tables() default "";
+
+  String entityIds() default "";
+
+  long cacheTtl() default -1;
+
+  long refreshAfter() default -1;
+
+  CoalesceMode coalesce() default CoalesceMode.NONE;
 }
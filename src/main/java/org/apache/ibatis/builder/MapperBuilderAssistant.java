@@ -26,6 +26,9 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.MappingFingerprint;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
@@ -134,9 +137,33 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, null, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Class<? extends CacheCodec> codecClass,
+      Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, codecClass, false, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      Class<? extends CacheCodec> codecClass,
+      boolean compression,
+      Properties props) {
       //这里面又判断了一下是否为null就用默认值，有点和XMLMapperBuilder.cacheElement逻辑重复了
     typeClass = valueOrDefault(typeClass, PerpetualCache.class);
     evictionClass = valueOrDefault(evictionClass, LruCache.class);
+    CacheStatistics statistics = new CacheStatistics(currentNamespace);
     //调用CacheBuilder构建cache,id=currentNamespace
     Cache cache = new CacheBuilder(currentNamespace)
         .implementation(typeClass)
@@ -145,10 +172,17 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .size(size)
         .readWrite(readWrite)
         .blocking(blocking)
+        .codec(codecClass)
+        .compression(compression)
         .properties(props)
+        .statistics(statistics)
+        .mappingFingerprint(new MappingFingerprint(configuration, currentNamespace))
         .build();
     //加入缓存
     configuration.addCache(cache);
+    configuration.addCacheStatistics(statistics);
+    //实体缓存里这个namespace的行也按同样的方式复制
+    configuration.getEntityCache().setCodec(currentNamespace, readWrite ? CacheBuilder.newCodec(codecClass) : null);
     //当前的缓存
     currentCache = cache;
     return cache;
@@ -283,7 +317,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String keyColumn,
       String databaseId,
       LanguageDriver lang,
-      String resultSets) {
+      String resultSets,
+      StatementOptions options) {
     
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -306,6 +341,10 @@ public class MapperBuilderAssistant extends BaseBuilder {
     statementBuilder.lang(lang);
     statementBuilder.resultOrdered(resultOrdered);
     statementBuilder.resulSets(resultSets);
+    //连接池分区，表，缓存存活时间这些可选属性
+    if (options != null) {
+      options.applyTo(statementBuilder);
+    }
     setStatementTimeout(timeout, statementBuilder);
 
     //1.参数映射
@@ -570,4 +609,32 @@ public class MapperBuilderAssistant extends BaseBuilder {
       keyColumn, databaseId, lang, null);
   }
 
+  public MappedStatement addMappedStatement(
+    String id,
+    SqlSource sqlSource,
+    StatementType statementType,
+    SqlCommandType sqlCommandType,
+    Integer fetchSize,
+    Integer timeout,
+    String parameterMap,
+    Class<?> parameterType,
+    String resultMap,
+    Class<?> resultType,
+    ResultSetType resultSetType,
+    boolean flushCache,
+    boolean useCache,
+    boolean resultOrdered,
+    KeyGenerator keyGenerator,
+    String keyProperty,
+    String keyColumn,
+    String databaseId,
+    LanguageDriver lang,
+    String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, 
+      parameterMap, parameterType, resultMap, resultType, resultSetType, 
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty, 
+      keyColumn, databaseId, lang, resultSets, null);
+  }
+
 }
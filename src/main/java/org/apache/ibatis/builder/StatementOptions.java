@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.builder;
+
+import org.apache.ibatis.mapping.CoalesceMode;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * The optional attributes of a mapped statement that are not arguments of
+ * {@link MapperBuilderAssistant#addMappedStatement}: pool partition, tables, entity ids,
+ * cache ttl, refresh after and coalescing. Attributes left null keep the defaults of
+ * {@link MappedStatement}, so new attributes do not need a new overload.
+ */
+/**
+ * 映射语句的可选属性，新加的属性放这里，不用再给addMappedStatement加重载
+ */
+public class StatementOptions {
+
+  private String poolPartition;
+  private String tables;
+  private String entityIds;
+  private Long cacheTtl;
+  private Long refreshAfter;
+  private CoalesceMode coalesce;
+
+  public StatementOptions poolPartition(String poolPartition) {
+    this.poolPartition = poolPartition;
+    return this;
+  }
+
+  public StatementOptions tables(String tables) {
+    this.tables = tables;
+    return this;
+  }
+
+  public StatementOptions entityIds(String entityIds) {
+    this.entityIds = entityIds;
+    return this;
+  }
+
+  public StatementOptions cacheTtl(Long cacheTtl) {
+    this.cacheTtl = cacheTtl;
+    return this;
+  }
+
+  public StatementOptions refreshAfter(Long refreshAfter) {
+    this.refreshAfter = refreshAfter;
+    return this;
+  }
+
+  public StatementOptions coalesce(CoalesceMode coalesce) {
+    this.coalesce = coalesce;
+    return this;
+  }
+
+  //设到建造者上
+  void applyTo(MappedStatement.Builder statementBuilder) {
+    statementBuilder.poolPartition(poolPartition);
+    statementBuilder.tables(tables);
+    statementBuilder.entityIds(entityIds);
+    statementBuilder.cacheTtl(cacheTtl);
+    statementBuilder.refreshAfter(refreshAfter);
+    statementBuilder.coalesce(coalesce);
+  }
+
+}
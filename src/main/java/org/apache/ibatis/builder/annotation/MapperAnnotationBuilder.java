@@ -60,6 +60,7 @@ import org.apache.ibatis.binding.MapperMethod.ParamMap;
 import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.builder.StatementOptions;
 import org.apache.ibatis.builder.xml.XMLMapperBuilder;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -177,7 +178,7 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), null);
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), cacheDomain.codec(), cacheDomain.compression(), null);
     }
   }
 
@@ -267,6 +268,7 @@ public class MapperAnnotationBuilder {
       boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
       boolean flushCache = !isSelect;
       boolean useCache = isSelect;
+      StatementOptions statementOptions = new StatementOptions();
 
       KeyGenerator keyGenerator;
       String keyProperty = "id";
@@ -295,6 +297,12 @@ public class MapperAnnotationBuilder {
         timeout = options.timeout() > -1 ? options.timeout() : null;
         statementType = options.statementType();
         resultSetType = options.resultSetType();
+        statementOptions.poolPartition(nullOrEmpty(options.poolPartition()))
+            .tables(nullOrEmpty(options.tables()))
+            .entityIds(nullOrEmpty(options.entityIds()))
+            .cacheTtl(options.cacheTtl() > -1 ? options.cacheTtl() : null)
+            .refreshAfter(options.refreshAfter() > -1 ? options.refreshAfter() : null)
+            .coalesce(options.coalesce());
       }
 
       String resultMapId = null;
@@ -337,7 +345,8 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          null);
+          null,
+          statementOptions);
     }
   }
   
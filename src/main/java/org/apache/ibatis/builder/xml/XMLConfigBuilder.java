@@ -17,12 +17,16 @@ package org.apache.ibatis.builder.xml;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
 import org.apache.ibatis.datasource.DataSourceFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.loader.ProxyFactory;
@@ -36,8 +40,11 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.CacheWarmup;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.LocalCacheEviction;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.type.JdbcType;
@@ -146,6 +153,8 @@ public class XMLConfigBuilder extends BaseBuilder {
       objectWrapperFactoryElement(root.evalNode("objectWrapperFactory"));
       //6.设置
       settingsElement(root.evalNode("settings"));
+      //缓存失效总线(要在设置之后)
+      invalidationTransportElement(root.evalNode("invalidationTransport"));
       // read it after objectFactory and objectWrapperFactory issue #631
       //7.环境
       environmentsElement(root.evalNode("environments"));
@@ -155,6 +164,8 @@ public class XMLConfigBuilder extends BaseBuilder {
       typeHandlerElement(root.evalNode("typeHandlers"));
       //10.映射器
       mapperElement(root.evalNode("mappers"));
+      //11.缓存预热(要在映射器之后)
+      cacheWarmupElement(root.evalNode("cacheWarmup"));
     } catch (Exception e) {
       throw new BuilderException("Error parsing SQL Mapper Configuration. Cause: " + e, e);
     }
@@ -237,6 +248,60 @@ public class XMLConfigBuilder extends BaseBuilder {
     }
   }
 
+  //缓存失效总线
+//<invalidationTransport type="SOCKET">
+//  <property name="port" value="7400"/>
+//  <property name="peers" value="node2:7400,node3:7400"/>
+//</invalidationTransport>
+  private void invalidationTransportElement(XNode context) throws Exception {
+    if (context != null) {
+      String type = context.getStringAttribute("type");
+      Properties properties = context.getChildrenAsProperties();
+      InvalidationTransport transport = (InvalidationTransport) resolveClass(type).newInstance();
+      transport.setProperties(properties);
+      configuration.setInvalidationBus(new InvalidationBus(configuration, transport, configuration.getInvalidationBatchInterval()));
+    }
+  }
+
+  //11.缓存预热
+//  <cacheWarmup threads="4">
+//    <statement id="org.mybatis.example.BlogMapper.selectBlog" parameter="101"/>
+//    <statement id="org.mybatis.example.BlogMapper.selectBlogsByAuthor">
+//      <parameter name="authorId" value="101" javaType="int"/>
+//      <property name="author" value="jane"/>
+//    </statement>
+//  </cacheWarmup>
+  private void cacheWarmupElement(XNode context) throws Exception {
+    if (context != null) {
+      CacheWarmup cacheWarmup = configuration.getCacheWarmup();
+      cacheWarmup.setThreads(context.getIntAttribute("threads", cacheWarmup.getThreads()));
+      for (XNode child : context.getChildren()) {
+        String id = child.getStringAttribute("id");
+        //有property或parameter子元素的话参数是Map，否则是parameter属性(可以没有)
+        Map<Object, Object> parameters = new HashMap<Object, Object>();
+        for (XNode parameter : child.getChildren()) {
+          //property的值是字符串，parameter的值转成javaType
+          Class<?> javaType = "parameter".equals(parameter.getName()) ? resolveClass(parameter.getStringAttribute("javaType")) : null;
+          parameters.put(parameter.getStringAttribute("name"), warmupValue(id, parameter.getStringAttribute("value"), javaType));
+        }
+        if (parameters.isEmpty()) {
+          Class<?> javaType = resolveClass(child.getStringAttribute("javaType"));
+          cacheWarmup.addStatement(id, warmupValue(id, child.getStringAttribute("parameter"), javaType), javaType);
+        } else {
+          cacheWarmup.addStatement(id, parameters);
+        }
+      }
+    }
+  }
+
+  private Object warmupValue(String id, String value, Class<?> javaType) {
+    Object converted = CacheWarmup.convert(value, javaType);
+    if (converted instanceof String && javaType != null && javaType != String.class && javaType != Object.class) {
+      throw new BuilderException("Cannot convert the warmup parameter '" + value + "' of " + id + " to " + javaType.getName() + ".");
+    }
+    return converted;
+  }
+
   //5.对象包装工厂
   private void objectWrapperFactoryElement(XNode context) throws Exception {
     if (context != null) {
@@ -297,6 +362,11 @@ public class XMLConfigBuilder extends BaseBuilder {
 //  <setting name="safeRowBoundsEnabled" value="false"/>
 //  <setting name="mapUnderscoreToCamelCase" value="false"/>
 //  <setting name="localCacheScope" value="SESSION"/>
+//  <setting name="cacheInvalidation" value="NAMESPACE"/>
+//  <setting name="entityCacheEnabled" value="false"/>
+//  <setting name="entityCacheSize" value="1024"/>
+//  <setting name="invalidationBatchInterval" value="20"/>
+//  <setting name="cacheRefreshThreads" value="2"/>
 //  <setting name="jdbcTypeForNull" value="OTHER"/>
 //  <setting name="lazyLoadTriggerMethods" value="equals,clone,hashCode,toString"/>
 //</settings>
@@ -340,6 +410,19 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
       //默认用session级别的缓存
       configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+      //本地缓存的上限，默认不限
+      configuration.setLocalCacheSize(integerValueOf(props.getProperty("localCacheSize"), null));
+      configuration.setLocalCacheMaxBytes(longValueOf(props.getProperty("localCacheMaxBytes"), null));
+      configuration.setLocalCacheEviction(LocalCacheEviction.valueOf(props.getProperty("localCacheEviction", "LRU")));
+      //二级缓存按namespace还是按表失效
+      configuration.setCacheInvalidation(CacheInvalidation.valueOf(props.getProperty("cacheInvalidation", "NAMESPACE")));
+      //按主键缓存实体
+      configuration.setEntityCacheEnabled(booleanValueOf(props.getProperty("entityCacheEnabled"), false));
+      configuration.setEntityCacheSize(integerValueOf(props.getProperty("entityCacheSize"), 1024));
+      //失效总线攒多少毫秒发一次
+      configuration.setInvalidationBatchInterval(Long.valueOf(props.getProperty("invalidationBatchInterval", "20")));
+      //后台刷新二级缓存的线程数
+      configuration.setCacheRefreshThreads(integerValueOf(props.getProperty("cacheRefreshThreads"), 2));
       //为null值设置jdbctype
       configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
       //Object的哪些方法将触发延迟加载
@@ -33,6 +33,7 @@ import org.apache.ibatis.builder.IncompleteElementException;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
 import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.mapping.Discriminator;
@@ -247,13 +248,18 @@ public class XMLMapperBuilder extends BaseBuilder {
       Integer size = context.getIntAttribute("size");
       boolean readWrite = !context.getBooleanAttribute("readOnly", false);
       boolean blocking = context.getBooleanAttribute("blocking", false);
+      //读写缓存复制值的方式，JAVA(默认)，BINARY，COPY或者CacheCodec的类名
+      String codec = context.getStringAttribute("codec");
+      Class<? extends CacheCodec> codecClass = typeAliasRegistry.resolveAlias(codec);
+      //读写缓存序列化以后的大值压缩存放
+      boolean compression = context.getBooleanAttribute("compression", false);
       //读入额外的配置信息，易于第三方的缓存扩展,例:
 //    <cache type="com.domain.something.MyCustomCache">
 //      <property name="cacheFile" value="/tmp/my-custom-cache.tmp"/>
 //    </cache>
       Properties props = context.getChildrenAsProperties();
       //调用builderAssistant.useNewCache
-      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, props);
+      builderAssistant.useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, codecClass, compression, props);
     }
   }
 
@@ -20,10 +20,12 @@ import java.util.Locale;
 
 import org.apache.ibatis.builder.BaseBuilder;
 import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.apache.ibatis.builder.StatementOptions;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.CoalesceMode;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.SqlCommandType;
@@ -130,6 +132,19 @@ public class XMLStatementBuilder extends BaseBuilder {
     //解析成SqlSource，一般是DynamicSqlSource
     SqlSource sqlSource = langDriver.createSqlSource(configuration, context, parameterTypeClass);
     String resultSets = context.getStringAttribute("resultSets");
+    StatementOptions options = new StatementOptions()
+        //使用的连接池分区(只对PooledDataSource有用)
+        .poolPartition(context.getStringAttribute("poolPartition"))
+        //语句读写的表，逗号分隔(cacheInvalidation=TABLE时用，不写就从SQL里推断)
+        .tables(context.getStringAttribute("tables"))
+        //装主键列表的参数名(仅对 select 有用，开启实体缓存时已缓存的主键不再查)
+        .entityIds(context.getStringAttribute("entityIds"))
+        //结果在二级缓存里的存活时间(毫秒，仅对 select 有用)，不写就用缓存的flushInterval
+        .cacheTtl(context.getLongAttribute("cacheTtl"))
+        //结果在二级缓存里超过这么多毫秒以后在后台重新查(仅对 select 有用)
+        .refreshAfter(context.getLongAttribute("refreshAfter"))
+        //同时执行的相同查询是否合并成一次(仅对 select 有用)，NONE|SHARE|COPY 中的一种
+        .coalesce(CoalesceMode.valueOf(context.getStringAttribute("coalesce", CoalesceMode.NONE.toString())));
     //(仅对 insert 有用) 标记一个属性, MyBatis 会通过 getGeneratedKeys 或者通过 insert 语句的 selectKey 子元素设置它的值
     String keyProperty = context.getStringAttribute("keyProperty");
     //(仅对 insert 有用) 标记一个属性, MyBatis 会通过 getGeneratedKeys 或者通过 insert 语句的 selectKey 子元素设置它的值
@@ -149,7 +164,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, options);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
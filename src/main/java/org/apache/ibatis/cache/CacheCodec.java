@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI for the way read-write caches copy their values (see {@link org.apache.ibatis.cache.decorators.SerializedCache}).
+ *
+ * Values are encoded when they are put in the cache and decoded on every hit, so that callers
+ * never share objects with the cache or with each other. The encoded form is opaque: it may be a
+ * byte array or a copy of the value, but must not share mutable state with the value.
+ *
+ * Implementations must be thread safe and have a public constructor without arguments.
+ *
+ * <pre>
+ * &lt;cache codec="BINARY"/&gt;
+ * </pre>
+ */
+/**
+ * 读写缓存复制值的方式
+ * 放进去的时候encode，每次命中都decode出新的对象；内置JAVA(Java序列化，默认)，BINARY(二进制)，COPY(深拷贝，不转成字节)
+ */
+public interface CacheCodec {
+
+  /*
+   * @param value the value to cache, may be null
+   * @return the value to store in the cache
+   */
+  Object encode(Object value);
+
+  /*
+   * @param encoded a value returned by {@link #encode(Object)}
+   * @return a new copy of the value
+   */
+  Object decode(Object encoded);
+
+}
@@ -17,7 +17,8 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -27,46 +28,61 @@ import java.util.List;
  * 缓存key
  * 一般缓存框架的数据结构基本上都是 Key-Value 方式存储，
  * MyBatis 对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
+ * 组成key的对象存在数组里，64位的hash值随每个对象增量计算，hash相等了才逐个equals
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -2476313920318757184L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long SEED = 0x9E3779B97F4A7C15L;
+  //MurmurHash64A的乘数
+  private static final long MULTIPLIER = 0xC6A4A7935BD1E995L;
 
-  private int multiplier;
-  private int hashcode;
-  private long checksum;
+  private long hash;
   private int count;
-  private List<Object> updateList;
+  private Object[] updates;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
+    this.hash = SEED;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.updates = new Object[DEFAULT_CAPACITY];
   }
 
-  //传入一个Object数组，更新hashcode和效验码
+  //传入一个Object数组，更新hash值
   public CacheKey(Object[] objects) {
     this();
+    updates = new Object[Math.max(DEFAULT_CAPACITY, objects.length)];
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
+  }
+
+  /*
+   * @return the objects this key was built from. Unlike the hashcode, they do not depend on the JVM
+   * (e.g. enums and classes without hashCode), so they are what should be stored to identify a key
+   * across restarts.
+   */
+  public List<Object> getUpdateList() {
+    return Collections.unmodifiableList(Arrays.asList(updates).subList(0, count));
   }
 
   public void update(Object object) {
     if (object != null && object.getClass().isArray()) {
         //如果是数组，则循环调用doUpdate
-      int length = Array.getLength(object);
-      for (int i = 0; i < length; i++) {
-        Object element = Array.get(object, i);
-        doUpdate(element);
+      if (object instanceof Object[]) {
+        for (Object element : (Object[]) object) {
+          doUpdate(element);
+        }
+      } else {
+        int length = Array.getLength(object);
+        for (int i = 0; i < length; i++) {
+          doUpdate(Array.get(object, i));
+        }
       }
     } else {
         //否则，doUpdate
@@ -75,17 +91,17 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   private void doUpdate(Object object) {
-    //计算hash值，校验码
-    int baseHashCode = object == null ? 1 : object.hashCode();
-
-    count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
-
-    hashcode = multiplier * hashcode + baseHashCode;
-
-    //同时将对象加入列表，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    updateList.add(object);
+    //按顺序混合每个对象的hashCode，得到64位的hash值
+    long k = (object == null ? 1 : object.hashCode()) * MULTIPLIER;
+    k ^= k >>> 47;
+    k *= MULTIPLIER;
+    hash = (hash ^ k) * MULTIPLIER;
+
+    //同时将对象加入数组，这样万一两个CacheKey的hash值碰巧一样，再根据对象严格equals来区分
+    if (count == updates.length) {
+      updates = Arrays.copyOf(updates, count * 2);
+    }
+    updates[count++] = object;
   }
 
   public void updateAll(Object[] objects) {
@@ -105,30 +121,17 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    //先比hashcode，checksum，count，理论上可以快速比出来
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
-      return false;
-    }
-    if (count != cacheKey.count) {
+    //先比对象个数和64位hash值，不同的key基本上这里就比出来了
+    if (count != cacheKey.count || hash != cacheKey.hash) {
       return false;
     }
 
-    //万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    //这里两个list的size没比是否相等，其实前面count相等就已经保证了
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
-      if (thisObject == null) {
-        if (thatObject != null) {
-          return false;
-        }
-      } else {
-        if (!thisObject.equals(thatObject)) {
-          return false;
-        }
+    //万一两个CacheKey的hash值碰巧一样，再根据对象严格equals来区分(静态SQL一般是同一个对象)
+    for (int i = 0; i < count; i++) {
+      Object thisObject = updates[i];
+      Object thatObject = cacheKey.updates[i];
+      if (thisObject != thatObject && (thisObject == null || !thisObject.equals(thatObject))) {
+        return false;
       }
     }
     return true;
@@ -136,14 +139,14 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    return (int) (hash ^ (hash >>> 32));
   }
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (int i = 0; i < updateList.size(); i++) {
-      returnValue.append(':').append(updateList.get(i));
+    StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(hash);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(updates[i]);
     }
 
     return returnValue.toString();
@@ -152,7 +155,7 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    clonedCacheKey.updates = Arrays.copyOf(updates, Math.max(DEFAULT_CAPACITY, count));
     return clonedCacheKey;
   }
 
@@ -0,0 +1,318 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.cache.decorators.ObjectSizeEstimator;
+
+/**
+ * Hit, miss, put, eviction, load and compression counters of a cache, see
+ * {@link org.apache.ibatis.session.Configuration#getCacheStatistics(String)} for the second level
+ * cache of a namespace and {@link org.apache.ibatis.session.Configuration#getLocalCacheStatistics()}
+ * for the local caches of all sessions.
+ *
+ * Counters are atomic and never lock. The size in bytes is estimated from a sample of the values
+ * put (one in {@link #SAMPLE_INTERVAL}) times the number of entries, so it is only an approximation.
+ * Load times are those of the selects executed after a miss.
+ * Compression counters are only updated by a {@link org.apache.ibatis.cache.decorators.CompressedCache}.
+ */
+/**
+ * 缓存统计：命中，未命中，放入，淘汰次数，估算的字节数，未命中时查询的耗时，压缩率和压缩解压的耗时
+ * 计数器都是原子的，不加锁；字节数只抽样估算
+ */
+public class CacheStatistics {
+
+  //每放这么多个值估算一次大小
+  public static final int SAMPLE_INTERVAL = 16;
+
+  private static final ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+
+  private final String id;
+  private Cache cache;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong puts = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong loadTime = new AtomicLong();
+  private final AtomicLong sampledBytes = new AtomicLong();
+  private final AtomicLong samples = new AtomicLong();
+  //没有cache可问大小的时候(本地缓存)，自己记条数
+  private final AtomicLong entries = new AtomicLong();
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  private final AtomicLong compressedBytes = new AtomicLong();
+  private final AtomicLong compressionTime = new AtomicLong();
+  private final AtomicLong decompressions = new AtomicLong();
+  private final AtomicLong decompressionTime = new AtomicLong();
+
+  public CacheStatistics(String id) {
+    this.id = id;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /*
+   * Sets the cache whose size is reported. Without one, the entries are counted from the puts and clears.
+   */
+  public void setCache(Cache cache) {
+    this.cache = cache;
+  }
+
+  public void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  public void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  /*
+   * @return the number of hits, without taking a snapshot (which asks the cache for its size)
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public void recordPut(Object value) {
+    entries.incrementAndGet();
+    if (puts.incrementAndGet() % SAMPLE_INTERVAL == 1) {
+      sampledBytes.addAndGet(estimator.estimate(value));
+      samples.incrementAndGet();
+    }
+  }
+
+  public void recordEviction() {
+    evictions.incrementAndGet();
+    entries.decrementAndGet();
+  }
+
+  /*
+   * Records entries removed by a clear, only needed when no cache was set.
+   */
+  public void recordClear(int count) {
+    entries.addAndGet(-count);
+  }
+
+  /*
+   * @param nanos the time the select of a missed key took
+   */
+  public void recordLoad(long nanos) {
+    loads.incrementAndGet();
+    loadTime.addAndGet(nanos);
+  }
+
+  /*
+   * @param originalBytes the length of the serialized value
+   * @param storedBytes the length actually stored, the original one if compressing did not help
+   * @param nanos the time spent compressing
+   */
+  public void recordCompression(long originalBytes, long storedBytes, long nanos) {
+    uncompressedBytes.addAndGet(originalBytes);
+    compressedBytes.addAndGet(storedBytes);
+    compressionTime.addAndGet(nanos);
+  }
+
+  public void recordDecompression(long nanos) {
+    decompressions.incrementAndGet();
+    decompressionTime.addAndGet(nanos);
+  }
+
+  public Snapshot snapshot() {
+    long sampleCount = samples.get();
+    long averageBytes = sampleCount == 0 ? 0 : sampledBytes.get() / sampleCount;
+    long size = cache != null ? cache.getSize() : Math.max(0, entries.get());
+    return new Snapshot(id, hits.get(), misses.get(), puts.get(), evictions.get(), size, averageBytes * size,
+        loads.get(), loadTime.get(), uncompressedBytes.get(), compressedBytes.get(), compressionTime.get(),
+        decompressions.get(), decompressionTime.get());
+  }
+
+  /*
+   * Sets the counters back to zero. The number of entries is kept.
+   */
+  public void reset() {
+    hits.set(0);
+    misses.set(0);
+    puts.set(0);
+    evictions.set(0);
+    loads.set(0);
+    loadTime.set(0);
+    sampledBytes.set(0);
+    samples.set(0);
+    uncompressedBytes.set(0);
+    compressedBytes.set(0);
+    compressionTime.set(0);
+    decompressions.set(0);
+    decompressionTime.set(0);
+  }
+
+  @Override
+  public String toString() {
+    return snapshot().toString();
+  }
+
+  /**
+   * The counters of a cache at one point in time.
+   */
+  public static class Snapshot {
+
+    private final String id;
+    private final long hits;
+    private final long misses;
+    private final long puts;
+    private final long evictions;
+    private final long size;
+    private final long estimatedBytes;
+    private final long loads;
+    private final long loadTime;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long compressionTime;
+    private final long decompressions;
+    private final long decompressionTime;
+
+    Snapshot(String id, long hits, long misses, long puts, long evictions, long size, long estimatedBytes, long loads, long loadTime,
+        long uncompressedBytes, long compressedBytes, long compressionTime, long decompressions, long decompressionTime) {
+      this.id = id;
+      this.hits = hits;
+      this.misses = misses;
+      this.puts = puts;
+      this.evictions = evictions;
+      this.size = size;
+      this.estimatedBytes = estimatedBytes;
+      this.loads = loads;
+      this.loadTime = loadTime;
+      this.uncompressedBytes = uncompressedBytes;
+      this.compressedBytes = compressedBytes;
+      this.compressionTime = compressionTime;
+      this.decompressions = decompressions;
+      this.decompressionTime = decompressionTime;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getRequests() {
+      return hits + misses;
+    }
+
+    public double getHitRatio() {
+      return getRequests() == 0 ? 0 : (double) hits / (double) getRequests();
+    }
+
+    public long getPuts() {
+      return puts;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /*
+     * @return the number of entries
+     */
+    public long getSize() {
+      return size;
+    }
+
+    public long getEstimatedBytes() {
+      return estimatedBytes;
+    }
+
+    public long getLoads() {
+      return loads;
+    }
+
+    /*
+     * @return the total time of the selects executed after a miss, in nanoseconds
+     */
+    public long getTotalLoadTime() {
+      return loadTime;
+    }
+
+    /*
+     * @return the average time of the selects executed after a miss, in nanoseconds
+     */
+    public long getAverageLoadTime() {
+      return loads == 0 ? 0 : loadTime / loads;
+    }
+
+    /*
+     * @return the total length of the values given to the compression, in bytes
+     */
+    public long getUncompressedBytes() {
+      return uncompressedBytes;
+    }
+
+    /*
+     * @return the total length stored for those values, in bytes
+     */
+    public long getCompressedBytes() {
+      return compressedBytes;
+    }
+
+    /*
+     * @return the compressed length divided by the uncompressed one, 1 if nothing was compressed
+     */
+    public double getCompressionRatio() {
+      return uncompressedBytes == 0 ? 1 : (double) compressedBytes / (double) uncompressedBytes;
+    }
+
+    /*
+     * @return the total time spent compressing, in nanoseconds
+     */
+    public long getCompressionTime() {
+      return compressionTime;
+    }
+
+    public long getDecompressions() {
+      return decompressions;
+    }
+
+    /*
+     * @return the total time spent decompressing hits, in nanoseconds
+     */
+    public long getDecompressionTime() {
+      return decompressionTime;
+    }
+
+    @Override
+    public String toString() {
+      return "CacheStatistics[" + id + "] hits=" + hits + ", misses=" + misses + ", hitRatio=" + getHitRatio()
+          + ", puts=" + puts + ", evictions=" + evictions + ", size=" + size + ", estimatedBytes=" + estimatedBytes
+          + ", loads=" + loads + ", averageLoadTime=" + getAverageLoadTime() / 1000 + "us"
+          + (uncompressedBytes == 0 ? "" : ", compressionRatio=" + getCompressionRatio()
+              + ", compressionTime=" + compressionTime / 1000 + "us, decompressionTime=" + decompressionTime / 1000 + "us");
+    }
+  }
+
+}
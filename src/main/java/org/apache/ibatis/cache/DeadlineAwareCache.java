@@ -0,0 +1,37 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * A cache that stores the time each entry expires along with the entry.
+ *
+ * {@link org.apache.ibatis.cache.decorators.ExpiringCache} only keeps the deadlines in memory.
+ * Caches whose content outlives the JVM (e.g. {@link org.apache.ibatis.cache.impl.MappedFileCache})
+ * implement this interface to receive the deadline of every entry, so that entries reloaded
+ * after a restart still expire.
+ */
+/**
+ * 和缓存项一起存过期时间的缓存
+ * 重启后还在的缓存实现这个接口，ExpiringCache把过期时间传进来
+ */
+public interface DeadlineAwareCache extends Cache {
+
+  /*
+   * @param deadline the time the entry expires in milliseconds, 0 if it never expires
+   */
+  void putObject(Object key, Object value, long deadline);
+
+}
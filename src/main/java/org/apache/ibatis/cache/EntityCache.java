@@ -0,0 +1,347 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Second level cache of rows by primary key (setting entityCacheEnabled=true).
+ *
+ * When the result map of a cached select declares id mappings, each row is stored once in this
+ * cache under the result map, its type and its id, and the query cache only keeps the list of
+ * keys. Reading the query cache rebuilds the list from this cache; if one of the rows is no
+ * longer there, it is a cache miss and the query is executed again.
+ *
+ * Result maps with nested result maps or nested queries are cached as whole lists, as are rows
+ * that are not Serializable or have a null id. So are results of more than a quarter of the size
+ * of this cache: their rows would push each other (and the rows of every other result) out of it,
+ * and the list of keys would be a cache miss as soon as it is stored.
+ *
+ * Rows are copied like the values of the cache of their namespace: a read-write cache encodes them
+ * with its codec when they are put, so every read returns new objects, and a read-only cache
+ * shares them. This cache is shared by all namespaces, so its size and eviction are its own
+ * (entityCacheSize setting, LRU).
+ *
+ * Rows are stored with the tables they were read from, like the results of
+ * {@link TableInvalidations}, so that a row is ignored once one of those tables was written. With
+ * cacheInvalidation=NAMESPACE the only table is {@link TableInvalidations#namespaceTable(Cache)}.
+ * Rows depend on the {@link TableInvalidations#entityTable(String)} of these tables, not on the tables
+ * themselves: an update or delete whose parameter is a cached entity evicts that entity by id and
+ * leaves the other rows cached, even with flushCache=true. The update is then assumed to only change
+ * that row; a write that changes other rows must not take an entity as its parameter.
+ *
+ * Selects with an entityIds attribute look up each id of that parameter here and only query the
+ * missing ones (see {@link org.apache.ibatis.executor.CachingExecutor}).
+ */
+/**
+ * 按主键缓存的实体缓存
+ * 查询缓存里只存主键列表，行本身按(resultMap，类型，主键)存在这里，同一行不会在多个查询结果里各存一份
+ */
+public class EntityCache {
+
+  //只读缓存的行不复制
+  private static final CacheCodec SHARED = new CacheCodec() {
+    @Override
+    public Object encode(Object value) {
+      return value;
+    }
+
+    @Override
+    public Object decode(Object encoded) {
+      return encoded;
+    }
+  };
+
+  private final Configuration configuration;
+  private final LruCache lruCache;
+  private final Cache cache;
+  //行数的上限，结果行数超过它的1/4就整个存在查询缓存里
+  private int size = 1024;
+  //类型 -> 用过的resultMap，增删改的时候用参数找出要失效的实体
+  private final ConcurrentMap<Class<?>, Set<ResultMap>> resultMapsByType = new ConcurrentHashMap<Class<?>, Set<ResultMap>>();
+  //namespace -> 行的复制方式，只读缓存的是SHARED；没登记的(自定义的缓存)用Java序列化
+  private final ConcurrentMap<String, CacheCodec> codecs = new ConcurrentHashMap<String, CacheCodec>();
+  private final CacheCodec defaultCodec = CacheBuilder.newCodec(null);
+
+  public EntityCache(Configuration configuration) {
+    this.configuration = configuration;
+    this.lruCache = new LruCache(new PerpetualCache(EntityCache.class.getName()));
+    this.cache = new SynchronizedCache(new LoggingCache(lruCache));
+  }
+
+  /*
+   * Copies the rows cached by statements of a namespace like its cache does.
+   * @param codec the codec of a read-write cache, or null for a read-only cache whose rows are shared
+   */
+  public void setCodec(String cacheId, CacheCodec codec) {
+    codecs.put(cacheId, codec == null ? SHARED : codec);
+  }
+
+  /*
+   * Sets the maximum number of rows, 1024 by default. Only call before the cache is used.
+   */
+  public void setSize(int size) {
+    this.size = size;
+    lruCache.setSize(size);
+  }
+
+  public Cache getCache() {
+    return cache;
+  }
+
+  /*
+   * @return the result map of the statement if its rows can be cached by id, or null
+   */
+  public ResultMap getEntityResultMap(MappedStatement ms) {
+    if (ms.getResultMaps().size() != 1) {
+      return null;
+    }
+    ResultMap resultMap = ms.getResultMaps().get(0);
+    if (resultMap.hasNestedResultMaps() || resultMap.hasNestedQueries() || getIdProperties(resultMap) == null) {
+      return null;
+    }
+    return resultMap;
+  }
+
+  /*
+   * Stores the rows through the transactional cache manager, so that they are only visible once committed.
+   * @param tables the tables the rows were read from
+   * @param stamp the sequence number when the query started, from {@link TableInvalidations#stamp()}
+   * @return the value to store in the query cache: the list of keys of the rows, or the list itself
+   */
+  public Object toCachedValue(MappedStatement ms, List<?> list, String[] tables, long stamp, TransactionalCacheManager tcm) {
+    ResultMap resultMap = getEntityResultMap(ms);
+    //太大的结果放进来会把自己和别的结果的行挤出去
+    if (resultMap == null || list.isEmpty() || list.size() > size / 4) {
+      return list;
+    }
+    CacheKey[] keys = new CacheKey[list.size()];
+    for (int i = 0; i < keys.length; i++) {
+      Object row = list.get(i);
+      keys[i] = row instanceof Serializable ? newKey(resultMap, getIdValues(resultMap, row)) : null;
+      if (keys[i] == null) {
+        return list;
+      }
+    }
+    TableInvalidations invalidations = configuration.getTableInvalidations();
+    for (int i = 0; i < keys.length; i++) {
+      tcm.putObject(cache, keys[i], invalidations.wrap(tables, stamp, encode(ms, list.get(i))));
+    }
+    register(resultMap);
+    return new EntityList(keys);
+  }
+
+  /*
+   * @return the cached list, or null if one of its rows is no longer cached
+   */
+  public Object fromCachedValue(Object cached) {
+    if (!(cached instanceof EntityList)) {
+      return cached;
+    }
+    CacheKey[] keys = ((EntityList) cached).keys;
+    List<Object> list = new ArrayList<Object>(keys.length);
+    for (CacheKey key : keys) {
+      Object row = getRow(key);
+      if (row == null) {
+        return null;
+      }
+      list.add(row);
+    }
+    return list;
+  }
+
+  /*
+   * @return the cached row of a result map with a single id property, or null
+   */
+  public Object getEntity(ResultMap resultMap, Object id) {
+    return getRow(newKey(resultMap, new Object[] { id }));
+  }
+
+  /*
+   * Stores a row through the transactional cache manager, if it has an id and is Serializable.
+   */
+  public void putEntity(MappedStatement ms, ResultMap resultMap, Object row, String[] tables, long stamp, TransactionalCacheManager tcm) {
+    CacheKey key = row instanceof Serializable ? newKey(resultMap, getIdValues(resultMap, row)) : null;
+    if (key != null) {
+      tcm.putObject(cache, key, configuration.getTableInvalidations().wrap(tables, stamp, encode(ms, row)));
+      register(resultMap);
+    }
+  }
+
+  //读过的表被写过的行不算
+  private Object getRow(CacheKey key) {
+    Object row = configuration.getTableInvalidations().unwrap(cache.getObject(key));
+    return row == null ? null : ((EncodedRow) row).decode();
+  }
+
+  //放的时候就复制，之后调用者改了行也不影响缓存
+  private EncodedRow encode(MappedStatement ms, Object row) {
+    CacheCodec codec = codecs.get(ms.getCache().getId());
+    if (codec == null) {
+      codec = defaultCodec;
+    }
+    return new EncodedRow(codec, codec.encode(row));
+  }
+
+  /*
+   * @return the id of a row of a result map with a single id property, normalized like {@link #normalizeId(Object)}
+   */
+  public Object getId(ResultMap resultMap, Object row) {
+    Object[] id = getIdValues(resultMap, row);
+    return id == null || id.length != 1 ? null : normalizeId(id[0]);
+  }
+
+  /*
+   * Integral numbers are compared as longs, so an Integer id property matches a Long in a parameter.
+   */
+  public static Object normalizeId(Object id) {
+    if (id instanceof Integer || id instanceof Short || id instanceof Byte) {
+      return Long.valueOf(((Number) id).longValue());
+    }
+    return id;
+  }
+
+  /*
+   * Removes the cached rows with the class and id of the parameter object.
+   * @return the keys of the removed rows
+   */
+  public List<Object> evict(Object parameterObject) {
+    if (parameterObject == null || resultMapsByType.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Object> keys = new ArrayList<Object>();
+    for (Class<?> type = parameterObject.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+      Set<ResultMap> resultMaps = resultMapsByType.get(type);
+      if (resultMaps != null) {
+        for (ResultMap resultMap : resultMaps) {
+          CacheKey key = newKey(resultMap, getIdValues(resultMap, parameterObject));
+          if (key != null) {
+            cache.removeObject(key);
+            keys.add(key);
+          }
+        }
+      }
+    }
+    return keys;
+  }
+
+  public void remove(List<Object> keys) {
+    for (Object key : keys) {
+      cache.removeObject(key);
+    }
+  }
+
+  private void register(ResultMap resultMap) {
+    Set<ResultMap> resultMaps = resultMapsByType.get(resultMap.getType());
+    if (resultMaps == null) {
+      resultMaps = new CopyOnWriteArraySet<ResultMap>();
+      Set<ResultMap> existing = resultMapsByType.putIfAbsent(resultMap.getType(), resultMaps);
+      if (existing != null) {
+        resultMaps = existing;
+      }
+    }
+    resultMaps.add(resultMap);
+  }
+
+  //只有声明了<id>的才算(没声明的话ResultMap把所有列都当id)
+  private List<String> getIdProperties(ResultMap resultMap) {
+    List<String> properties = new ArrayList<String>();
+    for (ResultMapping mapping : resultMap.getIdResultMappings()) {
+      if (!mapping.getFlags().contains(ResultFlag.ID) || mapping.getProperty() == null) {
+        return null;
+      }
+      properties.add(mapping.getProperty());
+    }
+    return properties.isEmpty() ? null : properties;
+  }
+
+  private Object[] getIdValues(ResultMap resultMap, Object row) {
+    List<String> properties = getIdProperties(resultMap);
+    MetaObject metaObject = configuration.newMetaObject(row);
+    Object[] id = new Object[properties.size()];
+    for (int i = 0; i < id.length; i++) {
+      id[i] = metaObject.hasGetter(properties.get(i)) ? metaObject.getValue(properties.get(i)) : null;
+      if (id[i] == null) {
+        return null;
+      }
+    }
+    return id;
+  }
+
+  //按resultMap的类型(而不是行的实际类型)，这样用主键查的时候不用知道是哪个子类
+  private CacheKey newKey(ResultMap resultMap, Object[] id) {
+    if (id == null) {
+      return null;
+    }
+    CacheKey key = new CacheKey();
+    key.update(resultMap.getId());
+    key.update(resultMap.getType());
+    for (Object value : id) {
+      key.update(normalizeId(value));
+    }
+    return key;
+  }
+
+  //复制过的行和怎么还原它；只在内存里，不会被序列化
+  private static class EncodedRow {
+    private final CacheCodec codec;
+    private final Object value;
+
+    EncodedRow(CacheCodec codec, Object value) {
+      this.codec = codec;
+      this.value = value;
+    }
+
+    Object decode() {
+      return codec.decode(value);
+    }
+  }
+
+  //查询缓存里存的主键列表
+  private static class EntityList implements Serializable {
+    private static final long serialVersionUID = 6072349116723418437L;
+
+    private CacheKey[] keys;
+
+    //BINARY和COPY编码器按字段复制，不用退回Java序列化
+    private EntityList() {
+    }
+
+    EntityList(CacheKey[] keys) {
+      this.keys = keys;
+    }
+  }
+
+}
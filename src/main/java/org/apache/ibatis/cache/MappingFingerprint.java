@@ -0,0 +1,172 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.ibatis.mapping.Discriminator;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Digest of the mappings whose results are stored in a cache: the statements that use it, their
+ * result maps (nested ones included) and the fields of the result types.
+ *
+ * Caches that outlive the JVM (e.g. {@link org.apache.ibatis.cache.impl.MappedFileCache}) compare
+ * it with the one they were written with, so that results cached before a mapping or a result
+ * class changed are not read back. The SQL is not part of it, since it is already part of the
+ * cache keys. It is computed on first use, once all the mappers are loaded.
+ */
+/**
+ * 缓存里存的结果的映射的摘要：用这个缓存的语句，结果映射(包括嵌套的)，结果类型的字段
+ * 映射或者结果类改了，持久化的缓存就不能用了；SQL在缓存key里面，不用算进来
+ */
+public class MappingFingerprint {
+
+  private final Configuration configuration;
+  private final String cacheId;
+
+  public MappingFingerprint(Configuration configuration, String cacheId) {
+    this.configuration = configuration;
+    this.cacheId = cacheId;
+  }
+
+  /*
+   * @return the hex SHA-1 of the mappings of the statements that use the cache
+   */
+  public String getValue() {
+    //按id排序，注解的方法每次加载的顺序不一样
+    Map<String, MappedStatement> statements = new TreeMap<String, MappedStatement>();
+    //StrictMap里模糊的缩略名放的是Ambiguity
+    for (Object value : configuration.getMappedStatements()) {
+      if (value instanceof MappedStatement) {
+        MappedStatement ms = (MappedStatement) value;
+        if (ms.getCache() != null && cacheId.equals(ms.getCache().getId())) {
+          statements.put(ms.getId(), ms);
+        }
+      }
+    }
+    Map<String, ResultMap> resultMaps = new TreeMap<String, ResultMap>();
+    StringBuilder mappings = new StringBuilder();
+    for (MappedStatement ms : statements.values()) {
+      mappings.append(ms.getId()).append(' ').append(ms.getSqlCommandType());
+      for (ResultMap resultMap : ms.getResultMaps()) {
+        mappings.append(' ').append(resultMap.getId());
+        addResultMap(resultMaps, resultMap);
+      }
+      mappings.append('\n');
+    }
+    Set<Class<?>> types = new TreeSet<Class<?>>(new Comparator<Class<?>>() {
+      @Override
+      public int compare(Class<?> o1, Class<?> o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+    for (ResultMap resultMap : resultMaps.values()) {
+      mappings.append(resultMap.getId()).append(' ').append(resultMap.getType().getName())
+          .append(' ').append(resultMap.getAutoMapping());
+      for (ResultMapping mapping : resultMap.getResultMappings()) {
+        appendMapping(mappings, mapping);
+      }
+      Discriminator discriminator = resultMap.getDiscriminator();
+      if (discriminator != null) {
+        appendMapping(mappings, discriminator.getResultMapping());
+        mappings.append(' ').append(new TreeMap<String, String>(discriminator.getDiscriminatorMap()));
+      }
+      mappings.append('\n');
+      types.add(resultMap.getType());
+    }
+    for (Class<?> type : types) {
+      appendFields(mappings, type);
+    }
+    return digest(mappings.toString());
+  }
+
+  private void addResultMap(Map<String, ResultMap> resultMaps, ResultMap resultMap) {
+    if (resultMaps.put(resultMap.getId(), resultMap) != null) {
+      return;
+    }
+    for (ResultMapping mapping : resultMap.getResultMappings()) {
+      addResultMap(resultMaps, mapping.getNestedResultMapId());
+    }
+    if (resultMap.getDiscriminator() != null) {
+      for (String id : resultMap.getDiscriminator().getDiscriminatorMap().values()) {
+        addResultMap(resultMaps, id);
+      }
+    }
+  }
+
+  private void addResultMap(Map<String, ResultMap> resultMaps, String id) {
+    if (id != null && !resultMaps.containsKey(id) && configuration.hasResultMap(id)) {
+      addResultMap(resultMaps, configuration.getResultMap(id));
+    }
+  }
+
+  private void appendMapping(StringBuilder mappings, ResultMapping mapping) {
+    mappings.append(" [").append(mapping.getProperty())
+        .append(',').append(mapping.getColumn())
+        .append(',').append(mapping.getJavaType() == null ? null : mapping.getJavaType().getName())
+        .append(',').append(mapping.getNestedResultMapId())
+        .append(',').append(mapping.getNestedQueryId())
+        .append(',').append(mapping.getColumnPrefix())
+        .append(']');
+  }
+
+  //Java自带的类型(String，Map这些)不用算
+  private void appendFields(StringBuilder mappings, Class<?> type) {
+    for (Class<?> current = type; current != null && !isPlatformType(current); current = current.getSuperclass()) {
+      Set<String> fields = new TreeSet<String>();
+      for (Field field : current.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+          fields.add(field.getName() + ':' + field.getType().getName());
+        }
+      }
+      mappings.append(current.getName()).append(' ').append(fields).append('\n');
+    }
+  }
+
+  private static boolean isPlatformType(Class<?> type) {
+    return type.isPrimitive() || type.isArray() || type.getName().startsWith("java.");
+  }
+
+  private String digest(String mappings) {
+    try {
+      byte[] bytes = MessageDigest.getInstance("SHA-1").digest(mappings.getBytes("UTF-8"));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : bytes) {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new CacheException("Error computing the mapping fingerprint of cache " + cacheId + ".  Cause: " + e, e);
+    } catch (UnsupportedEncodingException e) {
+      throw new CacheException("Error computing the mapping fingerprint of cache " + cacheId + ".  Cause: " + e, e);
+    }
+  }
+
+}
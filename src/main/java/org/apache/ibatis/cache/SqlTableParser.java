@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the tables used by a SQL statement: the names following FROM, JOIN, UPDATE, INTO and USING.
+ * Tables are recorded without their schema or catalog and in lower case (see {@link #tableName(String)}),
+ * so that app.person and "PERSON" are the same table; tables of the same name in two schemas
+ * therefore invalidate each other. This is not a SQL parser: it may find too many tables (e.g. the
+ * alias of a common table expression), which only invalidates caches more often than needed, but it
+ * misses the tables of statements it cannot read, like procedure calls or tables hidden behind
+ * views or synonyms. Declare the tables attribute of such statements.
+ */
+/**
+ * 从SQL里找出用到的表(FROM，JOIN，UPDATE，INTO，USING后面的名字)
+ * 表名去掉schema，转成小写，app.person和person算同一张表
+ * 不是真正的SQL解析器，多找出来的表只会让缓存多失效几次；存储过程、视图、同义词背后的表找不到，要在tables属性里声明
+ */
+class SqlTableParser {
+
+  private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "from", "join", "update", "into", "using"));
+  //FROM和UPDATE后面可以是逗号分隔的多个表
+  private static final Set<String> TABLE_LIST_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "from", "update"));
+  //不能是别名的关键字
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "select", "from", "where", "set", "values", "value", "on", "using", "join", "inner", "left", "right",
+      "full", "outer", "cross", "natural", "straight_join", "group", "order", "having", "limit", "offset",
+      "fetch", "union", "intersect", "except", "minus", "for", "with", "as", "lateral", "window",
+      "returning", "default", "partition", "connect", "start", "into", "when", "only"));
+
+  private SqlTableParser() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /*
+   * @return the tables in lower case, or null if none was found
+   */
+  static String[] parse(String sql) {
+    List<String> tokens = tokenize(sql);
+    Set<String> tables = new LinkedHashSet<String>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      if (TABLE_KEYWORDS.contains(token)) {
+        i = readTables(tokens, i + 1, tables, TABLE_LIST_KEYWORDS.contains(token));
+      }
+    }
+    return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+  }
+
+  //读表名，跳过别名；返回最后读到的位置
+  private static int readTables(List<String> tokens, int i, Set<String> tables, boolean list) {
+    while (i < tokens.size()) {
+      String name = tokens.get(i);
+      if (!isName(name)) {
+        //子查询之类的
+        return i - 1;
+      }
+      tables.add(tableName(name));
+      i++;
+      if (i < tokens.size() && "as".equals(tokens.get(i))) {
+        i++;
+      }
+      if (i < tokens.size() && isName(tokens.get(i))) {
+        i++;
+      }
+      if (list && i < tokens.size() && ",".equals(tokens.get(i))) {
+        i++;
+      } else {
+        return i - 1;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isName(String token) {
+    char c = token.charAt(0);
+    if (c == '"' || c == '`' || c == '[') {
+      return true;
+    }
+    return (Character.isLetter(c) || c == '_') && !KEYWORDS.contains(token);
+  }
+
+  /*
+   * @return the name without its schema or catalog and without quotes, in lower case
+   */
+  static String tableName(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    char quote = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (quote != 0) {
+        //引号里的点是名字的一部分
+        if (c == quote) {
+          quote = 0;
+        } else {
+          sb.append(c);
+        }
+      } else if (c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '[') {
+        quote = ']';
+      } else if (c == '.') {
+        //只留最后一段
+        sb.setLength(0);
+      } else if (!Character.isWhitespace(c)) {
+        sb.append(c);
+      }
+    }
+    return sb.toString().toLowerCase(Locale.ENGLISH);
+  }
+
+  //拆成单词(小写)，带引号的名字和标点；跳过注释和字符串
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        while (i < length && sql.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '\'') {
+        i++;
+        while (i < length) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+              i += 2;
+              continue;
+            }
+            break;
+          }
+          i++;
+        }
+        i++;
+      } else if (c == '"' || c == '`' || c == '[' || Character.isLetterOrDigit(c) || c == '_') {
+        int start = i;
+        while (i < length) {
+          char d = sql.charAt(i);
+          if (d == '"' || d == '`' || d == '[') {
+            char close = d == '[' ? ']' : d;
+            int end = sql.indexOf(close, i + 1);
+            i = end < 0 ? length : end + 1;
+          } else if (Character.isLetterOrDigit(d) || d == '_' || d == '$' || d == '#' || d == '.') {
+            i++;
+          } else {
+            break;
+          }
+        }
+        tokens.add(sql.substring(start, i).toLowerCase(Locale.ENGLISH));
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Table level invalidation of the second level cache (setting cacheInvalidation=TABLE).
+ *
+ * Instead of clearing whole caches, a committed write records a sequence number for each table
+ * it writes. Cached results are stored with the tables they were read from and the sequence
+ * number current when the query started, and are ignored if one of those tables was written
+ * since. The sequence does not depend on the wall clock, so a clock adjustment can neither
+ * hide a write nor invalidate everything; it starts from the time in microseconds so that
+ * results stored by a previous run (e.g. in a file cache) are older than any write of this one.
+ *
+ * The tables of a statement are the ones declared in its tables attribute or else the ones
+ * found in its SQL, both without their schema and in lower case. Results of selects whose tables are unknown depend on the pseudo table
+ * {@link #namespaceTable(Cache)}, which every write of the namespace invalidates.
+ */
+/**
+ * 按表让二级缓存失效
+ * 记录每张表最后一次写(提交)的序号，缓存的结果带上读过的表和查询开始时的序号，之后这些表被写过就不用这个结果
+ * 序号不用系统时间，时钟被调过也不会漏掉写
+ */
+public class TableInvalidations {
+
+  //最多记住这么多条SQL的表
+  private static final int MAXIMUM_PARSED_STATEMENTS = 1024;
+  private static final String[] UNKNOWN = new String[0];
+
+  //写的序号，从微秒数开始，比以前运行时存下来的都大
+  private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+  //表 -> 最后一次写的序号
+  private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+  //SQL -> 表
+  private final ConcurrentMap<String, String[]> parsedTables = new ConcurrentHashMap<String, String[]>();
+
+  /*
+   * @return the tables read by the statement, or null if unknown
+   */
+  public String[] getReadTables(MappedStatement ms, BoundSql boundSql) {
+    return ms.getTables() != null ? ms.getTables() : getTables(boundSql.getSql());
+  }
+
+  /*
+   * @return the tables written by the statement, or null if unknown. The SQL is only generated when no tables were declared.
+   */
+  public String[] getWrittenTables(MappedStatement ms, Object parameterObject) {
+    return ms.getTables() != null ? ms.getTables() : getTables(ms.getBoundSql(parameterObject).getSql());
+  }
+
+  private String[] getTables(String sql) {
+    String[] tables = parsedTables.get(sql);
+    if (tables == null) {
+      tables = SqlTableParser.parse(sql);
+      if (tables == null) {
+        tables = UNKNOWN;
+      }
+      //动态SQL可能有很多种，记满了就不记了
+      if (parsedTables.size() < MAXIMUM_PARSED_STATEMENTS) {
+        parsedTables.put(sql, tables);
+      }
+    }
+    return tables == UNKNOWN ? null : tables;
+  }
+
+  /*
+   * @return the sequence number to store with a result, taken before the query is executed
+   */
+  public long stamp() {
+    return sequence.get();
+  }
+
+  /*
+   * Marks the tables as written. Call after the write has been committed, locally or on another node.
+   */
+  public void invalidate(Collection<String> tables) {
+    Long write = sequence.incrementAndGet();
+    for (String table : tables) {
+      //并发的写可能后拿到的序号先放进去，只能往大了改
+      Long lastWrite = lastWrites.putIfAbsent(table, write);
+      while (lastWrite != null && lastWrite < write && !lastWrites.replace(table, lastWrite, write)) {
+        lastWrite = lastWrites.get(table);
+      }
+    }
+  }
+
+  public Object wrap(String[] tables, long stamp, Object value) {
+    return new StampedValue(tables, stamp, value);
+  }
+
+  /*
+   * @return the cached value, or null if it was read from a table that has been written since
+   */
+  public Object unwrap(Object cached) {
+    if (!(cached instanceof StampedValue)) {
+      return cached;
+    }
+    StampedValue stamped = (StampedValue) cached;
+    for (String table : stamped.tables) {
+      Long lastWrite = lastWrites.get(table);
+      //序号比查询开始时的大，说明是查询开始以后提交的写
+      if (lastWrite != null && lastWrite > stamped.stamp) {
+        return null;
+      }
+    }
+    return stamped.value;
+  }
+
+  /*
+   * @return the value of a cache entry, whether it was stored with table invalidation or not
+   */
+  public static Object getValue(Object cached) {
+    return cached instanceof StampedValue ? ((StampedValue) cached).value : cached;
+  }
+
+  /*
+   * @return the name a table is recorded under: without its schema or catalog and quotes, in lower case
+   */
+  public static String tableName(String name) {
+    return SqlTableParser.tableName(name);
+  }
+
+  public static String namespaceTable(Cache cache) {
+    return "namespace:" + cache.getId();
+  }
+
+  /*
+   * @return the pseudo table the rows of the {@link EntityCache} read from the table depend on.
+   * Writes that evict their entities by id do not invalidate it, so the other rows stay cached.
+   */
+  public static String entityTable(String table) {
+    return "entity:" + table;
+  }
+
+  private static class StampedValue implements Serializable {
+    private static final long serialVersionUID = 4562731891562018346L;
+
+    private String[] tables;
+    private long stamp;
+    private Object value;
+
+    //BINARY和COPY编码器按字段复制，不用退回Java序列化
+    private StampedValue() {
+    }
+
+    StampedValue(String[] tables, long stamp, Object value) {
+      this.tables = tables;
+      this.stamp = stamp;
+      this.value = value;
+    }
+  }
+
+}
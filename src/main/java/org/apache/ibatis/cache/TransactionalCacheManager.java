@@ -19,6 +19,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
 
 /**
  * @author Clinton Begin
@@ -31,6 +32,14 @@ public class TransactionalCacheManager {
 
   //管理了许多TransactionalCache
   private Map<Cache, TransactionalCache> transactionalCaches = new HashMap<Cache, TransactionalCache>();
+  private InvalidationBus invalidationBus;
+
+  public TransactionalCacheManager() {
+  }
+
+  public TransactionalCacheManager(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+  }
 
   public void clear(Cache cache) {
     getTransactionalCache(cache).clear();
@@ -62,7 +71,7 @@ public class TransactionalCacheManager {
   private TransactionalCache getTransactionalCache(Cache cache) {
     TransactionalCache txCache = transactionalCaches.get(cache);
     if (txCache == null) {
-      txCache = new TransactionalCache(cache);
+      txCache = new TransactionalCache(cache, invalidationBus);
       transactionalCaches.put(cache, txCache);
     }
     return txCache;
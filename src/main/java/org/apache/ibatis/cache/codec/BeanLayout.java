@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.codec;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * The properties the codecs copy for a class, taken once from its {@link Reflector}.
+ *
+ * Only Serializable classes with a constructor without arguments are copied property by
+ * property, and only properties with a getter and a setter of the same type, that are not
+ * backed by a static or transient field. A class with a field that no such property covers
+ * (e.g. Integer getAge() with setAge(int)) has no layout, since copying its properties would
+ * lose that field. Such classes and classes that customize their serialization (writeObject,
+ * writeReplace, readResolve, ...), like lazy loading proxies, are copied with Java serialization.
+ */
+/**
+ * 编码器按属性复制对象时用的元信息(每个类只算一次)
+ */
+final class BeanLayout {
+
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+  private static final BeanLayout NONE = new BeanLayout(null, new String[0], new Invoker[0], new Invoker[0]);
+  private static final List<String> SERIALIZATION_METHODS = Arrays.asList(
+      "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve");
+  private static final ConcurrentMap<Class<?>, BeanLayout> LAYOUTS = new ConcurrentHashMap<Class<?>, BeanLayout>();
+
+  private final Constructor<?> constructor;
+  private final String[] properties;
+  private final Invoker[] getters;
+  private final Invoker[] setters;
+
+  private BeanLayout(Constructor<?> constructor, String[] properties, Invoker[] getters, Invoker[] setters) {
+    this.constructor = constructor;
+    this.properties = properties;
+    this.getters = getters;
+    this.setters = setters;
+  }
+
+  /*
+   * @return the layout of the class, or null if it cannot be copied property by property
+   */
+  static BeanLayout forClass(Class<?> type) {
+    BeanLayout layout = LAYOUTS.get(type);
+    if (layout == null) {
+      layout = newLayout(type);
+      LAYOUTS.put(type, layout);
+    }
+    return layout == NONE ? null : layout;
+  }
+
+  private static BeanLayout newLayout(Class<?> type) {
+    if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)
+        || type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray() || type.isEnum()
+        || hasSerializationMethods(type)) {
+      return NONE;
+    }
+    Reflector reflector = Reflector.forClass(type);
+    if (!reflector.hasDefaultConstructor()) {
+      return NONE;
+    }
+    //按名字排序，编码和解码的顺序一样
+    String[] names = reflector.getGetablePropertyNames().clone();
+    Arrays.sort(names);
+    List<String> properties = new ArrayList<String>();
+    List<Invoker> getters = new ArrayList<Invoker>();
+    List<Invoker> setters = new ArrayList<Invoker>();
+    for (String name : names) {
+      if (reflector.hasSetter(name) && reflector.getGetterType(name).equals(reflector.getSetterType(name))
+          && !isStaticOrTransient(type, name)) {
+        properties.add(name);
+        getters.add(reflector.getGetInvoker(name));
+        setters.add(reflector.getSetInvoker(name));
+      }
+    }
+    //有字段没被属性覆盖的话，按属性复制会丢数据，还是用Java序列化
+    if (!coversAllFields(type, properties)) {
+      return NONE;
+    }
+    return new BeanLayout(reflector.getDefaultConstructor(), properties.toArray(new String[properties.size()]),
+        getters.toArray(new Invoker[getters.size()]), setters.toArray(new Invoker[setters.size()]));
+  }
+
+  private static boolean hasSerializationMethods(Class<?> type) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Method method : c.getDeclaredMethods()) {
+        if (SERIALIZATION_METHODS.contains(method.getName())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean coversAllFields(Class<?> type, List<String> properties) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()
+            && !properties.contains(field.getName())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isStaticOrTransient(Class<?> type, String name) {
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.getName().equals(name)) {
+          int modifiers = field.getModifiers();
+          return Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers);
+        }
+      }
+    }
+    return false;
+  }
+
+  Object newInstance() {
+    try {
+      return constructor.newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Error creating an instance of " + constructor.getDeclaringClass() + ".  Cause: " + e, e);
+    }
+  }
+
+  int size() {
+    return properties.length;
+  }
+
+  Object get(Object bean, int property) {
+    try {
+      return getters[property].invoke(bean, NO_ARGUMENTS);
+    } catch (Exception e) {
+      throw new CacheException("Error reading property '" + properties[property] + "' of " + bean.getClass() + ".  Cause: " + e, e);
+    }
+  }
+
+  void set(Object bean, int property, Object value) {
+    try {
+      setters[property].invoke(bean, new Object[] { value });
+    } catch (Exception e) {
+      throw new CacheException("Error setting property '" + properties[property] + "' of " + bean.getClass() + ".  Cause: " + e, e);
+    }
+  }
+
+}
@@ -0,0 +1,546 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.codec;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * Stores values as byte arrays in a compact binary format (alias BINARY).
+ *
+ * Strings, numbers, dates, enums, arrays, the common JDK lists, sets and maps and beans with a
+ * {@link BeanLayout} are written directly; the properties of a bean are read and written
+ * through the invokers its {@link org.apache.ibatis.reflection.Reflector} found the first time
+ * the class was seen. Shared and cyclic references are kept. Any other Serializable object is
+ * written with Java serialization.
+ *
+ * Each thread reuses its output buffer, so encoding only allocates the returned array.
+ */
+/**
+ * 二进制codec，比Java序列化快而且小
+ * 常用类型直接写，JavaBean按Reflector找到的属性写(每个类只反射一次)，其他的还用Java序列化
+ */
+public class BinaryCodec implements CacheCodec {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte SHORT = 5;
+  private static final byte BYTE = 6;
+  private static final byte TRUE = 7;
+  private static final byte FALSE = 8;
+  private static final byte CHARACTER = 9;
+  private static final byte FLOAT = 10;
+  private static final byte DOUBLE = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BIG_INTEGER = 13;
+  private static final byte DATE = 14;
+  private static final byte SQL_DATE = 15;
+  private static final byte SQL_TIME = 16;
+  private static final byte TIMESTAMP = 17;
+  private static final byte ENUM = 18;
+  private static final byte BYTE_ARRAY = 19;
+  private static final byte ARRAY = 20;
+  private static final byte ARRAY_LIST = 21;
+  private static final byte LINKED_LIST = 22;
+  private static final byte HASH_SET = 23;
+  private static final byte LINKED_HASH_SET = 24;
+  private static final byte TREE_SET = 25;
+  private static final byte HASH_MAP = 26;
+  private static final byte LINKED_HASH_MAP = 27;
+  private static final byte TREE_MAP = 28;
+  private static final byte BEAN = 29;
+  private static final byte SERIALIZED = 30;
+
+  //缓冲区比这个大就不留着复用了
+  private static final int MAXIMUM_RETAINED_BUFFER = 1024 * 1024;
+  private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+
+  static {
+    for (Class<?> type : new Class<?>[] { boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class }) {
+      PRIMITIVES.put(type.getName(), type);
+    }
+  }
+
+  //类名 -> 类，解码的时候不用每次都Class.forName
+  private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+  private final ThreadLocal<Output> outputs = new ThreadLocal<Output>() {
+    @Override
+    protected Output initialValue() {
+      return new Output();
+    }
+  };
+
+  @Override
+  public Object encode(Object value) {
+    Output output = outputs.get();
+    if (output.inUse) {
+      //编码的时候getter里又编码(比如又查询了)
+      output = new Output();
+    }
+    output.inUse = true;
+    try {
+      output.writeValue(value);
+      return Arrays.copyOf(output.buffer, output.position);
+    } finally {
+      output.reset();
+    }
+  }
+
+  @Override
+  public Object decode(Object encoded) {
+    return new Input((byte[]) encoded).readValue();
+  }
+
+  private Class<?> classForName(String name) {
+    Class<?> type = classes.get(name);
+    if (type == null) {
+      type = PRIMITIVES.get(name);
+      if (type == null) {
+        try {
+          type = Resources.classForName(name);
+        } catch (ClassNotFoundException e) {
+          throw new CacheException("Error deserializing object.  Cause: " + e, e);
+        }
+      }
+      classes.put(name, type);
+    }
+    return type;
+  }
+
+  private static final class Output {
+    private byte[] buffer = new byte[256];
+    private int position;
+    private boolean inUse;
+    //写过的对象 -> 序号，同一个对象第二次只写序号
+    private Map<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+    private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+    void reset() {
+      position = 0;
+      inUse = false;
+      classes.clear();
+      if (buffer.length > MAXIMUM_RETAINED_BUFFER) {
+        buffer = new byte[256];
+      }
+      //IdentityHashMap清空的代价和容量成正比
+      if (references.size() > 1024) {
+        references = new IdentityHashMap<Object, Integer>();
+      } else {
+        references.clear();
+      }
+    }
+
+    void writeValue(Object value) {
+      if (value == null) {
+        writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        writeByte(STRING);
+        writeString((String) value);
+      } else if (type == Integer.class) {
+        writeByte(INTEGER);
+        writeSignedLong((Integer) value);
+      } else if (type == Long.class) {
+        writeByte(LONG);
+        writeSignedLong((Long) value);
+      } else if (type == Short.class) {
+        writeByte(SHORT);
+        writeSignedLong((Short) value);
+      } else if (type == Byte.class) {
+        writeByte(BYTE);
+        writeByte((Byte) value);
+      } else if (type == Boolean.class) {
+        writeByte((Boolean) value ? TRUE : FALSE);
+      } else if (type == Character.class) {
+        writeByte(CHARACTER);
+        writeLength((Character) value);
+      } else if (type == Float.class) {
+        writeByte(FLOAT);
+        writeFixedLong(Float.floatToIntBits((Float) value), 4);
+      } else if (type == Double.class) {
+        writeByte(DOUBLE);
+        writeFixedLong(Double.doubleToLongBits((Double) value), 8);
+      } else if (type == BigDecimal.class) {
+        writeByte(BIG_DECIMAL);
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+        writeSignedLong(((BigDecimal) value).scale());
+      } else if (type == BigInteger.class) {
+        writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (value instanceof Enum) {
+        writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else {
+        writeObject(value, type);
+      }
+    }
+
+    //可变的对象，记下序号，保持共享和循环引用
+    private void writeObject(Object value, Class<?> type) {
+      Integer reference = references.get(value);
+      if (reference != null) {
+        writeByte(REFERENCE);
+        writeLength(reference);
+        return;
+      }
+      if (type == Date.class || type == java.sql.Date.class || type == Time.class || type == Timestamp.class) {
+        references.put(value, references.size());
+        writeByte(type == Date.class ? DATE : type == java.sql.Date.class ? SQL_DATE : type == Time.class ? SQL_TIME : TIMESTAMP);
+        writeSignedLong(((Date) value).getTime());
+        if (type == Timestamp.class) {
+          writeLength(((Timestamp) value).getNanos());
+        }
+      } else if (type == byte[].class) {
+        references.put(value, references.size());
+        writeByte(BYTE_ARRAY);
+        writeBytes((byte[]) value);
+      } else if (type.isArray()) {
+        references.put(value, references.size());
+        writeByte(ARRAY);
+        writeClass(type.getComponentType());
+        int length = Array.getLength(value);
+        writeLength(length);
+        for (int i = 0; i < length; i++) {
+          writeValue(Array.get(value, i));
+        }
+      } else if (type == ArrayList.class || type == LinkedList.class || type == HashSet.class || type == LinkedHashSet.class
+          || (type == TreeSet.class && ((TreeSet<?>) value).comparator() == null)) {
+        references.put(value, references.size());
+        writeByte(type == ArrayList.class ? ARRAY_LIST : type == LinkedList.class ? LINKED_LIST
+            : type == HashSet.class ? HASH_SET : type == LinkedHashSet.class ? LINKED_HASH_SET : TREE_SET);
+        Collection<?> collection = (Collection<?>) value;
+        writeLength(collection.size());
+        for (Object element : collection) {
+          writeValue(element);
+        }
+      } else if (type == HashMap.class || type == LinkedHashMap.class
+          || (type == TreeMap.class && ((TreeMap<?, ?>) value).comparator() == null)) {
+        references.put(value, references.size());
+        writeByte(type == HashMap.class ? HASH_MAP : type == LinkedHashMap.class ? LINKED_HASH_MAP : TREE_MAP);
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeLength(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeValue(entry.getKey());
+          writeValue(entry.getValue());
+        }
+      } else {
+        BeanLayout layout = BeanLayout.forClass(type);
+        if (layout != null) {
+          references.put(value, references.size());
+          writeByte(BEAN);
+          writeClass(type);
+          for (int i = 0; i < layout.size(); i++) {
+            writeValue(layout.get(value, i));
+          }
+        } else if (value instanceof Serializable) {
+          writeByte(SERIALIZED);
+          writeBytes(JavaSerializationCodec.serialize((Serializable) value));
+        } else {
+          throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + value);
+        }
+      }
+    }
+
+    //第一次写类名，之后写序号
+    private void writeClass(Class<?> type) {
+      Integer index = classes.get(type);
+      if (index == null) {
+        classes.put(type, classes.size());
+        writeLength(0);
+        writeString(type.getName());
+      } else {
+        writeLength(index + 1);
+      }
+    }
+
+    private void writeString(String value) {
+      int length = value.length();
+      writeLength(length);
+      ensureCapacity(length);
+      for (int i = 0; i < length; i++) {
+        writeLength(value.charAt(i));
+      }
+    }
+
+    private void writeBytes(byte[] value) {
+      writeLength(value.length);
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, buffer, position, value.length);
+      position += value.length;
+    }
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    //非负数，每个字节7位
+    private void writeLength(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    //zigzag，绝对值小的负数也短
+    private void writeSignedLong(long value) {
+      ensureCapacity(10);
+      long zigzag = (value << 1) ^ (value >> 63);
+      while ((zigzag & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+      buffer[position++] = (byte) zigzag;
+    }
+
+    private void writeFixedLong(long value, int bytes) {
+      ensureCapacity(bytes);
+      for (int i = 0; i < bytes; i++) {
+        buffer[position++] = (byte) (value >>> (i * 8));
+      }
+    }
+
+    private void ensureCapacity(int bytes) {
+      if (position + bytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+      }
+    }
+  }
+
+  private final class Input {
+    private final byte[] buffer;
+    private int position;
+    private final List<Object> references = new ArrayList<Object>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Object readValue() {
+      byte tag = buffer[position++];
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return references.get(readLength());
+        case STRING:
+          return readString();
+        case INTEGER:
+          return Integer.valueOf((int) readSignedLong());
+        case LONG:
+          return Long.valueOf(readSignedLong());
+        case SHORT:
+          return Short.valueOf((short) readSignedLong());
+        case BYTE:
+          return Byte.valueOf(buffer[position++]);
+        case TRUE:
+          return Boolean.TRUE;
+        case FALSE:
+          return Boolean.FALSE;
+        case CHARACTER:
+          return Character.valueOf((char) readLength());
+        case FLOAT:
+          return Float.valueOf(Float.intBitsToFloat((int) readFixedLong(4)));
+        case DOUBLE:
+          return Double.valueOf(Double.longBitsToDouble(readFixedLong(8)));
+        case BIG_DECIMAL:
+          BigInteger unscaled = new BigInteger(readBytes());
+          return new BigDecimal(unscaled, (int) readSignedLong());
+        case BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case ENUM:
+          Class enumType = readClass();
+          return Enum.valueOf(enumType, readString());
+        case DATE:
+          return register(new Date(readSignedLong()));
+        case SQL_DATE:
+          return register(new java.sql.Date(readSignedLong()));
+        case SQL_TIME:
+          return register(new Time(readSignedLong()));
+        case TIMESTAMP:
+          Timestamp timestamp = new Timestamp(readSignedLong());
+          timestamp.setNanos(readLength());
+          return register(timestamp);
+        case BYTE_ARRAY:
+          return register(readBytes());
+        case ARRAY:
+          Class<?> componentType = readClass();
+          Object array = register(Array.newInstance(componentType, readLength()));
+          for (int i = 0; i < Array.getLength(array); i++) {
+            Array.set(array, i, readValue());
+          }
+          return array;
+        case ARRAY_LIST:
+        case LINKED_LIST:
+        case HASH_SET:
+        case LINKED_HASH_SET:
+        case TREE_SET:
+          int size = readLength();
+          Collection<Object> collection = (Collection<Object>) register(newCollection(tag, size));
+          for (int i = 0; i < size; i++) {
+            collection.add(readValue());
+          }
+          return collection;
+        case HASH_MAP:
+        case LINKED_HASH_MAP:
+        case TREE_MAP:
+          int entries = readLength();
+          Map<Object, Object> map = (Map<Object, Object>) register(newMap(tag, entries));
+          for (int i = 0; i < entries; i++) {
+            map.put(readValue(), readValue());
+          }
+          return map;
+        case BEAN:
+          Class<?> type = readClass();
+          BeanLayout layout = BeanLayout.forClass(type);
+          Object bean = register(layout.newInstance());
+          for (int i = 0; i < layout.size(); i++) {
+            layout.set(bean, i, readValue());
+          }
+          return bean;
+        case SERIALIZED:
+          return JavaSerializationCodec.deserialize(readBytes());
+        default:
+          throw new CacheException("Error deserializing object.  Cause: unknown tag " + tag);
+      }
+    }
+
+    private Object register(Object value) {
+      references.add(value);
+      return value;
+    }
+
+    private Collection<?> newCollection(byte tag, int size) {
+      switch (tag) {
+        case ARRAY_LIST:
+          return new ArrayList<Object>(size);
+        case LINKED_LIST:
+          return new LinkedList<Object>();
+        case HASH_SET:
+          return new HashSet<Object>(capacity(size));
+        case LINKED_HASH_SET:
+          return new LinkedHashSet<Object>(capacity(size));
+        default:
+          return new TreeSet<Object>();
+      }
+    }
+
+    private Map<?, ?> newMap(byte tag, int size) {
+      switch (tag) {
+        case HASH_MAP:
+          return new HashMap<Object, Object>(capacity(size));
+        case LINKED_HASH_MAP:
+          return new LinkedHashMap<Object, Object>(capacity(size));
+        default:
+          return new TreeMap<Object, Object>();
+      }
+    }
+
+    private int capacity(int size) {
+      return Math.max(size * 4 / 3 + 1, 16);
+    }
+
+    private Class<?> readClass() {
+      int index = readLength();
+      if (index == 0) {
+        Class<?> type = classForName(readString());
+        classes.add(type);
+        return type;
+      }
+      return classes.get(index - 1);
+    }
+
+    private String readString() {
+      char[] chars = new char[readLength()];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) readLength();
+      }
+      return new String(chars);
+    }
+
+    private byte[] readBytes() {
+      byte[] bytes = new byte[readLength()];
+      System.arraycopy(buffer, position, bytes, 0, bytes.length);
+      position += bytes.length;
+      return bytes;
+    }
+
+    private int readLength() {
+      int value = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = buffer[position++];
+        value |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    private long readSignedLong() {
+      long zigzag = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = buffer[position++];
+        zigzag |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+      }
+    }
+
+    private long readFixedLong(int bytes) {
+      long value = 0;
+      for (int i = 0; i < bytes; i++) {
+        value |= (long) (buffer[position++] & 0xFF) << (i * 8);
+      }
+      return value;
+    }
+  }
+
+}
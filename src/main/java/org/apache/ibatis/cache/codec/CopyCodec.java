@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.codec;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Stores deep copies of the values and returns deep copies on every hit, without converting
+ * them to bytes (alias COPY).
+ *
+ * The same types as {@link BinaryCodec} are copied directly, keeping shared and cyclic
+ * references; strings, numbers and enums are immutable and shared. Any other Serializable
+ * object is copied with Java serialization. Copies take more memory than byte arrays but
+ * are faster to make.
+ */
+/**
+ * 深拷贝codec，不转成字节：放进去的时候拷贝一份，每次命中再拷贝一份
+ */
+public class CopyCodec implements CacheCodec {
+
+  @Override
+  public Object encode(Object value) {
+    return new Copier().copy(value);
+  }
+
+  @Override
+  public Object decode(Object encoded) {
+    return new Copier().copy(encoded);
+  }
+
+  private static boolean isImmutable(Class<?> type) {
+    return type == String.class || type == Integer.class || type == Long.class || type == Short.class
+        || type == Byte.class || type == Boolean.class || type == Character.class || type == Float.class
+        || type == Double.class || type == BigDecimal.class || type == BigInteger.class;
+  }
+
+  private static final class Copier {
+    //原对象 -> 拷贝，保持共享和循环引用
+    private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    @SuppressWarnings("unchecked")
+    Object copy(Object value) {
+      if (value == null) {
+        return null;
+      }
+      Class<?> type = value.getClass();
+      if (isImmutable(type) || value instanceof Enum) {
+        return value;
+      }
+      Object copy = copies.get(value);
+      if (copy != null) {
+        return copy;
+      }
+      if (type == Date.class) {
+        return register(value, new Date(((Date) value).getTime()));
+      } else if (type == java.sql.Date.class) {
+        return register(value, new java.sql.Date(((Date) value).getTime()));
+      } else if (type == Time.class) {
+        return register(value, new Time(((Date) value).getTime()));
+      } else if (type == Timestamp.class) {
+        Timestamp timestamp = new Timestamp(((Timestamp) value).getTime());
+        timestamp.setNanos(((Timestamp) value).getNanos());
+        return register(value, timestamp);
+      } else if (type.isArray()) {
+        int length = Array.getLength(value);
+        Object array = register(value, Array.newInstance(type.getComponentType(), length));
+        if (type.getComponentType().isPrimitive()) {
+          System.arraycopy(value, 0, array, 0, length);
+        } else {
+          for (int i = 0; i < length; i++) {
+            Array.set(array, i, copy(Array.get(value, i)));
+          }
+        }
+        return array;
+      } else if (type == ArrayList.class || type == LinkedList.class || type == HashSet.class || type == LinkedHashSet.class
+          || (type == TreeSet.class && ((TreeSet<?>) value).comparator() == null)) {
+        Collection<?> collection = (Collection<?>) value;
+        Collection<Object> collectionCopy = (Collection<Object>) register(value, newCollection(type, collection.size()));
+        for (Object element : collection) {
+          collectionCopy.add(copy(element));
+        }
+        return collectionCopy;
+      } else if (type == HashMap.class || type == LinkedHashMap.class
+          || (type == TreeMap.class && ((TreeMap<?, ?>) value).comparator() == null)) {
+        Map<?, ?> map = (Map<?, ?>) value;
+        Map<Object, Object> mapCopy = (Map<Object, Object>) register(value, newMap(type, map.size()));
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          mapCopy.put(copy(entry.getKey()), copy(entry.getValue()));
+        }
+        return mapCopy;
+      }
+      BeanLayout layout = BeanLayout.forClass(type);
+      if (layout != null) {
+        Object bean = register(value, layout.newInstance());
+        for (int i = 0; i < layout.size(); i++) {
+          layout.set(bean, i, copy(layout.get(value, i)));
+        }
+        return bean;
+      } else if (value instanceof Serializable) {
+        return register(value, JavaSerializationCodec.deserialize(JavaSerializationCodec.serialize((Serializable) value)));
+      } else {
+        throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + value);
+      }
+    }
+
+    private Object register(Object value, Object copy) {
+      copies.put(value, copy);
+      return copy;
+    }
+
+    private Collection<?> newCollection(Class<?> type, int size) {
+      if (type == ArrayList.class) {
+        return new ArrayList<Object>(size);
+      } else if (type == LinkedList.class) {
+        return new LinkedList<Object>();
+      } else if (type == HashSet.class) {
+        return new HashSet<Object>(Math.max(size * 4 / 3 + 1, 16));
+      } else if (type == LinkedHashSet.class) {
+        return new LinkedHashSet<Object>(Math.max(size * 4 / 3 + 1, 16));
+      }
+      return new TreeSet<Object>();
+    }
+
+    private Map<?, ?> newMap(Class<?> type, int size) {
+      if (type == HashMap.class) {
+        return new HashMap<Object, Object>(Math.max(size * 4 / 3 + 1, 16));
+      } else if (type == LinkedHashMap.class) {
+        return new LinkedHashMap<Object, Object>(Math.max(size * 4 / 3 + 1, 16));
+      }
+      return new TreeMap<Object, Object>();
+    }
+  }
+
+}
@@ -16,10 +16,10 @@ package org.apache.ibatis.cache.decorators;
  */
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
@@ -27,22 +27,39 @@ import org.apache.ibatis.cache.CacheException;
 /**
  * Simple blocking decorator 
  * 
- * Sipmle and inefficient version of EhCache's BlockingCache decorator.
- * It sets a lock over a cache key when the element is not found in cache.
- * This way, other threads will wait until this element is filled instead of hitting the database.
+ * Single flight version of EhCache's BlockingCache decorator.
+ * When an element is not found in cache, the thread that missed it loads it, and other threads
+ * asking for the same key wait until it is put instead of hitting the database.
+ *
+ * Hits never block. A key is only tracked while it is being loaded, and is forgotten once the
+ * loading thread puts it (or puts null, which releases it without a value). Waiters receive the
+ * value that was put: as is when shareValues is true (read only caches), or else by reading
+ * the cache again, so that read write caches still return copies.
+ *
+ * timeout bounds the time a thread waits (a CacheException is thrown after it), and leaseTime
+ * the time a key stays loading: after it, a waiting thread loads the key itself, so a miss
+ * that is never followed by a put does not block the key forever. Both are in milliseconds,
+ * 0 (the default) waits forever.
  * 
  * @author Eduardo Macarron
  *
  */
+/**
+ * 阻塞缓存
+ * 没命中的键只让一个线程去查，其他线程等它放进来，直接拿它放进来的值；命中不加锁，查完就不再记着这个键
+ */
 public class BlockingCache implements Cache {
 
   private long timeout;
+  private long leaseTime;
+  private boolean shareValues;
   private final Cache delegate;
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  //正在查的键，查完(putObject)就删掉
+  private final ConcurrentMap<Object, Loading> loadings;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<Object, ReentrantLock>();
+    this.loadings = new ConcurrentHashMap<Object, Loading>();
   }
 
   @Override
@@ -58,20 +75,44 @@ public class BlockingCache implements Cache {
   @Override
   public void putObject(Object key, Object value) {
     try {
-      delegate.putObject(key, value);
+      if (value != null) {
+        delegate.putObject(key, value);
+      }
     } finally {
-      releaseLock(key);
+      release(key, value);
     }
   }
 
   @Override
   public Object getObject(Object key) {
-    acquireLock(key);
     Object value = delegate.getObject(key);
     if (value != null) {
-      releaseLock(key);
-    }        
-    return value;
+      return value;
+    }
+    long waitUntil = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+    while (true) {
+      Loading loading = new Loading(leaseTime);
+      Loading current = loadings.putIfAbsent(key, loading);
+      if (current == null) {
+        //自己来查；之前别的线程可能刚放进去
+        value = delegate.getObject(key);
+        if (value != null) {
+          release(key, value);
+        }
+        return value;
+      }
+      if (current.owner == Thread.currentThread()) {
+        //同一个线程又没命中，它还没放进去
+        return null;
+      }
+      if (await(key, current, waitUntil) && current.value != null) {
+        value = shareValues ? current.value : delegate.getObject(key);
+        if (value != null) {
+          return value;
+        }
+      }
+      //放的是null，或者查的线程超时了：再试一次，可能轮到自己查
+    }
   }
 
   @Override
@@ -88,33 +129,35 @@ public class BlockingCache implements Cache {
   public ReadWriteLock getReadWriteLock() {
     return null;
   }
-  
-  private ReentrantLock getLockForKey(Object key) {
-    ReentrantLock lock = new ReentrantLock();
-    ReentrantLock previous = locks.putIfAbsent(key, lock);
-    return previous == null ? lock : previous;
-  }
-  
-  private void acquireLock(Object key) {
-    Lock lock = getLockForKey(key);
-    if (timeout > 0) {
-      try {
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());  
-        }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+
+  //等查的线程放进来；返回false表示它超时了，换别的线程查
+  private boolean await(Object key, Loading loading, long waitUntil) {
+    try {
+      long until = Math.min(waitUntil, loading.expiresAt);
+      if (until == Long.MAX_VALUE) {
+        loading.done.await();
+        return true;
+      }
+      long remaining = until - System.currentTimeMillis();
+      if (remaining > 0 && loading.done.await(remaining, TimeUnit.MILLISECONDS)) {
+        return true;
       }
-    } else {
-      lock.lock();
+    } catch (InterruptedException e) {
+      throw new CacheException("Got interrupted while waiting for key " + key + " at the cache " + delegate.getId(), e);
     }
+    if (System.currentTimeMillis() >= loading.expiresAt) {
+      loadings.remove(key, loading);
+      return false;
+    }
+    throw new CacheException("Couldn't get a lock in " + timeout + " for the key " + key + " at the cache " + delegate.getId());
   }
-  
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
+
+  //有值的话不管是谁在查都结束(值是新的)；null只结束自己在查的
+  private void release(Object key, Object value) {
+    Loading loading = loadings.get(key);
+    if (loading != null && (value != null || loading.owner == Thread.currentThread()) && loadings.remove(key, loading)) {
+      loading.value = value;
+      loading.done.countDown();
     }
   }
 
@@ -124,5 +167,36 @@ public class BlockingCache implements Cache {
 
   public void setTimeout(long timeout) {
     this.timeout = timeout;
-  }  
-}
\ No newline at end of file
+  }
+
+  public long getLeaseTime() {
+    return leaseTime;
+  }
+
+  public void setLeaseTime(long leaseTime) {
+    this.leaseTime = leaseTime;
+  }
+
+  public boolean isShareValues() {
+    return shareValues;
+  }
+
+  /*
+   * Whether waiting threads receive the very object that was put. Only for caches whose values are not copied.
+   */
+  public void setShareValues(boolean shareValues) {
+    this.shareValues = shareValues;
+  }
+
+  private static class Loading {
+    private final Thread owner = Thread.currentThread();
+    private final long expiresAt;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Object value;
+
+    Loading(long leaseTime) {
+      this.expiresAt = leaseTime > 0 ? System.currentTimeMillis() + leaseTime : Long.MAX_VALUE;
+    }
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+
+/**
+ * Compresses the serialized values of a read-write cache (compression attribute of &lt;cache&gt;).
+ *
+ * Placed under {@link SerializedCache}, it deflates the byte arrays longer than
+ * compressionThreshold bytes (1024 by default) and inflates them again on every hit. Values
+ * that are not byte arrays, and compressed values that would not be smaller, are stored as
+ * they are. The compressionLevel property (1, the fastest, by default) trades CPU for memory.
+ * The bytes saved and the time spent are recorded in the {@link CacheStatistics} of the cache.
+ */
+/**
+ * 压缩缓存
+ * 放在SerializedCache下面，序列化后超过compressionThreshold字节的值用Deflater压缩，命中时再解压
+ */
+public class CompressedCache implements Cache {
+
+  private final Cache delegate;
+  private int compressionThreshold = 1024;
+  private int compressionLevel = Deflater.BEST_SPEED;
+  private CacheStatistics statistics;
+
+  public CompressedCache(Cache delegate) {
+    this.delegate = delegate;
+    this.statistics = new CacheStatistics(delegate.getId());
+  }
+
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value instanceof byte[] && ((byte[]) value).length > compressionThreshold) {
+      value = compress((byte[]) value);
+    }
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    return value instanceof CompressedValue ? decompress((CompressedValue) value) : value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //压缩后没有变小的话存原来的
+  private Object compress(byte[] bytes) {
+    long start = System.nanoTime();
+    Deflater deflater = new Deflater(compressionLevel);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+      byte[] buffer = new byte[Math.min(bytes.length, 8192)];
+      while (!deflater.finished() && out.size() < bytes.length) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      byte[] compressed = out.toByteArray();
+      boolean smaller = deflater.finished() && compressed.length < bytes.length;
+      statistics.recordCompression(bytes.length, smaller ? compressed.length : bytes.length, System.nanoTime() - start);
+      return smaller ? new CompressedValue(compressed, bytes.length) : bytes;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private byte[] decompress(CompressedValue value) {
+    long start = System.nanoTime();
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(value.bytes);
+      byte[] bytes = new byte[value.length];
+      int length = 0;
+      while (length < bytes.length && !inflater.finished()) {
+        int inflated = inflater.inflate(bytes, length, bytes.length - length);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += inflated;
+      }
+      if (length != bytes.length) {
+        throw new CacheException("Error decompressing cached value: expected " + bytes.length + " bytes, got " + length);
+      }
+      statistics.recordDecompression(System.nanoTime() - start);
+      return bytes;
+    } catch (DataFormatException e) {
+      throw new CacheException("Error decompressing cached value.  Cause: " + e, e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  //压缩过的值，记下原来的长度
+  private static class CompressedValue implements Serializable {
+    private static final long serialVersionUID = 2470139586327619352L;
+
+    private final byte[] bytes;
+    private final int length;
+
+    CompressedValue(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+    }
+  }
+
+}
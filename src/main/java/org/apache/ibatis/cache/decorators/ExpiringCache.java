@@ -0,0 +1,184 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.DeadlineAwareCache;
+
+/**
+ * Per entry time to live (flushInterval of the cache, cacheTtl of a select).
+ *
+ * Each entry expires ttl milliseconds after it was put, instead of the whole cache being cleared
+ * every interval like {@link ScheduledCache}. Expired entries are never returned, and are
+ * removed in the background by a shared {@link TimingWheel}, so they do not wait for the next
+ * access or for eviction to free their memory.
+ *
+ * A value wrapped with {@link #withTtl(Object, long)} expires after its own ttl. The delegate
+ * must be thread safe, since entries are removed from another thread. A delegate that is a
+ * {@link DeadlineAwareCache} also receives the deadline of each entry.
+ */
+/**
+ * 按缓存项过期的缓存
+ * 每一项放进去ttl毫秒以后过期，不会整个缓存一起清空；过期的项由时间轮在后台删掉
+ */
+public class ExpiringCache implements Cache {
+
+  private final Cache delegate;
+  //0表示不过期
+  private long ttl;
+  //键 -> 过期时间，只有会过期的键
+  private final ConcurrentMap<Object, Long> deadlines = new ConcurrentHashMap<Object, Long>();
+  private CacheStatistics statistics;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  /*
+   * Sets the time to live of the entries put without their own, in milliseconds. 0 (the default) never expires them.
+   */
+  public void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long entryTtl = ttl;
+    if (value instanceof TtlValue) {
+      entryTtl = ((TtlValue) value).ttl;
+      value = ((TtlValue) value).value;
+    }
+    long deadline = entryTtl > 0 ? System.currentTimeMillis() + entryTtl : 0;
+    if (delegate instanceof DeadlineAwareCache) {
+      //重启后还在的缓存，过期时间也要一起存
+      ((DeadlineAwareCache) delegate).putObject(key, value, deadline);
+    } else {
+      delegate.putObject(key, value);
+    }
+    if (entryTtl > 0) {
+      deadlines.put(key, deadline);
+      TimingWheel.SHARED.schedule(this, key, deadline);
+    } else if (!deadlines.isEmpty()) {
+      deadlines.remove(key);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    if (!deadlines.isEmpty()) {
+      Long deadline = deadlines.get(key);
+      if (deadline != null && deadline <= System.currentTimeMillis()) {
+        expire(key, deadline);
+        return null;
+      }
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    deadlines.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    deadlines.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * Removes the entry if it was not put again since the deadline was set. Called by the timing wheel.
+   */
+  void expire(Object key, long deadline) {
+    if (deadlines.remove(key, deadline)) {
+      delegate.removeObject(key);
+      //过期的算淘汰
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /*
+   * @return the value to put in a cache so that it expires after ttl milliseconds
+   */
+  public static Object withTtl(Object value, long ttl) {
+    return new TtlValue(value, ttl, System.currentTimeMillis() + ttl);
+  }
+
+  /*
+   * For caches without this decorator, which store the wrapped value as is.
+   * @return the cached value, or null if it was put with a ttl that has passed
+   */
+  public static Object unwrap(Object cached) {
+    if (!(cached instanceof TtlValue)) {
+      return cached;
+    }
+    TtlValue value = (TtlValue) cached;
+    return value.deadline <= System.currentTimeMillis() ? null : value.value;
+  }
+
+  private static class TtlValue implements Serializable {
+    private static final long serialVersionUID = -2781641539722934164L;
+
+    private final Object value;
+    private final long ttl;
+    private final long deadline;
+
+    TtlValue(Object value, long ttl, long deadline) {
+      this.value = value;
+      this.ttl = ttl;
+      this.deadline = deadline;
+    }
+  }
+
+}
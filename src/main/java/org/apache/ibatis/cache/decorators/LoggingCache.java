@@ -18,6 +18,7 @@ package org.apache.ibatis.cache.decorators;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
@@ -26,7 +27,7 @@ import org.apache.ibatis.logging.LogFactory;
  */
 /**
  * 日志缓存
- * 添加功能：取缓存时打印命中率
+ * 添加功能：记录命中，未命中和放入的统计(CacheStatistics)，取缓存时打印命中率
  *
  */
 public class LoggingCache implements Cache {
@@ -34,14 +35,32 @@ public class LoggingCache implements Cache {
   //用的mybatis自己的抽象Log
   private Log log;  
   private Cache delegate;
+  /**
+   * @deprecated read {@link #getStatistics()} instead; only kept up to date for subclasses
+   */
+  @Deprecated
   protected int requests = 0;
+  /**
+   * @deprecated read {@link #getStatistics()} instead; only kept up to date for subclasses
+   */
+  @Deprecated
   protected int hits = 0;
+  private final CacheStatistics statistics;
 
   public LoggingCache(Cache delegate) {
+    this(delegate, new CacheStatistics(delegate.getId()));
+  }
+
+  public LoggingCache(Cache delegate, CacheStatistics statistics) {
     this.delegate = delegate;
+    this.statistics = statistics;
     this.log = LogFactory.getLog(getId());
   }
 
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -55,25 +74,35 @@ public class LoggingCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     delegate.putObject(key, object);
+    statistics.recordPut(object);
   }
 
   //目的就是getObject时，打印命中率
   @Override
   public Object getObject(Object key) {
-      //访问一次requests加一
-    requests++;
     final Object value = delegate.getObject(key);
-    //命中了则hits加一
+    //命中了则hits加一，否则misses加一
     if (value != null) {
-      hits++;
+      statistics.recordHit();
+    } else {
+      statistics.recordMiss();
     }
+    //兼容以前的子类，从统计里取
+    hits = (int) statistics.getHits();
+    requests = (int) (statistics.getHits() + statistics.getMisses());
     if (log.isDebugEnabled()) {
-        //就是打印命中率 hits/requests
+        //就是打印命中率 hits/requests，直接读计数器，不做snapshot(要问缓存的大小)
       log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
     }
     return value;
   }
 
+  public double getHitRatio() {
+    long hitCount = statistics.getHits();
+    long requestCount = hitCount + statistics.getMisses();
+    return requestCount == 0 ? 0 : (double) hitCount / (double) requestCount;
+  }
+
   @Override
   public Object removeObject(Object key) {
     return delegate.removeObject(key);
@@ -99,8 +128,4 @@ public class LoggingCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private double getHitRatio() {
-    return (double) hits / (double) requests;
-  }
-
 }
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
 
 /**
  * Lru (first in, first out) cache decorator
@@ -36,6 +37,7 @@ public class LruCache implements Cache {
   //额外用了一个map才做lru，但是委托的Cache里面其实也是一个map，这样等于用2倍的内存实现lru功能
   private Map<Object, Object> keyMap;
   private Object eldestKey;
+  private CacheStatistics statistics;
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
@@ -72,6 +74,10 @@ public class LruCache implements Cache {
     };
   }
 
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     delegate.putObject(key, value);
@@ -106,9 +112,17 @@ public class LruCache implements Cache {
     keyMap.put(key, key);
     //keyMap是linkedhashmap，最老的记录已经被移除了，然后这里我们还需要移除被委托的那个cache的记录
     if (eldestKey != null) {
-      delegate.removeObject(eldestKey);
+      evict(eldestKey);
       eldestKey = null;
     }
   }
 
+  //淘汰一条(不是调用者要删的)，计入统计
+  private void evict(Object key) {
+    delegate.removeObject(key);
+    if (statistics != null) {
+      statistics.recordEviction();
+    }
+  }
+
 }
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the heap size of an object graph in bytes, assuming a 64-bit JVM with compressed
+ * references. Fields are walked by reflection (the layout of each class is computed once), and
+ * only a sample of the elements of large collections and arrays is measured.
+ *
+ * The result is an approximation meant to compare cached results with each other, not an exact size.
+ */
+/**
+ * 估算对象占用的堆内存(字节)，大集合只抽样计算
+ */
+public class ObjectSizeEstimator {
+
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  //集合里每个元素的额外开销(链表/哈希表节点)
+  private static final int COLLECTION_ENTRY = 32;
+  //集合和数组超过这么多元素就抽样
+  private static final int SAMPLE_SIZE = 64;
+  private static final int MAXIMUM_DEPTH = 16;
+
+  private final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<Class<?>, ClassLayout>();
+
+  public long estimate(Object object) {
+    return estimate(object, new IdentityHashMap<Object, Object>(), 0);
+  }
+
+  private long estimate(Object object, IdentityHashMap<Object, Object> visited, int depth) {
+    if (object == null || visited.put(object, object) != null) {
+      return 0;
+    }
+    Class<?> type = object.getClass();
+    if (object instanceof String) {
+      return align(OBJECT_HEADER + 12) + align(ARRAY_HEADER + 2L * ((String) object).length());
+    }
+    if (object instanceof Long || object instanceof Double) {
+      return 24;
+    }
+    if (object instanceof Number || object instanceof Boolean || object instanceof Character || object instanceof java.util.Date) {
+      return 16;
+    }
+    if (type.isArray()) {
+      return estimateArray(object, type, visited, depth);
+    }
+    if (object instanceof Collection) {
+      Collection<?> collection = (Collection<?>) object;
+      return align(OBJECT_HEADER + 4L * REFERENCE) + (long) COLLECTION_ENTRY * collection.size()
+          + estimateElements(collection, collection.size(), visited, depth);
+    }
+    if (object instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) object;
+      return align(OBJECT_HEADER + 4L * REFERENCE) + (long) COLLECTION_ENTRY * map.size()
+          + estimateElements(map.keySet(), map.size(), visited, depth)
+          + estimateElements(map.values(), map.size(), visited, depth);
+    }
+    ClassLayout layout = getLayout(type);
+    long size = layout.shallowSize;
+    if (depth < MAXIMUM_DEPTH) {
+      for (Field field : layout.referenceFields) {
+        try {
+          size += estimate(field.get(object), visited, depth + 1);
+        } catch (Exception e) {
+          // ignore, count the reference only
+        }
+      }
+    }
+    return size;
+  }
+
+  private long estimateArray(Object array, Class<?> type, IdentityHashMap<Object, Object> visited, int depth) {
+    int length = Array.getLength(array);
+    Class<?> componentType = type.getComponentType();
+    if (componentType.isPrimitive()) {
+      return align(ARRAY_HEADER + (long) primitiveSize(componentType) * length);
+    }
+    long size = align(ARRAY_HEADER + (long) REFERENCE * length);
+    if (length == 0 || depth >= MAXIMUM_DEPTH) {
+      return size;
+    }
+    int step = Math.max(1, length / SAMPLE_SIZE);
+    long sampled = 0;
+    int samples = 0;
+    for (int i = 0; i < length; i += step) {
+      sampled += estimate(Array.get(array, i), visited, depth + 1);
+      samples++;
+    }
+    return size + sampled * length / samples;
+  }
+
+  //大集合只算一部分元素，再按比例放大
+  private long estimateElements(Collection<?> elements, int count, IdentityHashMap<Object, Object> visited, int depth) {
+    if (count == 0 || depth >= MAXIMUM_DEPTH) {
+      return 0;
+    }
+    long sampled = 0;
+    int samples = 0;
+    if (elements instanceof List && elements instanceof RandomAccess) {
+      List<?> list = (List<?>) elements;
+      int step = Math.max(1, count / SAMPLE_SIZE);
+      for (int i = 0; i < count; i += step) {
+        sampled += estimate(list.get(i), visited, depth + 1);
+        samples++;
+      }
+    } else {
+      Iterator<?> it = elements.iterator();
+      while (it.hasNext() && samples < SAMPLE_SIZE) {
+        sampled += estimate(it.next(), visited, depth + 1);
+        samples++;
+      }
+    }
+    return samples == 0 ? 0 : sampled * count / samples;
+  }
+
+  private ClassLayout getLayout(Class<?> type) {
+    ClassLayout layout = layouts.get(type);
+    if (layout == null) {
+      layout = new ClassLayout(type);
+      layouts.put(type, layout);
+    }
+    return layout;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static class ClassLayout {
+    private final long shallowSize;
+    private final List<Field> referenceFields = new ArrayList<Field>();
+
+    ClassLayout(Class<?> type) {
+      long size = OBJECT_HEADER;
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          if (field.getType().isPrimitive()) {
+            size += primitiveSize(field.getType());
+          } else {
+            size += REFERENCE;
+            try {
+              field.setAccessible(true);
+              referenceFields.add(field);
+            } catch (RuntimeException e) {
+              // not accessible (e.g. JDK internals), count the reference only
+            }
+          }
+        }
+      }
+      this.shallowSize = align(size);
+    }
+  }
+
+}
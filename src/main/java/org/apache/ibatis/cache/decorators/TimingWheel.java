@@ -0,0 +1,147 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Hashed timing wheel expiring the entries of {@link ExpiringCache}s in the background.
+ *
+ * A single daemon thread advances the wheel one bucket per tick and expires the entries of that
+ * bucket whose deadline has passed; entries further away than one turn of the wheel wait in
+ * their bucket for the remaining turns. Scheduling only adds to a queue, so it costs the same
+ * whatever the number of entries. Timeouts are never cancelled: a timeout whose entry was
+ * replaced or removed does nothing when it fires.
+ */
+/**
+ * 时间轮
+ * 一个后台线程每个刻度转一格，让这一格里到期的缓存项过期；超过一圈的项记着还要转几圈
+ */
+class TimingWheel {
+
+  private static final Log log = LogFactory.getLog(TimingWheel.class);
+
+  //所有ExpiringCache共用一个
+  static final TimingWheel SHARED = new TimingWheel(100, 512);
+
+  private final long tickDuration;
+  private final List<List<Timeout>> buckets;
+  private final int mask;
+  //新加的，下一个刻度再放进格子里(格子只有后台线程访问)
+  private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+  private long startTime;
+  private Thread worker;
+
+  TimingWheel(long tickDuration, int bucketCount) {
+    if (Integer.bitCount(bucketCount) != 1) {
+      throw new IllegalArgumentException("The number of buckets must be a power of two: " + bucketCount);
+    }
+    this.tickDuration = tickDuration;
+    this.mask = bucketCount - 1;
+    this.buckets = new ArrayList<List<Timeout>>(bucketCount);
+    for (int i = 0; i < bucketCount; i++) {
+      buckets.add(new ArrayList<Timeout>());
+    }
+  }
+
+  /*
+   * Calls cache.expire(key, deadline) once the deadline (from System.currentTimeMillis) has passed.
+   */
+  void schedule(ExpiringCache cache, Object key, long deadline) {
+    start();
+    added.add(new Timeout(cache, key, deadline));
+  }
+
+  //用到的时候才启动线程
+  private synchronized void start() {
+    if (worker == null) {
+      startTime = System.currentTimeMillis();
+      worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          work();
+        }
+      }, "mybatis-cache-expiry");
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  private void work() {
+    long tick = 0;
+    while (true) {
+      long sleep = startTime + (tick + 1) * tickDuration - System.currentTimeMillis();
+      if (sleep > 0) {
+        try {
+          Thread.sleep(sleep);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+      transferAdded(tick);
+      expire(buckets.get((int) (tick & mask)), System.currentTimeMillis());
+      tick++;
+    }
+  }
+
+  private void transferAdded(long tick) {
+    Timeout timeout;
+    while ((timeout = added.poll()) != null) {
+      long ticks = (timeout.deadline - startTime) / tickDuration;
+      //已经过了的放在当前格子里，马上过期
+      long bucket = Math.max(ticks, tick);
+      timeout.remainingRounds = (bucket - tick) / buckets.size();
+      buckets.get((int) (bucket & mask)).add(timeout);
+    }
+  }
+
+  private void expire(List<Timeout> bucket, long now) {
+    for (Iterator<Timeout> iterator = bucket.iterator(); iterator.hasNext();) {
+      Timeout timeout = iterator.next();
+      if (timeout.remainingRounds > 0) {
+        timeout.remainingRounds--;
+      } else if (timeout.deadline <= now) {
+        iterator.remove();
+        try {
+          timeout.cache.expire(timeout.key, timeout.deadline);
+        } catch (RuntimeException e) {
+          log.error("Error expiring cache entry " + timeout.key + ".  Cause: " + e, e);
+        }
+      }
+    }
+  }
+
+  private static class Timeout {
+    private final ExpiringCache cache;
+    private final Object key;
+    private final long deadline;
+    private long remainingRounds;
+
+    Timeout(ExpiringCache cache, Object key, long deadline) {
+      this.cache = cache;
+      this.key = key;
+      this.deadline = deadline;
+    }
+  }
+
+}
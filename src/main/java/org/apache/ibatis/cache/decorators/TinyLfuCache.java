@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+
+/**
+ * W-TinyLFU cache decorator.
+ *
+ * New entries go to a small LRU window (1% of size). Entries leaving the window compete with
+ * the least recently used entry of the main area, and only the one accessed more often
+ * according to a {@link FrequencySketch} stays. The main area is a segmented LRU: entries hit
+ * again move from probation to protected (80% of the main area).
+ *
+ * A scan of many keys read once therefore can not push out entries that are read all the time.
+ */
+/**
+ * W-TinyLFU 缓存
+ * 新记录先进窗口区(LRU)，被挤出窗口时和主区最该淘汰的记录比较访问频率，频率高的留下
+ * 这样一次大的扫描查询不会把热点数据都挤掉
+ */
+public class TinyLfuCache implements Cache {
+
+  private final Cache delegate;
+  private final FrequencySketch sketch;
+
+  //三个区都是按访问顺序排列的LinkedHashMap，只用key
+  private final Map<Object, Object> window = newAccessOrderedMap();
+  private final Map<Object, Object> probation = newAccessOrderedMap();
+  private final Map<Object, Object> protectedArea = newAccessOrderedMap();
+
+  private int maximumWindowSize;
+  private int maximumMainSize;
+  private int maximumProtectedSize;
+  private CacheStatistics statistics;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    this.sketch = new FrequencySketch(1024);
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(int size) {
+    size = Math.max(1, size);
+    maximumWindowSize = Math.max(1, size / 100);
+    maximumMainSize = size - maximumWindowSize;
+    maximumProtectedSize = (int) (maximumMainSize * 0.8d);
+    sketch.ensureCapacity(size);
+    while (protectedArea.size() > maximumProtectedSize) {
+      probation.put(removeEldest(protectedArea), Boolean.TRUE);
+    }
+    while (window.size() > maximumWindowSize) {
+      admit(removeEldest(window));
+    }
+    while (probation.size() + protectedArea.size() > maximumMainSize) {
+      evict(removeEldest(probation.isEmpty() ? protectedArea : probation));
+    }
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    sketch.increment(key);
+    if (onHit(key)) {
+      return;
+    }
+    window.put(key, Boolean.TRUE);
+    if (window.size() > maximumWindowSize) {
+      admit(removeEldest(window));
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    //没命中也要计数，这样才知道哪些key经常被访问
+    sketch.increment(key);
+    onHit(key);
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    window.remove(key);
+    probation.remove(key);
+    protectedArea.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    window.clear();
+    probation.clear();
+    protectedArea.clear();
+    sketch.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * @return true if the key is tracked in one of the areas
+   */
+  private boolean onHit(Object key) {
+    if (window.containsKey(key)) {
+      window.get(key); //touch
+      return true;
+    }
+    if (probation.remove(key) != null) {
+      //再次命中，从试用区升级到保护区
+      protectedArea.put(key, Boolean.TRUE);
+      if (protectedArea.size() > maximumProtectedSize) {
+        probation.put(removeEldest(protectedArea), Boolean.TRUE);
+      }
+      return true;
+    }
+    if (protectedArea.containsKey(key)) {
+      protectedArea.get(key); //touch
+      return true;
+    }
+    return false;
+  }
+
+  //被挤出窗口的记录，和主区最该淘汰的记录比较访问频率
+  private void admit(Object candidate) {
+    if (probation.size() + protectedArea.size() < maximumMainSize) {
+      probation.put(candidate, Boolean.TRUE);
+      return;
+    }
+    Map<Object, Object> victimArea = probation.isEmpty() ? protectedArea : probation;
+    if (victimArea.isEmpty()) {
+      evict(candidate);
+      return;
+    }
+    Object victim = victimArea.keySet().iterator().next();
+    if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+      victimArea.remove(victim);
+      evict(victim);
+      probation.put(candidate, Boolean.TRUE);
+    } else {
+      evict(candidate);
+    }
+  }
+
+  //淘汰的(不是调用者删的)要计入统计
+  private void evict(Object key) {
+    delegate.removeObject(key);
+    if (statistics != null) {
+      statistics.recordEviction();
+    }
+  }
+
+  private static Object removeEldest(Map<Object, Object> area) {
+    Iterator<Object> it = area.keySet().iterator();
+    Object eldest = it.next();
+    it.remove();
+    return eldest;
+  }
+
+  private static Map<Object, Object> newAccessOrderedMap() {
+    return new LinkedHashMap<Object, Object>(16, .75F, true);
+  }
+
+}
@@ -22,6 +22,8 @@ import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.invalidation.Invalidation;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
 
 /**
  * The 2nd level cache transactional buffer.
@@ -47,9 +49,16 @@ public class TransactionalCache implements Cache {
   //commit时要添加的元素
   private Map<Object, Object> entriesToAddOnCommit;
   private Set<Object> entriesMissedInCache;
+  //清空缓存后通知其他节点，没配置的话是null
+  private InvalidationBus invalidationBus;
 
   public TransactionalCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TransactionalCache(Cache delegate, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
     //默认commit时不清缓存
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
@@ -106,6 +115,9 @@ public class TransactionalCache implements Cache {
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
+      if (invalidationBus != null) {
+        invalidationBus.publish(Invalidation.cache(delegate.getId()));
+      }
     }
     flushPendingEntries();
     reset();
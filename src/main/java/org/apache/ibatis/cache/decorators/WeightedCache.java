@@ -0,0 +1,212 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.TableInvalidations;
+import org.apache.ibatis.executor.CacheRefresher;
+import org.apache.ibatis.io.Resources;
+
+/**
+ * LRU cache decorator bounded by the total weight of its entries instead of their number.
+ *
+ * By default an entry weighs its estimated size in bytes (see {@link ObjectSizeEstimator});
+ * with weigher ROWS it weighs the number of rows of the cached list. Entries heavier than
+ * maximumEntryWeight are not cached at all.
+ *
+ * In a read-write cache it is applied above the serialization of the values, so that it weighs
+ * the results themselves rather than their serialized copies.
+ */
+/**
+ * 按权重(字节数或行数)淘汰的LRU缓存
+ * 一个结果可能是1行也可能是5万行，按条数限制大小的话内存占用没法预估
+ */
+public class WeightedCache implements Cache {
+
+  private final Cache delegate;
+  //key -> 权重，按访问顺序排列
+  private final Map<Object, Long> weights = new LinkedHashMap<Object, Long>(16, .75F, true);
+  private long totalWeight;
+
+  private Weigher weigher = new ByteSizeWeigher();
+  //总权重上限，默认64M
+  private long maximumWeight = 64L * 1024 * 1024;
+  //单个结果的权重上限，超过就不缓存，0表示不限
+  private long maximumEntryWeight = 0;
+  //条数上限，配置了size才有
+  private int size = Integer.MAX_VALUE;
+  private CacheStatistics statistics;
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(int size) {
+    this.size = size;
+    evict(null);
+  }
+
+  public void setMaximumWeight(long maximumWeight) {
+    this.maximumWeight = maximumWeight;
+    evict(null);
+  }
+
+  public void setMaximumEntryWeight(long maximumEntryWeight) {
+    this.maximumEntryWeight = maximumEntryWeight;
+  }
+
+  /*
+   * @param weigher BYTES, ROWS or the name of a class implementing {@link Weigher}
+   */
+  public void setWeigher(String weigher) {
+    if ("BYTES".equalsIgnoreCase(weigher)) {
+      this.weigher = new ByteSizeWeigher();
+    } else if ("ROWS".equalsIgnoreCase(weigher)) {
+      this.weigher = new RowCountWeigher();
+    } else {
+      try {
+        this.weigher = (Weigher) Resources.classForName(weigher).newInstance();
+      } catch (Exception e) {
+        throw new CacheException("Error creating weigher '" + weigher + "'.  Cause: " + e, e);
+      }
+    }
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long weight = weigher.weigh(key, value);
+    if ((maximumEntryWeight > 0 && weight > maximumEntryWeight) || weight > maximumWeight) {
+      //太大了，不缓存(旧值也删掉，免得返回过期的结果)
+      removeObject(key);
+      return;
+    }
+    Long previous = weights.put(key, weight);
+    totalWeight += weight - (previous == null ? 0 : previous);
+    delegate.putObject(key, value);
+    evict(key);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    weights.get(key); //touch
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long weight = weights.remove(key);
+    if (weight != null) {
+      totalWeight -= weight;
+    }
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    weights.clear();
+    totalWeight = 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //淘汰最久没用的，直到总权重和条数都不超过上限(刚放进去的不淘汰)
+  private void evict(Object justAdded) {
+    Iterator<Map.Entry<Object, Long>> it = weights.entrySet().iterator();
+    while ((totalWeight > maximumWeight || weights.size() > size) && it.hasNext()) {
+      Map.Entry<Object, Long> eldest = it.next();
+      if (eldest.getKey() == justAdded) {
+        continue;
+      }
+      it.remove();
+      totalWeight -= eldest.getValue();
+      delegate.removeObject(eldest.getKey());
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
+    }
+  }
+
+  /**
+   * Computes the weight of a cache entry.
+   */
+  public interface Weigher {
+    long weigh(Object key, Object value);
+  }
+
+  /**
+   * Weighs a cached result by its number of rows.
+   */
+  public static class RowCountWeigher implements Weigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      //去掉refreshAfter和表失效加的包装
+      value = TableInvalidations.getValue(CacheRefresher.unwrap(value));
+      if (value == null) {
+        return 0;
+      } else if (value instanceof Collection) {
+        return ((Collection<?>) value).size();
+      } else if (value instanceof Map) {
+        return ((Map<?, ?>) value).size();
+      } else if (value.getClass().isArray()) {
+        return java.lang.reflect.Array.getLength(value);
+      }
+      return 1;
+    }
+  }
+
+  /**
+   * Weighs a cached result by its estimated size in bytes.
+   */
+  public static class ByteSizeWeigher implements Weigher {
+    private final ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+
+    @Override
+    public long weigh(Object key, Object value) {
+      return estimator.estimate(value);
+    }
+  }
+
+}
@@ -0,0 +1,304 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+
+/**
+ * Thread safe LRU cache that does not lock on reads.
+ *
+ * Entries live in a ConcurrentHashMap, so a hit is a lock-free lookup. Instead of reordering
+ * the LRU list on every hit, the entry is recorded in one of several read buffers (picked by
+ * thread) and the buffers are replayed against the list in batches, under a lock that readers
+ * only try to acquire. A read may be dropped when its buffer is full, which only makes the LRU
+ * order approximate. Writes take the lock and evict the least recently used entries beyond size.
+ *
+ * CacheBuilder applies the standard decorators to this cache, except SynchronizedCache and the
+ * eviction decorators.
+ */
+/**
+ * 并发LRU缓存
+ * 读不加锁(ConcurrentHashMap)，访问记录先写入按线程分段的读缓冲区，再批量更新LRU链表
+ * 不需要SynchronizedCache，也不需要LruCache装饰
+ */
+public class ConcurrentLruCache implements Cache {
+
+  private static final Object NULL_KEY = new Object();
+
+  //每个读缓冲区的大小(2的幂)，攒够一半就尝试批量处理
+  private static final int READ_BUFFER_SIZE = 64;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+  //读缓冲区个数，按CPU数取2的幂
+  private static final int NUMBER_OF_READ_BUFFERS = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 2);
+  private static final int READ_BUFFERS_MASK = NUMBER_OF_READ_BUFFERS - 1;
+
+  private final String id;
+  private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+
+  //保护LRU链表，读线程只tryLock
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  //LRU链表的哨兵，head.next是最久没用的，head.prev是最近用的
+  private final Node head = new Node(null, null);
+
+  private final AtomicReferenceArray<Node>[] readBuffers = newReadBuffers();
+  private final AtomicLongArray readBufferWriteCounts = new AtomicLongArray(NUMBER_OF_READ_BUFFERS);
+  private final AtomicLongArray readBufferReadCounts = new AtomicLongArray(NUMBER_OF_READ_BUFFERS);
+
+  private volatile int size = 1024;
+  private volatile CacheStatistics statistics;
+
+  public ConcurrentLruCache(String id) {
+    this.id = id;
+    head.prev = head;
+    head.next = head;
+  }
+
+  //泛型数组只能这样建
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static AtomicReferenceArray<Node>[] newReadBuffers() {
+    AtomicReferenceArray<Node>[] readBuffers = new AtomicReferenceArray[NUMBER_OF_READ_BUFFERS];
+    for (int i = 0; i < NUMBER_OF_READ_BUFFERS; i++) {
+      readBuffers[i] = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    }
+    return readBuffers;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  public void setSize(int size) {
+    evictionLock.lock();
+    try {
+      this.size = size;
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Object mapKey = maskNull(key);
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      Node node = data.get(mapKey);
+      if (node != null) {
+        node.value = value;
+        moveToTail(node);
+      } else {
+        node = new Node(mapKey, value);
+        data.put(mapKey, node);
+        linkLast(node);
+        evict();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(maskNull(key));
+    if (node == null) {
+      return null;
+    }
+    recordRead(node);
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    evictionLock.lock();
+    try {
+      Node node = data.remove(maskNull(key));
+      if (node == null) {
+        return null;
+      }
+      unlink(node);
+      return node.value;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      data.clear();
+      for (Node node = head.next; node != head; ) {
+        Node next = node.next;
+        node.prev = null;
+        node.next = null;
+        node = next;
+      }
+      head.prev = head;
+      head.next = head;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void recordRead(Node node) {
+    int index = (int) Thread.currentThread().getId() & READ_BUFFERS_MASK;
+    long writeCount = readBufferWriteCounts.get(index);
+    long pending = writeCount - readBufferReadCounts.get(index);
+    //缓冲区满了就丢掉这次访问记录，LRU顺序只是近似的
+    if (pending < READ_BUFFER_SIZE && readBufferWriteCounts.compareAndSet(index, writeCount, writeCount + 1)) {
+      readBuffers[index].lazySet((int) (writeCount & READ_BUFFER_MASK), node);
+      pending++;
+    }
+    if (pending >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  //需要持有evictionLock
+  private void drainReadBuffers() {
+    for (int i = 0; i < NUMBER_OF_READ_BUFFERS; i++) {
+      AtomicReferenceArray<Node> buffer = readBuffers[i];
+      long readCount = readBufferReadCounts.get(i);
+      long writeCount = readBufferWriteCounts.get(i);
+      while (readCount < writeCount) {
+        int slot = (int) (readCount & READ_BUFFER_MASK);
+        Node node = buffer.get(slot);
+        if (node == null) {
+          //写线程已经占了位置但还没写入，下次再处理
+          break;
+        }
+        buffer.lazySet(slot, null);
+        //已经被删除的节点不用管
+        if (node.next != null) {
+          moveToTail(node);
+        }
+        readCount++;
+      }
+      readBufferReadCounts.lazySet(i, readCount);
+    }
+  }
+
+  private void evict() {
+    while (data.size() > size && head.next != head) {
+      Node eldest = head.next;
+      unlink(eldest);
+      if (data.remove(eldest.key, eldest) && statistics != null) {
+        statistics.recordEviction();
+      }
+    }
+  }
+
+  private void linkLast(Node node) {
+    node.prev = head.prev;
+    node.next = head;
+    head.prev.next = node;
+    head.prev = node;
+  }
+
+  private void unlink(Node node) {
+    if (node.next != null) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+    }
+  }
+
+  private void moveToTail(Node node) {
+    unlink(node);
+    linkLast(node);
+  }
+
+  private static Object maskNull(Object key) {
+    return key == null ? NULL_KEY : key;
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    int n = 1;
+    while (n < x) {
+      n <<= 1;
+    }
+    return n;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static final class Node {
+    final Object key;
+    volatile Object value;
+    //LRU链表指针，由evictionLock保护，不在链表里时为null
+    Node prev;
+    Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.decorators.ObjectSizeEstimator;
+
+/**
+ * Local (first level) cache of a session bounded by a number of entries and/or an estimated
+ * size in bytes (localCacheSize and localCacheMaxBytes settings).
+ *
+ * Puts never evict: the executor calls {@link #evict()} once the top level statement is done,
+ * so that the results a statement is still mapping (nested queries, deferred loads) stay
+ * cached until it ends. Entries are then evicted in LRU or FIFO order until both limits are met.
+ */
+/**
+ * 有上限的本地缓存(一级缓存)
+ * 放的时候不淘汰，等最外层的语句执行完了执行器再调evict()，免得嵌套查询和延迟加载要用的结果被淘汰
+ */
+public class LocalCache extends PerpetualCache {
+
+  private static final ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+
+  private final int maximumSize;
+  private final long maximumBytes;
+  //key -> 估算的字节数(不限字节数时为0)，LRU按访问顺序，FIFO按放入顺序
+  private final Map<Object, Long> weights;
+  private long totalBytes;
+  private CacheStatistics statistics;
+
+  /*
+   * @param maximumSize the maximum number of entries, Integer.MAX_VALUE for no limit
+   * @param maximumBytes the maximum estimated size in bytes, Long.MAX_VALUE for no limit
+   * @param accessOrder true to evict the least recently used entries first, false the oldest
+   */
+  public LocalCache(String id, int maximumSize, long maximumBytes, boolean accessOrder) {
+    super(id);
+    this.maximumSize = maximumSize;
+    this.maximumBytes = maximumBytes;
+    this.weights = new LinkedHashMap<Object, Long>(16, .75F, accessOrder);
+  }
+
+  public void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    //不限字节数就不用估算了
+    long bytes = maximumBytes == Long.MAX_VALUE ? 0 : estimator.estimate(value);
+    Long previous = weights.put(key, bytes);
+    totalBytes += bytes - (previous == null ? 0 : previous);
+    super.putObject(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    weights.get(key); //touch
+    return super.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Long bytes = weights.remove(key);
+    if (bytes != null) {
+      totalBytes -= bytes;
+    }
+    return super.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    weights.clear();
+    totalBytes = 0;
+  }
+
+  /*
+   * Evicts entries until the number of entries and their estimated size are within the limits.
+   */
+  public void evict() {
+    Iterator<Map.Entry<Object, Long>> it = weights.entrySet().iterator();
+    while ((weights.size() > maximumSize || totalBytes > maximumBytes) && it.hasNext()) {
+      Map.Entry<Object, Long> eldest = it.next();
+      it.remove();
+      totalBytes -= eldest.getValue();
+      super.removeObject(eldest.getKey());
+      if (statistics != null) {
+        statistics.recordEviction();
+      }
+    }
+  }
+
+}
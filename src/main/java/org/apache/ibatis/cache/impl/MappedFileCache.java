@@ -0,0 +1,548 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.DeadlineAwareCache;
+import org.apache.ibatis.cache.MappingFingerprint;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+/**
+ * Cache persisted in a memory-mapped file, so that its content survives restarts and the
+ * application does not start with a cold cache.
+ *
+ * The file holds a header and a log of records (serialized key and value, or a removal). Records
+ * are only appended; when the file is full the oldest entries are dropped and the live records
+ * are moved to the beginning of the file (compaction). On startup the index is rebuilt by reading
+ * the log, unless the header does not match the cache id, the file size or the fingerprint, in
+ * which case the file is emptied. The fingerprint is a {@link MappingFingerprint} of the statements
+ * that use the cache, their result maps and result types, followed by the fingerprint property.
+ * Set the property to something that changes when the cached data becomes invalid for other
+ * reasons, e.g. the application version.
+ *
+ * A {@link CacheKey} is stored as the list of objects it was built from, which does not depend on
+ * the JVM. Entries whose key is not serializable are not cached, and entries that can no longer
+ * be deserialized are dropped. Values must be Serializable and every get returns a new copy.
+ * Keys and values are serialized and deserialized outside of the lock of the cache.
+ *
+ * A record also holds the time its entry expires (flushInterval of the cache), which
+ * {@link org.apache.ibatis.cache.decorators.ExpiringCache} passes with
+ * {@link #putObject(Object, Object, long)}, so that entries reloaded after a restart still expire.
+ * The cacheTtl of a select is stored with the value itself.
+ * Expired records are dropped when the file is loaded and when they are read.
+ */
+/**
+ * 持久化到内存映射文件的缓存，重启后还在，不用冷启动
+ * 文件是只追加的日志，满了就淘汰最旧的再压缩；启动时校验文件头(id，大小，映射的摘要加上指纹)，不符就清空
+ */
+public class MappedFileCache implements DeadlineAwareCache {
+
+  private static final int MAGIC = 0x4D424331;
+  private static final int FORMAT_VERSION = 2;
+  //文件头：magic，格式版本，文件大小，写入位置，指纹长度，指纹
+  private static final int WRITE_POSITION_OFFSET = 12;
+  private static final int FINGERPRINT_OFFSET = 16;
+  //记录头：key长度，value长度(-1表示删除)，过期时间(0表示不过期)
+  private static final int RECORD_HEADER = 16;
+  private static final int REMOVED = -1;
+
+  private final String id;
+
+  private String directory = System.getProperty("java.io.tmpdir") + File.separator + "mybatis-cache";
+  private int fileSize = 64 * 1024 * 1024;
+  private String fingerprint = "";
+  //映射的摘要，加在用户的指纹前面
+  private MappingFingerprint mappingFingerprint;
+
+  //key -> 记录在文件里的位置，按写入顺序排列(也就是在文件里的顺序)
+  private final Map<StoredKey, Integer> index = new LinkedHashMap<StoredKey, Integer>();
+  private RandomAccessFile file;
+  private FileLock lock;
+  private MappedByteBuffer buffer;
+  private int dataStart;
+  private int writePosition;
+  //有效记录的总字节数
+  private long liveBytes;
+
+  public MappedFileCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /*
+   * Changing the directory, the file size or the fingerprint closes the file; it is opened again on next use.
+   */
+  public synchronized void setDirectory(String directory) {
+    close();
+    this.directory = directory;
+  }
+
+  public synchronized void setFileSize(int fileSize) {
+    close();
+    this.fileSize = fileSize;
+  }
+
+  public synchronized void setFingerprint(String fingerprint) {
+    close();
+    this.fingerprint = fingerprint;
+  }
+
+  /*
+   * Set by the cache builder. The digest of the mappings is computed when the file is opened.
+   */
+  public synchronized void setMappingFingerprint(MappingFingerprint mappingFingerprint) {
+    close();
+    this.mappingFingerprint = mappingFingerprint;
+  }
+
+  public synchronized File getFile() {
+    return new File(directory, id.replaceAll("[^A-Za-z0-9._-]", "_") + ".cache");
+  }
+
+  @Override
+  public synchronized int getSize() {
+    open();
+    return index.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    putObject(key, value, 0);
+  }
+
+  @Override
+  public void putObject(Object key, Object value, long deadline) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("MappedFileCache failed to store a non-serializable object: " + value);
+    }
+    //序列化不占着锁
+    StoredKey storedKey = toStoredKey(key);
+    if (storedKey == null) {
+      return;
+    }
+    byte[] bytes = serialize((Serializable) value);
+    synchronized (this) {
+      open();
+      if (RECORD_HEADER + storedKey.bytes.length + bytes.length > fileSize - dataStart) {
+        //比整个文件还大，不缓存(旧值也删掉)
+        remove(storedKey);
+        return;
+      }
+      drop(storedKey);
+      index.put(storedKey, append(storedKey.bytes, bytes, deadline));
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    StoredKey storedKey = toStoredKey(key);
+    if (storedKey == null) {
+      return null;
+    }
+    Integer position;
+    byte[] bytes;
+    synchronized (this) {
+      open();
+      position = index.get(storedKey);
+      if (position == null) {
+        return null;
+      }
+      if (isExpired(position, System.currentTimeMillis())) {
+        remove(storedKey);
+        return null;
+      }
+      bytes = readValue(position);
+    }
+    //反序列化不占着锁
+    try {
+      return deserialize(bytes);
+    } catch (CacheException e) {
+      //类变了，读不出来，当作没有(除非这期间又放了新值)
+      synchronized (this) {
+        if (position.equals(index.get(storedKey))) {
+          remove(storedKey);
+        }
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    StoredKey storedKey = toStoredKey(key);
+    if (storedKey == null) {
+      return null;
+    }
+    byte[] bytes = null;
+    synchronized (this) {
+      open();
+      Integer position = index.get(storedKey);
+      if (position != null && !isExpired(position, System.currentTimeMillis())) {
+        bytes = readValue(position);
+      }
+      remove(storedKey);
+    }
+    if (bytes == null) {
+      return null;
+    }
+    try {
+      return deserialize(bytes);
+    } catch (CacheException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    open();
+    index.clear();
+    liveBytes = 0;
+    setWritePosition(dataStart);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * Writes the content to disk and releases the file. The cache opens it again on next use.
+   */
+  public synchronized void close() {
+    if (file == null) {
+      return;
+    }
+    try {
+      buffer.force();
+      lock.release();
+      file.close();
+    } catch (IOException e) {
+      throw new CacheException("Error closing cache file " + getFile() + ".  Cause: " + e, e);
+    } finally {
+      file = null;
+      lock = null;
+      buffer = null;
+      index.clear();
+      liveBytes = 0;
+    }
+  }
+
+  private void open() {
+    if (file != null) {
+      return;
+    }
+    File path = getFile();
+    try {
+      path.getParentFile().mkdirs();
+      file = new RandomAccessFile(path, "rw");
+      try {
+        lock = file.getChannel().tryLock();
+      } catch (OverlappingFileLockException e) {
+        lock = null;
+      }
+      if (lock == null) {
+        throw new CacheException("Cache file " + path + " is already used by another cache or process.");
+      }
+      if (file.length() > fileSize) {
+        file.setLength(fileSize);
+      }
+      buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+      String mappings = mappingFingerprint == null ? "" : mappingFingerprint.getValue();
+      byte[] header = (id + "\n" + mappings + "\n" + fingerprint).getBytes("UTF-8");
+      dataStart = FINGERPRINT_OFFSET + 4 + header.length;
+      if (dataStart >= fileSize) {
+        throw new CacheException("Cache file size " + fileSize + " is too small.");
+      }
+      if (hasHeader(header)) {
+        load();
+      } else {
+        writeHeader(header);
+      }
+    } catch (IOException e) {
+      closeQuietly();
+      throw new CacheException("Error opening cache file " + path + ".  Cause: " + e, e);
+    } catch (CacheException e) {
+      closeQuietly();
+      throw e;
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      if (file != null) {
+        file.close();
+      }
+    } catch (IOException e) {
+      // ignore
+    }
+    file = null;
+    lock = null;
+    buffer = null;
+  }
+
+  private boolean hasHeader(byte[] header) {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != fileSize
+        || buffer.getInt(FINGERPRINT_OFFSET) != header.length) {
+      return false;
+    }
+    byte[] stored = new byte[header.length];
+    ByteBuffer in = buffer.duplicate();
+    in.position(FINGERPRINT_OFFSET + 4);
+    in.get(stored);
+    return Arrays.equals(header, stored);
+  }
+
+  private void writeHeader(byte[] header) {
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, FORMAT_VERSION);
+    buffer.putInt(8, fileSize);
+    buffer.putInt(FINGERPRINT_OFFSET, header.length);
+    ByteBuffer out = buffer.duplicate();
+    out.position(FINGERPRINT_OFFSET + 4);
+    out.put(header);
+    setWritePosition(dataStart);
+  }
+
+  //读一遍日志重建索引，后面的记录覆盖前面的
+  private void load() {
+    int end = buffer.getInt(WRITE_POSITION_OFFSET);
+    if (end < dataStart || end > fileSize) {
+      setWritePosition(dataStart);
+      return;
+    }
+    long now = System.currentTimeMillis();
+    int position = dataStart;
+    while (position + RECORD_HEADER <= end) {
+      int keyLength = buffer.getInt(position);
+      int valueLength = buffer.getInt(position + 4);
+      long length = (long) RECORD_HEADER + keyLength + Math.max(valueLength, 0);
+      if (keyLength < 0 || valueLength < REMOVED || position + length > end) {
+        //写了一半的记录
+        break;
+      }
+      byte[] key = new byte[keyLength];
+      ByteBuffer in = buffer.duplicate();
+      in.position(position + RECORD_HEADER);
+      in.get(key);
+      StoredKey storedKey = new StoredKey(key);
+      drop(storedKey);
+      //上次运行时就过期了的不要
+      if (valueLength != REMOVED && !isExpired(position, now)) {
+        index.put(storedKey, position);
+        liveBytes += length;
+      }
+      position += (int) length;
+    }
+    setWritePosition(position);
+  }
+
+  //删除要写一条删除记录，否则重启后又回来了
+  private void remove(StoredKey storedKey) {
+    if (drop(storedKey)) {
+      append(storedKey.bytes, null, 0);
+    }
+  }
+
+  private boolean drop(StoredKey storedKey) {
+    Integer position = index.remove(storedKey);
+    if (position == null) {
+      return false;
+    }
+    liveBytes -= recordLength(position);
+    return true;
+  }
+
+  private int append(byte[] key, byte[] value, long deadline) {
+    int length = RECORD_HEADER + key.length + (value == null ? 0 : value.length);
+    if (writePosition + length > fileSize) {
+      makeRoom(length);
+    }
+    int position = writePosition;
+    ByteBuffer out = buffer.duplicate();
+    out.position(position);
+    out.putInt(key.length);
+    out.putInt(value == null ? REMOVED : value.length);
+    out.putLong(deadline);
+    out.put(key);
+    if (value != null) {
+      out.put(value);
+      liveBytes += length;
+    }
+    //记录写完才移动写入位置，中途崩溃的话这条记录就不算
+    setWritePosition(position + length);
+    return position;
+  }
+
+  //先淘汰最旧的，直到剩下的加上新记录放得下，再把有效记录挪到文件开头
+  private void makeRoom(int length) {
+    Iterator<Map.Entry<StoredKey, Integer>> it = index.entrySet().iterator();
+    while (liveBytes + length > fileSize - dataStart && it.hasNext()) {
+      liveBytes -= recordLength(it.next().getValue());
+      it.remove();
+    }
+    //压缩过程中崩溃的话，重启后是空缓存而不是坏数据
+    setWritePosition(dataStart);
+    int position = dataStart;
+    for (Map.Entry<StoredKey, Integer> entry : index.entrySet()) {
+      int from = entry.getValue();
+      int recordLength = recordLength(from);
+      if (from != position) {
+        byte[] record = new byte[recordLength];
+        ByteBuffer in = buffer.duplicate();
+        in.position(from);
+        in.get(record);
+        ByteBuffer out = buffer.duplicate();
+        out.position(position);
+        out.put(record);
+        entry.setValue(position);
+      }
+      position += recordLength;
+    }
+    setWritePosition(position);
+  }
+
+  private void setWritePosition(int position) {
+    writePosition = position;
+    buffer.putInt(WRITE_POSITION_OFFSET, position);
+  }
+
+  private int recordLength(int position) {
+    return RECORD_HEADER + buffer.getInt(position) + Math.max(buffer.getInt(position + 4), 0);
+  }
+
+  private boolean isExpired(int position, long now) {
+    long deadline = buffer.getLong(position + 8);
+    return deadline != 0 && deadline <= now;
+  }
+
+  private byte[] readValue(int position) {
+    byte[] value = new byte[buffer.getInt(position + 4)];
+    ByteBuffer in = buffer.duplicate();
+    in.position(position + RECORD_HEADER + buffer.getInt(position));
+    in.get(value);
+    return value;
+  }
+
+  //CacheKey的hashcode和JVM有关(比如枚举)，所以只存组成它的对象
+  private StoredKey toStoredKey(Object key) {
+    Object stable = key;
+    if (key instanceof CacheKey) {
+      stable = new ArrayList<Object>(((CacheKey) key).getUpdateList());
+    }
+    try {
+      return new StoredKey(serialize((Serializable) stable));
+    } catch (RuntimeException e) {
+      //参数不能序列化，不缓存
+      return null;
+    }
+  }
+
+  private byte[] serialize(Serializable value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(value);
+      oos.flush();
+      oos.close();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  private Serializable deserialize(byte[] value) {
+    try {
+      ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(new ByteArrayInputStream(value));
+      Serializable result = (Serializable) ois.readObject();
+      ois.close();
+      return result;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  //序列化后的key
+  private static class StoredKey {
+    private final byte[] bytes;
+    private final int hashcode;
+
+    StoredKey(byte[] bytes) {
+      this.bytes = bytes;
+      this.hashcode = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StoredKey && Arrays.equals(bytes, ((StoredKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashcode;
+    }
+  }
+
+}
@@ -0,0 +1,379 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+/**
+ * Cache that keeps serialized values in direct (off-heap) memory, so large caches do not
+ * fill the old generation. Only the keys and a small index entry per value stay on the heap.
+ *
+ * Memory is allocated in slabs of slabSize bytes, up to capacity bytes. Each slab is split in
+ * blocks of one power of two size, and a value is stored in the smallest block it fits in.
+ * When no block is free the least recently used values are evicted; if no slab serves the
+ * needed block size, values are evicted until a whole slab is free and can be reassigned.
+ * Values bigger than a slab are not cached.
+ *
+ * Values must be Serializable. Every get returns a new copy, so CacheBuilder does not add
+ * SerializedCache, nor SynchronizedCache as this class is thread safe. Values are serialized
+ * and deserialized outside of the lock, which only covers the index and the copy of the bytes.
+ */
+/**
+ * 堆外缓存
+ * 值序列化后放在直接内存(DirectByteBuffer)里，按slab分配，自己做LRU淘汰
+ * 堆上只有key和索引
+ */
+public class OffHeapCache implements Cache {
+
+  private static final int MINIMUM_BLOCK_SIZE = 64;
+
+  private final String id;
+
+  //key -> 值的位置，按访问顺序排列
+  private final Map<Object, Entry> index = new LinkedHashMap<Object, Entry>(16, .75F, true);
+  private final List<Slab> slabs = new ArrayList<Slab>();
+
+  //总容量(字节)
+  private long capacity = 64L * 1024 * 1024;
+  private int slabSize = 1024 * 1024;
+  private long usedBytes;
+  private CacheStatistics statistics;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public synchronized int getSize() {
+    return index.size();
+  }
+
+  /*
+   * Changing the capacity or the slab size drops the content of the cache.
+   */
+  public synchronized void setCapacity(long capacity) {
+    this.capacity = capacity;
+    reset();
+  }
+
+  public synchronized long getCapacity() {
+    return capacity;
+  }
+
+  public synchronized void setSlabSize(int slabSize) {
+    this.slabSize = slabSize;
+    reset();
+  }
+
+  public synchronized int getSlabSize() {
+    return slabSize;
+  }
+
+  public synchronized void setStatistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /*
+   * @return the bytes taken by the blocks in use, which is at least the size of the serialized values
+   */
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to store a non-serializable object: " + value);
+    }
+    //序列化不占着锁
+    byte[] bytes = serialize((Serializable) value);
+    synchronized (this) {
+      free(index.remove(key));
+      Entry entry = allocate(bytes.length);
+      if (entry == null) {
+        //比一个slab还大，不缓存
+        return;
+      }
+      ByteBuffer buffer = entry.slab.buffer.duplicate();
+      buffer.position(entry.offset);
+      buffer.put(bytes);
+      index.put(key, entry);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] bytes;
+    synchronized (this) {
+      Entry entry = index.get(key);
+      if (entry == null) {
+        return null;
+      }
+      bytes = read(entry);
+    }
+    //反序列化不占着锁
+    return deserialize(bytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    byte[] bytes;
+    synchronized (this) {
+      Entry entry = index.remove(key);
+      if (entry == null) {
+        return null;
+      }
+      bytes = read(entry);
+      free(entry);
+    }
+    return deserialize(bytes);
+  }
+
+  @Override
+  public synchronized void clear() {
+    index.clear();
+    for (Slab slab : slabs) {
+      slab.assign(0);
+    }
+    usedBytes = 0;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  //容量变了，释放所有slab，等GC回收直接内存
+  private void reset() {
+    index.clear();
+    slabs.clear();
+    usedBytes = 0;
+  }
+
+  private Entry allocate(int length) {
+    int blockSize = MINIMUM_BLOCK_SIZE;
+    while (blockSize < length) {
+      blockSize <<= 1;
+    }
+    if (blockSize > slabSize) {
+      return null;
+    }
+    while (true) {
+      Slab slab = findSlab(blockSize);
+      if (slab != null) {
+        usedBytes += blockSize;
+        return new Entry(slab, slab.take(), length);
+      }
+      if (index.isEmpty()) {
+        //容量连一个slab都不够
+        return null;
+      }
+      evict(blockSize);
+    }
+  }
+
+  //找一个有空闲块的slab：同样块大小的，新分配的，或者整个空出来的
+  private Slab findSlab(int blockSize) {
+    Slab empty = null;
+    for (Slab slab : slabs) {
+      if (slab.blockSize == blockSize && slab.hasFreeBlock()) {
+        return slab;
+      }
+      if (empty == null && slab.used == 0) {
+        empty = slab;
+      }
+    }
+    if (empty == null && (long) (slabs.size() + 1) * slabSize <= capacity) {
+      empty = new Slab(ByteBuffer.allocateDirect(slabSize));
+      slabs.add(empty);
+    }
+    if (empty != null) {
+      empty.assign(blockSize);
+    }
+    return empty;
+  }
+
+  //先淘汰同样块大小里最久没用的；没有的话淘汰最久没用的，直到空出整个slab
+  private void evict(int blockSize) {
+    Iterator<Entry> it = index.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.slab.blockSize == blockSize) {
+        it.remove();
+        free(entry);
+        recordEviction();
+        return;
+      }
+    }
+    it = index.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      it.remove();
+      free(entry);
+      recordEviction();
+      if (entry.slab.used == 0) {
+        return;
+      }
+    }
+  }
+
+  private void recordEviction() {
+    if (statistics != null) {
+      statistics.recordEviction();
+    }
+  }
+
+  private void free(Entry entry) {
+    if (entry != null) {
+      usedBytes -= entry.slab.blockSize;
+      entry.slab.release(entry.offset);
+    }
+  }
+
+  private byte[] read(Entry entry) {
+    byte[] bytes = new byte[entry.length];
+    ByteBuffer buffer = entry.slab.buffer.duplicate();
+    buffer.position(entry.offset);
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private byte[] serialize(Serializable value) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(value);
+      oos.flush();
+      oos.close();
+      return bos.toByteArray();
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  private Serializable deserialize(byte[] value) {
+    try {
+      ObjectInputStream ois = new SerializedCache.CustomObjectInputStream(new ByteArrayInputStream(value));
+      Serializable result = (Serializable) ois.readObject();
+      ois.close();
+      return result;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static class Entry {
+    private final Slab slab;
+    private final int offset;
+    private final int length;
+
+    Entry(Slab slab, int offset, int length) {
+      this.slab = slab;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  //一块直接内存，切成同样大小的块，空闲块的偏移量放在栈里
+  private static class Slab {
+    private final ByteBuffer buffer;
+    private int blockSize;
+    private int[] freeOffsets = new int[0];
+    private int freeCount;
+    private int used;
+
+    Slab(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    void assign(int blockSize) {
+      this.blockSize = blockSize;
+      this.used = 0;
+      if (blockSize == 0) {
+        freeCount = 0;
+        return;
+      }
+      int blocks = buffer.capacity() / blockSize;
+      if (freeOffsets.length < blocks) {
+        freeOffsets = new int[blocks];
+      }
+      for (int i = 0; i < blocks; i++) {
+        freeOffsets[i] = (blocks - 1 - i) * blockSize;
+      }
+      freeCount = blocks;
+    }
+
+    boolean hasFreeBlock() {
+      return freeCount > 0;
+    }
+
+    int take() {
+      used++;
+      return freeOffsets[--freeCount];
+    }
+
+    void release(int offset) {
+      used--;
+      freeOffsets[freeCount++] = offset;
+    }
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+/**
+ * An invalidation sent to the other nodes: a whole cache, one key of a cache or a table
+ * (see {@link org.apache.ibatis.cache.TableInvalidations}).
+ */
+/**
+ * 发给其他节点的失效消息：整个缓存，缓存里的一个键，或者一张表
+ */
+public final class Invalidation {
+
+  public enum Type {
+    CACHE, KEY, TABLE
+  }
+
+  private final Type type;
+  //缓存id或者表名
+  private final String name;
+  private final Object key;
+
+  private Invalidation(Type type, String name, Object key) {
+    this.type = type;
+    this.name = name;
+    this.key = key;
+  }
+
+  public static Invalidation cache(String cacheId) {
+    return new Invalidation(Type.CACHE, cacheId, null);
+  }
+
+  public static Invalidation key(String cacheId, Object key) {
+    return new Invalidation(Type.KEY, cacheId, key);
+  }
+
+  public static Invalidation table(String table) {
+    return new Invalidation(Type.TABLE, table, null);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /*
+   * @return the cache id, or the table name
+   */
+  public String getName() {
+    return name;
+  }
+
+  public Object getKey() {
+    return key;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Invalidation)) {
+      return false;
+    }
+    Invalidation other = (Invalidation) o;
+    return type == other.type && name.equals(other.name) && (key == null ? other.key == null : key.equals(other.key));
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * type.hashCode() + name.hashCode()) + (key == null ? 0 : key.hashCode());
+  }
+
+  @Override
+  public String toString() {
+    return type + ":" + name + (key == null ? "" : ":" + key);
+  }
+
+}
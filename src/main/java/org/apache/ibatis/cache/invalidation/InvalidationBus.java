@@ -0,0 +1,434 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.EntityCache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Sends the second level cache invalidations committed on this node to the other nodes, and
+ * applies theirs to the local caches (element invalidationTransport of the configuration).
+ *
+ * Committed clears of a namespace cache, evicted entity cache rows and written tables are
+ * published. They are coalesced and sent in one message every invalidationBatchInterval
+ * milliseconds, so a burst of writes sends one message per interval; when a whole cache is
+ * invalidated, its keys are not sent. Until a message arrives, the other nodes may still
+ * return the previous results.
+ *
+ * Messages are written in a fixed binary format, never with Java serialization, so that a
+ * message received from the network cannot instantiate arbitrary classes. A key can only be
+ * sent if it is a scalar (string, number, boolean, character, date) or a CacheKey made of
+ * scalars and of result map types; any other key invalidates its whole cache instead.
+ */
+/**
+ * 缓存失效总线
+ * 本节点提交的失效(清空namespace缓存，删除实体，写表)攒一会合并成一条消息发给其他节点，收到其他节点的消息就让本地缓存失效
+ * 消息用固定的二进制格式，不用Java序列化(收到的消息不能实例化任意的类)；键只能是简单值或者由简单值组成的CacheKey
+ */
+public class InvalidationBus {
+
+  private static final Log log = LogFactory.getLog(InvalidationBus.class);
+
+  //消息开头的标记，兼做格式的版本
+  private static final int MAGIC = 0x4D42490A;
+
+  //键里的值的类型
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte LONG = 2;
+  private static final byte INTEGER = 3;
+  private static final byte SHORT = 4;
+  private static final byte BYTE = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte FLOAT = 7;
+  private static final byte BOOLEAN = 8;
+  private static final byte CHARACTER = 9;
+  private static final byte BIG_DECIMAL = 10;
+  private static final byte BIG_INTEGER = 11;
+  private static final byte DATE = 12;
+  private static final byte TIMESTAMP = 13;
+  private static final byte TYPE = 14;
+  private static final byte CACHE_KEY = 15;
+  //读到本节点不认识的类型
+  private static final Object UNKNOWN = new Object();
+
+  private final Configuration configuration;
+  private final InvalidationTransport transport;
+  //自己发的消息传回来的时候不处理
+  private final String node = UUID.randomUUID().toString();
+  private final ScheduledExecutorService scheduler;
+  //还没发的失效，按加入的顺序，重复的只留一个
+  private Set<Invalidation> pending = new LinkedHashSet<Invalidation>();
+
+  public InvalidationBus(Configuration configuration, InvalidationTransport transport, long batchInterval) {
+    this.configuration = configuration;
+    this.transport = transport;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mybatis-invalidation-bus");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, batchInterval, batchInterval, TimeUnit.MILLISECONDS);
+    transport.start(this);
+  }
+
+  public InvalidationTransport getTransport() {
+    return transport;
+  }
+
+  public synchronized void publish(Invalidation invalidation) {
+    pending.add(invalidation);
+  }
+
+  /*
+   * Sends the pending invalidations now. Called every batch interval.
+   */
+  public void flush() {
+    Set<Invalidation> batch;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      batch = pending;
+      pending = new LinkedHashSet<Invalidation>();
+    }
+    try {
+      transport.publish(toMessage(coalesce(batch)));
+    } catch (RuntimeException e) {
+      //尽力而为，发不出去也不影响本节点
+      log.error("Error publishing cache invalidations.  Cause: " + e, e);
+    }
+  }
+
+  /*
+   * Applies a message of another node. Called by the transport.
+   */
+  public void receive(byte[] message) {
+    List<Invalidation> invalidations = new ArrayList<Invalidation>();
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a cache invalidation message");
+      }
+      if (node.equals(in.readUTF())) {
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        invalidations.add(readInvalidation(in));
+      }
+    } catch (Exception e) {
+      log.error("Error reading cache invalidations.  Cause: " + e, e);
+      return;
+    }
+    for (Invalidation invalidation : invalidations) {
+      apply(invalidation);
+    }
+  }
+
+  //直接改本地的缓存，不会再发出去
+  private void apply(Invalidation invalidation) {
+    if (log.isDebugEnabled()) {
+      log.debug("Applying cache invalidation " + invalidation);
+    }
+    if (invalidation.getType() == Invalidation.Type.TABLE) {
+      configuration.getTableInvalidations().invalidate(Collections.singleton(invalidation.getName()));
+      return;
+    }
+    Cache cache = getCache(invalidation.getName());
+    if (cache == null) {
+      return;
+    }
+    if (invalidation.getType() == Invalidation.Type.CACHE) {
+      cache.clear();
+    } else {
+      cache.removeObject(invalidation.getKey());
+    }
+  }
+
+  private Cache getCache(String id) {
+    if (configuration.hasCache(id)) {
+      return configuration.getCache(id);
+    }
+    EntityCache entityCache = configuration.getEntityCache();
+    return entityCache.getCache().getId().equals(id) ? entityCache.getCache() : null;
+  }
+
+  //整个缓存失效了，这个缓存的键就不用发了
+  private Invalidation[] coalesce(Set<Invalidation> batch) {
+    Set<String> clearedCaches = new LinkedHashSet<String>();
+    for (Invalidation invalidation : batch) {
+      if (invalidation.getType() == Invalidation.Type.CACHE) {
+        clearedCaches.add(invalidation.getName());
+      }
+    }
+    Set<Invalidation> coalesced = new LinkedHashSet<Invalidation>();
+    for (Invalidation invalidation : batch) {
+      if (invalidation.getType() == Invalidation.Type.KEY && clearedCaches.contains(invalidation.getName())) {
+        continue;
+      }
+      coalesced.add(invalidation);
+    }
+    return coalesced.toArray(new Invalidation[coalesced.size()]);
+  }
+
+  private byte[] toMessage(Invalidation[] invalidations) {
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+      out.writeInt(MAGIC);
+      out.writeUTF(node);
+      out.writeInt(invalidations.length);
+      for (Invalidation invalidation : invalidations) {
+        writeInvalidation(out, invalidation);
+      }
+      out.close();
+      return bos.toByteArray();
+    } catch (IOException e) {
+      throw new CacheException("Error writing cache invalidations.  Cause: " + e, e);
+    }
+  }
+
+  private void writeInvalidation(DataOutputStream out, Invalidation invalidation) throws IOException {
+    if (invalidation.getType() == Invalidation.Type.KEY) {
+      byte[] key = writeKey(invalidation.getKey());
+      if (key == null) {
+        //键写不了的话改成让整个缓存失效
+        invalidation = Invalidation.cache(invalidation.getName());
+      } else {
+        out.writeByte(invalidation.getType().ordinal());
+        out.writeUTF(invalidation.getName());
+        out.write(key);
+        return;
+      }
+    }
+    out.writeByte(invalidation.getType().ordinal());
+    out.writeUTF(invalidation.getName());
+  }
+
+  private Invalidation readInvalidation(DataInputStream in) throws IOException {
+    int type = in.readUnsignedByte();
+    String name = in.readUTF();
+    if (type == Invalidation.Type.CACHE.ordinal()) {
+      return Invalidation.cache(name);
+    } else if (type == Invalidation.Type.TABLE.ordinal()) {
+      return Invalidation.table(name);
+    } else if (type == Invalidation.Type.KEY.ordinal()) {
+      Object key = readValue(in, true);
+      //键里的类型本节点不认识的话让整个缓存失效
+      return key == UNKNOWN ? Invalidation.cache(name) : Invalidation.key(name, key);
+    }
+    throw new IOException("Unknown invalidation type " + type);
+  }
+
+  //返回null表示这个键写不了
+  private static byte[] writeKey(Object key) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+    if (key instanceof CacheKey) {
+      List<Object> parts = ((CacheKey) key).getUpdateList();
+      out.writeByte(CACHE_KEY);
+      out.writeInt(parts.size());
+      for (Object part : parts) {
+        if (!writeValue(out, part)) {
+          return null;
+        }
+      }
+    } else if (!writeValue(out, key)) {
+      return null;
+    }
+    out.close();
+    return bos.toByteArray();
+  }
+
+  private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Short) {
+      out.writeByte(SHORT);
+      out.writeShort((Short) value);
+    } else if (value instanceof Byte) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof Character) {
+      out.writeByte(CHARACTER);
+      out.writeChar((Character) value);
+    } else if (value instanceof BigDecimal) {
+      out.writeByte(BIG_DECIMAL);
+      writeString(out, value.toString());
+    } else if (value instanceof BigInteger) {
+      out.writeByte(BIG_INTEGER);
+      writeString(out, value.toString());
+    } else if (value.getClass() == Timestamp.class) {
+      out.writeByte(TIMESTAMP);
+      out.writeLong(((Timestamp) value).getTime());
+      out.writeInt(((Timestamp) value).getNanos());
+    } else if (value.getClass() == Date.class) {
+      out.writeByte(DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof Class) {
+      out.writeByte(TYPE);
+      writeString(out, ((Class<?>) value).getName());
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private Object readValue(DataInputStream in, boolean allowCacheKey) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString(in);
+      case LONG:
+        return in.readLong();
+      case INTEGER:
+        return in.readInt();
+      case SHORT:
+        return in.readShort();
+      case BYTE:
+        return in.readByte();
+      case DOUBLE:
+        return in.readDouble();
+      case FLOAT:
+        return in.readFloat();
+      case BOOLEAN:
+        return in.readBoolean();
+      case CHARACTER:
+        return in.readChar();
+      case BIG_DECIMAL:
+        return new BigDecimal(readString(in));
+      case BIG_INTEGER:
+        return new BigInteger(readString(in));
+      case DATE:
+        return new Date(in.readLong());
+      case TIMESTAMP:
+        Timestamp timestamp = new Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        return timestamp;
+      case TYPE:
+        Class<?> type = resolveType(readString(in));
+        return type == null ? UNKNOWN : type;
+      case CACHE_KEY:
+        if (allowCacheKey) {
+          int count = in.readInt();
+          CacheKey key = new CacheKey();
+          boolean known = true;
+          for (int i = 0; i < count; i++) {
+            Object part = readValue(in, false);
+            known &= part != UNKNOWN;
+            key.update(part);
+          }
+          return known ? key : UNKNOWN;
+        }
+        break;
+      default:
+        break;
+    }
+    throw new IOException("Unknown value tag " + tag);
+  }
+
+  //只认结果映射用到的类型，不按名字加载任意的类
+  private Class<?> resolveType(String name) {
+    for (ResultMap resultMap : configuration.getResultMaps()) {
+      if (resultMap.getType().getName().equals(name)) {
+        return resultMap.getType();
+      }
+    }
+    return null;
+  }
+
+  //writeUTF最多64K，长字符串(比如SQL)按UTF-8字节写
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > in.available()) {
+      throw new IOException("Invalid string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  /*
+   * Sends the pending invalidations, then stops the bus and its transport.
+   */
+  public void close() {
+    scheduler.shutdown();
+    flush();
+    transport.close();
+  }
+
+}
@@ -0,0 +1,47 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.Properties;
+
+/**
+ * SPI for the transport of the {@link InvalidationBus}: delivers the messages published on one
+ * node to the buses of the other nodes. Delivery is best effort; a message may be lost.
+ *
+ * <pre>
+ * &lt;invalidationTransport type="SOCKET"&gt;
+ *   &lt;property name="port" value="7400"/&gt;
+ *   &lt;property name="peers" value="node2:7400,node3:7400"/&gt;
+ * &lt;/invalidationTransport&gt;
+ * </pre>
+ */
+/**
+ * 失效消息的传输方式，内置LOOPBACK(同一个JVM里)和SOCKET
+ */
+public interface InvalidationTransport {
+
+  void setProperties(Properties properties);
+
+  /*
+   * Starts delivering the messages of the other nodes to {@link InvalidationBus#receive(byte[])}.
+   */
+  void start(InvalidationBus bus);
+
+  void publish(byte[] message);
+
+  void close();
+
+}
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Delivers the messages to the buses of the same JVM started on the same channel (alias LOOPBACK).
+ * Meant for tests and for several SqlSessionFactories sharing a database in one JVM.
+ *
+ * Properties: channel (default "default").
+ */
+/**
+ * 同一个JVM里的传输，同一个channel的总线互相收消息，测试用
+ */
+public class LoopbackTransport implements InvalidationTransport {
+
+  private static final ConcurrentMap<String, Set<InvalidationBus>> CHANNELS = new ConcurrentHashMap<String, Set<InvalidationBus>>();
+
+  private String channel = "default";
+  private InvalidationBus bus;
+
+  @Override
+  public void setProperties(Properties properties) {
+    channel = properties.getProperty("channel", channel);
+  }
+
+  @Override
+  public void start(InvalidationBus bus) {
+    this.bus = bus;
+    Set<InvalidationBus> buses = CHANNELS.get(channel);
+    if (buses == null) {
+      buses = new CopyOnWriteArraySet<InvalidationBus>();
+      Set<InvalidationBus> existing = CHANNELS.putIfAbsent(channel, buses);
+      if (existing != null) {
+        buses = existing;
+      }
+    }
+    buses.add(bus);
+  }
+
+  @Override
+  public void publish(byte[] message) {
+    Set<InvalidationBus> buses = CHANNELS.get(channel);
+    if (buses != null) {
+      for (InvalidationBus other : buses) {
+        if (other != bus) {
+          other.receive(message);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    Set<InvalidationBus> buses = CHANNELS.get(channel);
+    if (buses != null) {
+      buses.remove(bus);
+    }
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.invalidation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Sends the messages over plain TCP connections to a fixed list of peers (alias SOCKET).
+ * Every node listens on a port and keeps one connection to each peer, opened on the first
+ * message and opened again after an error. A message that cannot be sent to a peer is dropped.
+ *
+ * Properties: port (default 0, any free port), bindAddress (default the loopback address, set it
+ * to an address the peers can reach), peers (host:port, separated by commas), connectTimeout
+ * (milliseconds, default 1000) and maximumMessageSize (bytes, default 8M). Connections from hosts
+ * that are not peers are closed without reading them. There is no authentication or encryption:
+ * the port must only be reachable from the nodes of the application.
+ */
+/**
+ * 用TCP连接发给固定的几个节点，简单实现，测试或者节点不多的时候用
+ * 每条消息是长度加上内容，发不出去就丢掉；默认只监听本机地址，只收peers里的主机发来的消息
+ */
+public class SocketTransport implements InvalidationTransport {
+
+  private static final Log log = LogFactory.getLog(SocketTransport.class);
+  private int port;
+  private String bindAddress;
+  private int connectTimeout = 1000;
+  //一条消息最大这么多字节，超过的话认为连接有问题
+  private int maximumMessageSize = 8 * 1024 * 1024;
+  //整个换掉，收消息的线程不用加锁就能读
+  private volatile List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+  //节点 -> 发消息的连接
+  private final Map<InetSocketAddress, Socket> connections = new HashMap<InetSocketAddress, Socket>();
+  //收消息的连接，关闭的时候一起关
+  private final Set<Socket> acceptedSockets = new CopyOnWriteArraySet<Socket>();
+  private ServerSocket serverSocket;
+  private volatile boolean closed;
+
+  @Override
+  public void setProperties(Properties properties) {
+    port = Integer.parseInt(properties.getProperty("port", String.valueOf(port)));
+    bindAddress = properties.getProperty("bindAddress", bindAddress);
+    connectTimeout = Integer.parseInt(properties.getProperty("connectTimeout", String.valueOf(connectTimeout)));
+    maximumMessageSize = Integer.parseInt(properties.getProperty("maximumMessageSize", String.valueOf(maximumMessageSize)));
+    if (properties.getProperty("peers") != null) {
+      setPeers(properties.getProperty("peers"));
+    }
+  }
+
+  public void setPeers(String peers) {
+    List<InetSocketAddress> parsed = new ArrayList<InetSocketAddress>();
+    for (String peer : peers.split(",")) {
+      peer = peer.trim();
+      if (peer.length() > 0) {
+        int colon = peer.lastIndexOf(':');
+        if (colon < 0) {
+          throw new CacheException("Invalid peer '" + peer + "', expected host:port");
+        }
+        parsed.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+      }
+    }
+    this.peers = parsed;
+  }
+
+  /*
+   * @return the port this node listens on, once started
+   */
+  public int getPort() {
+    return serverSocket == null ? port : serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void start(final InvalidationBus bus) {
+    try {
+      serverSocket = new ServerSocket();
+      //默认只监听本机，别的节点要连进来得显式配bindAddress
+      serverSocket.bind(new InetSocketAddress(bindAddress == null ? InetAddress.getByName(null) : InetAddress.getByName(bindAddress), port));
+    } catch (IOException e) {
+      throw new CacheException("Error listening on port " + port + ".  Cause: " + e, e);
+    }
+    startDaemon("mybatis-invalidation-accept", new Runnable() {
+      @Override
+      public void run() {
+        while (!closed) {
+          try {
+            final Socket socket = serverSocket.accept();
+            if (!isPeer(socket.getInetAddress())) {
+              log.warn("Refused a cache invalidation connection from " + socket.getInetAddress() + ", which is not a peer");
+              closeQuietly(socket);
+              continue;
+            }
+            acceptedSockets.add(socket);
+            startDaemon("mybatis-invalidation-receive", new Runnable() {
+              @Override
+              public void run() {
+                receive(socket, bus);
+              }
+            });
+          } catch (IOException e) {
+            if (!closed) {
+              log.error("Error accepting a connection.  Cause: " + e, e);
+            }
+          }
+        }
+      }
+    });
+  }
+
+  private void receive(Socket socket, InvalidationBus bus) {
+    try {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      while (!closed) {
+        int length = in.readInt();
+        if (length < 0 || length > maximumMessageSize) {
+          throw new IOException("Invalid message length " + length);
+        }
+        byte[] message = new byte[length];
+        in.readFully(message);
+        bus.receive(message);
+      }
+    } catch (EOFException e) {
+      // the peer closed the connection
+    } catch (IOException e) {
+      if (!closed) {
+        log.error("Error receiving cache invalidations.  Cause: " + e, e);
+      }
+    } finally {
+      acceptedSockets.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  //每次都重新解析，节点换了地址也能连上来
+  private boolean isPeer(InetAddress address) {
+    for (InetSocketAddress peer : peers) {
+      try {
+        if (Arrays.asList(InetAddress.getAllByName(peer.getHostName())).contains(address)) {
+          return true;
+        }
+      } catch (IOException e) {
+        // unknown host, try the others
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void publish(byte[] message) {
+    for (InetSocketAddress peer : peers) {
+      //连接可能已经断了，重连一次
+      if (!send(peer, message) && !send(peer, message)) {
+        log.warn("Dropped cache invalidations for " + peer);
+      }
+    }
+  }
+
+  private boolean send(InetSocketAddress peer, byte[] message) {
+    try {
+      Socket socket = connections.get(peer);
+      if (socket == null) {
+        socket = new Socket();
+        socket.connect(peer, connectTimeout);
+        socket.setTcpNoDelay(true);
+        connections.put(peer, socket);
+      }
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(message.length);
+      out.write(message);
+      out.flush();
+      return true;
+    } catch (IOException e) {
+      closeQuietly(connections.remove(peer));
+      return false;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    try {
+      if (serverSocket != null) {
+        serverSocket.close();
+      }
+    } catch (IOException e) {
+      // ignore
+    }
+    for (Socket socket : connections.values()) {
+      closeQuietly(socket);
+    }
+    connections.clear();
+    for (Socket socket : acceptedSockets) {
+      closeQuietly(socket);
+    }
+  }
+
+  private static void startDaemon(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      if (socket != null) {
+        socket.close();
+      }
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Adjusts the number of active connections a {@link PooledDataSource} may open, between
+ * poolMinimumActiveConnections and poolMaximumActiveConnections.
+ *
+ * Demand (active connections plus waiting callers), waits and connection creation time are
+ * measured over windows of poolAdaptiveSizingInterval milliseconds. At the end of a window the
+ * target grows toward the peak demand if callers had to wait, unless opening connections got much
+ * slower than usual (then it grows one at a time, so an overloaded database is not made worse).
+ * If nobody waited and less than half of the target was used, it shrinks toward the peak demand,
+ * and the pool closes the idle connections above the new target.
+ *
+ * All methods are called while holding the PoolState monitor.
+ */
+/**
+ * 自适应连接池大小
+ * 根据等待情况、使用率、建立连接的耗时来调整目标大小(在最小值和最大值之间)
+ */
+class AdaptivePoolSizer {
+
+  private static final Log log = LogFactory.getLog(AdaptivePoolSizer.class);
+
+  //建立连接的耗时超过平时的这个倍数，就认为数据库压力大了
+  private static final double SLOW_CREATION_RATIO = 2.0d;
+
+  private final PooledDataSource dataSource;
+
+  private int targetActiveConnections;
+  private int waitingCount;
+
+  private long windowStart;
+  private long windowRequests;
+  private long windowWaits;
+  private long windowWaitedCheckouts;
+  private long windowWaitNanos;
+  private long windowCreations;
+  private long windowCreationNanos;
+  private int peakDemand;
+  private double baselineCreationNanos;
+
+  AdaptivePoolSizer(PooledDataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  int getTargetActiveConnections() {
+    if (targetActiveConnections == 0) {
+      targetActiveConnections = getMinimum();
+    }
+    return clamp(targetActiveConnections);
+  }
+
+  void beginWait(int activeCount) {
+    waitingCount++;
+    windowWaits++;
+    recordDemand(activeCount + waitingCount);
+  }
+
+  void endWait() {
+    waitingCount--;
+  }
+
+  void recordCheckout(int activeCount, boolean hadToWait, long waitNanos) {
+    windowRequests++;
+    if (hadToWait) {
+      windowWaitedCheckouts++;
+      windowWaitNanos += waitNanos;
+    }
+    recordDemand(activeCount + waitingCount);
+  }
+
+  void recordCreation(long nanos) {
+    windowCreations++;
+    windowCreationNanos += nanos;
+  }
+
+  /*
+   * Evaluates the current window if it is over.
+   *
+   * @return true if the target changed, so idle connections above it should be closed and waiting callers notified
+   */
+  boolean maybeResize(long now, int activeCount) {
+    if (windowStart == 0) {
+      windowStart = now;
+      return false;
+    }
+    if (now - windowStart < dataSource.poolAdaptiveSizingInterval) {
+      return false;
+    }
+    int current = getTargetActiveConnections();
+    int target = current;
+    double creationRatio = 1.0d;
+    if (windowCreations > 0) {
+      double windowCreationAverage = (double) windowCreationNanos / windowCreations;
+      if (baselineCreationNanos > 0) {
+        creationRatio = windowCreationAverage / baselineCreationNanos;
+        baselineCreationNanos = 0.8d * baselineCreationNanos + 0.2d * windowCreationAverage;
+      } else {
+        baselineCreationNanos = windowCreationAverage;
+      }
+    }
+    if (windowWaits > 0) {
+      //有人等待，往峰值需求的方向增长(每次最多翻倍)
+      int wanted = Math.max(peakDemand, current + 1);
+      if (creationRatio > SLOW_CREATION_RATIO) {
+        //建连接变慢了，数据库可能过载，只加一个
+        wanted = current + 1;
+      }
+      target = clamp(Math.min(wanted, current * 2));
+    } else if (peakDemand * 2 < current) {
+      //没人等待，而且使用率不到一半，往峰值需求的方向收缩
+      target = clamp(current - Math.max(1, (current - peakDemand) / 2));
+    }
+    if (target != current && log.isDebugEnabled()) {
+      log.debug("Resizing pool from " + current + " to " + target + " active connections (requests: " + windowRequests
+          + ", waits: " + windowWaits + ", average wait: " + (windowWaitedCheckouts == 0 ? 0 : windowWaitNanos / windowWaitedCheckouts / 1000L)
+          + "us, peak demand: " + peakDemand + ", creation time ratio: " + creationRatio + ").");
+    }
+    targetActiveConnections = target;
+    windowStart = now;
+    windowRequests = 0;
+    windowWaits = 0;
+    windowWaitedCheckouts = 0;
+    windowWaitNanos = 0;
+    windowCreations = 0;
+    windowCreationNanos = 0;
+    peakDemand = activeCount + waitingCount;
+    return target != current;
+  }
+
+  private void recordDemand(int demand) {
+    if (demand > peakDemand) {
+      peakDemand = demand;
+    }
+  }
+
+  private int getMinimum() {
+    return Math.max(1, Math.min(dataSource.poolMinimumActiveConnections, dataSource.poolMaximumActiveConnections));
+  }
+
+  private int clamp(int target) {
+    return Math.max(getMinimum(), Math.min(target, dataSource.poolMaximumActiveConnections));
+  }
+
+}
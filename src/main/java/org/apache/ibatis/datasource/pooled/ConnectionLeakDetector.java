@@ -0,0 +1,198 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Reports connections that are held longer than poolLeakDetectionThreshold.
+ *
+ * Only used when the threshold is greater than 0. The stack of the checkout is captured
+ * for one in every poolLeakDetectionSampleRate checkouts. Active connections are checked
+ * on checkout and checkin, and every half threshold by a daemon thread shared by all pools,
+ * so that a leak is reported even when the pool is not used anymore. The background check is
+ * rescheduled when the threshold changes. All methods are called while holding the PoolState monitor.
+ */
+/**
+ * 连接泄漏检测
+ * 超过poolMaximumCheckoutTime的连接会被默默收回，但是不知道是哪里泄漏的
+ * 所以在借出连接的时候(抽样)记录下调用栈，超过阈值时打印出来
+ * 除了借出和归还时检查，后台线程每半个阈值也检查一次，连接池没人用了也能报告；阈值改了重新安排
+ */
+class ConnectionLeakDetector {
+
+  private static final Log log = LogFactory.getLog(ConnectionLeakDetector.class);
+
+  //所有连接池共用一个后台线程
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "mybatis-leak-detector");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final PooledDataSource dataSource;
+  private final PoolMetrics metrics;
+  private long checkoutCount;
+  private long nextCheckTimestamp;
+  //是否借出过连接，借出过以后才有后台检查
+  private boolean used;
+  //后台检查，没开泄漏检测时为null
+  private Sweep sweep;
+
+  ConnectionLeakDetector(PooledDataSource dataSource, PoolMetrics metrics) {
+    this.dataSource = dataSource;
+    this.metrics = metrics;
+  }
+
+  void onCheckout(PooledConnection conn) {
+    //第一次借出时才启动后台检查，没开泄漏检测的连接池不占用后台线程
+    if (!used) {
+      used = true;
+      schedule();
+    }
+    int sampleRate = dataSource.poolLeakDetectionSampleRate;
+    checkoutCount++;
+    if (sampleRate <= 1 || checkoutCount % sampleRate == 0) {
+      conn.setCheckoutStack(new Throwable("Connection " + conn.getRealHashCode() + " was checked out here"));
+    }
+  }
+
+  /*
+   * Reschedules the background check every half of the new threshold, or stops it if leak detection was disabled.
+   */
+  void onThresholdChanged() {
+    if (sweep != null) {
+      sweep.cancel();
+      sweep = null;
+    }
+    //按新阈值马上可以再检查
+    nextCheckTimestamp = 0;
+    if (used) {
+      schedule();
+    }
+  }
+
+  private void schedule() {
+    int threshold = dataSource.poolLeakDetectionThreshold;
+    if (threshold > 0) {
+      sweep = Sweep.schedule(dataSource, Math.max(1, threshold / 2));
+    }
+  }
+
+  void onCheckin(PooledConnection conn) {
+    if (conn.isLeakReported() && log.isDebugEnabled()) {
+      log.debug("Connection " + conn.getRealHashCode() + " previously reported as a possible leak was returned after "
+          + conn.getCheckoutTime() + " milliseconds.");
+    }
+  }
+
+  void onOverdueClaimed(PooledConnection conn, long checkoutTime) {
+    log.warn("Claimed overdue connection " + conn.getRealHashCode() + " that was checked out for " + checkoutTime
+        + " milliseconds. " + describe(conn));
+  }
+
+  void detect(List<PooledConnection> activeConnections) {
+    long threshold = dataSource.poolLeakDetectionThreshold;
+    long now = System.currentTimeMillis();
+    //不用每次都扫描，最多每半个阈值扫描一次
+    if (now < nextCheckTimestamp) {
+      return;
+    }
+    nextCheckTimestamp = now + Math.max(1, threshold / 2);
+    for (PooledConnection conn : activeConnections) {
+      long checkoutTime = now - conn.getCheckoutTimestamp();
+      if (checkoutTime > threshold && !conn.isLeakReported()) {
+        conn.setLeakReported(true);
+        metrics.incrementLeakedConnectionCount();
+        log.warn("Connection " + conn.getRealHashCode() + " has been checked out for " + checkoutTime
+            + " milliseconds, longer than poolLeakDetectionThreshold (" + threshold + "). Possible connection leak. "
+            + describe(conn));
+      }
+    }
+  }
+
+  private String describe(PooledConnection conn) {
+    StringBuilder description = new StringBuilder();
+    description.append("Last statement: ").append(conn.getLastStatement() == null ? "unknown" : conn.getLastStatement());
+    Throwable stack = conn.getCheckoutStack();
+    if (stack == null) {
+      description.append(". Checkout stack was not sampled (see poolLeakDetectionSampleRate).");
+    } else {
+      StringWriter writer = new StringWriter();
+      stack.printStackTrace(new PrintWriter(writer));
+      description.append(". ").append(writer);
+    }
+    return description.toString();
+  }
+
+  /*
+   * Checks the active connections of a pool in the background. Only holds the pool weakly,
+   * and stops once it has been garbage collected.
+   */
+  private static class Sweep implements Runnable {
+
+    private final WeakReference<PooledDataSource> dataSource;
+    private volatile ScheduledFuture<?> future;
+
+    private Sweep(PooledDataSource dataSource) {
+      this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+    }
+
+    static Sweep schedule(PooledDataSource dataSource, long period) {
+      Sweep sweep = new Sweep(dataSource);
+      sweep.future = scheduler.scheduleWithFixedDelay(sweep, period, period, TimeUnit.MILLISECONDS);
+      return sweep;
+    }
+
+    void cancel() {
+      future.cancel(false);
+    }
+
+    @Override
+    public void run() {
+      PooledDataSource ds = dataSource.get();
+      if (ds == null) {
+        //第一次运行时future可能还没赋值，下次再取消
+        if (future != null) {
+          future.cancel(false);
+        }
+        return;
+      }
+      try {
+        ds.detectLeaks();
+      } catch (RuntimeException e) {
+        //异常会让定时任务停掉
+        log.error("Connection leak detection failed. Cause: " + e, e);
+      }
+    }
+
+  }
+
+}
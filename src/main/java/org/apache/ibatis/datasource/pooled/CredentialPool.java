@@ -0,0 +1,93 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.List;
+
+/**
+ * The connections of a {@link PooledDataSource} opened with one username and password.
+ *
+ * Each set of credentials has its own idle list, so a connection is only handed out to callers
+ * asking for the credentials it was opened with. All sub-pools share the limits of the pool.
+ *
+ * All methods are called while holding the PoolState monitor.
+ */
+/**
+ * 按用户名密码划分的子连接池
+ * 每个用户有自己的空闲列表和上限，共享整个连接池的上限
+ */
+class CredentialPool {
+
+  private final String username;
+  private final String password;
+  private final List<PooledConnection> idleConnections;
+
+  private int activeConnectionCount;
+  //配置改变后旧的子池作废，归还的连接直接关闭
+  private boolean retired;
+
+  CredentialPool(String username, String password, List<PooledConnection> idleConnections) {
+    this.username = username;
+    this.password = password;
+    this.idleConnections = idleConnections;
+  }
+
+  static String keyOf(String username, String password) {
+    return username + "\u0000" + password;
+  }
+
+  String getUsername() {
+    return username;
+  }
+
+  String getPassword() {
+    return password;
+  }
+
+  List<PooledConnection> getIdleConnections() {
+    return idleConnections;
+  }
+
+  int getActiveConnectionCount() {
+    return activeConnectionCount;
+  }
+
+  void checkedOut() {
+    activeConnectionCount++;
+  }
+
+  void checkedIn() {
+    activeConnectionCount--;
+  }
+
+  boolean isRetired() {
+    return retired;
+  }
+
+  void retire() {
+    retired = true;
+  }
+
+  boolean isEmpty() {
+    return activeConnectionCount <= 0 && idleConnections.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return username + " (active: " + activeConnectionCount + ", idle: " + idleConnections.size() + ")";
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, kept in power-of-two microsecond buckets.
+ *
+ * Bucket 0 holds 0us, bucket n holds values between 2^(n-1) and 2^n - 1 microseconds,
+ * so percentiles are reported as the upper bound of the bucket they fall in.
+ */
+/**
+ * 直方图，无锁，按2的幂次方分桶(单位:微秒)
+ * 平均值会掩盖p99的长尾，所以用直方图来记录等待时间等
+ */
+public class Histogram {
+
+  private static final int BUCKET_COUNT = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    buckets.incrementAndGet(bucketFor(micros));
+    count.incrementAndGet();
+    total.addAndGet(micros);
+    long current = max.get();
+    //CAS更新最大值
+    while (micros > current && !max.compareAndSet(current, micros)) {
+      current = max.get();
+    }
+  }
+
+  public void recordNanos(long nanos) {
+    record(nanos / 1000L);
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  /*
+   * Reads the current values without blocking writers. Concurrent updates may or may not
+   * be included, so the bucket counts may differ slightly from the total count.
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return new Snapshot(counts, count.get(), total.get(), max.get());
+  }
+
+  private static int bucketFor(long micros) {
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    return bucket == 0 ? 0 : (1L << bucket) - 1;
+  }
+
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long total;
+    private final long max;
+
+    Snapshot(long[] counts, long count, long total, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.total = total;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /*
+     * @return the sum of all recorded values in microseconds
+     */
+    public long getTotal() {
+      return total;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public long getMean() {
+      return count == 0 ? 0 : total / count;
+    }
+
+    /*
+     * @param percentile - between 0 and 100
+     * @return the upper bound (in microseconds) of the bucket that holds the given percentile
+     */
+    public long getPercentile(double percentile) {
+      long recorded = 0;
+      for (long c : counts) {
+        recorded += c;
+      }
+      if (recorded == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(recorded * Math.min(Math.max(percentile, 0d), 100d) / 100d);
+      if (rank < 1) {
+        rank = 1;
+      }
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(upperBoundOf(i), max);
+        }
+      }
+      return max;
+    }
+
+    public long getMedian() {
+      return getPercentile(50);
+    }
+
+    public long get99thPercentile() {
+      return getPercentile(99);
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + " mean=" + getMean() + "us p50=" + getMedian() + "us p90=" + getPercentile(90)
+          + "us p99=" + get99thPercentile() + "us max=" + max + "us";
+    }
+  }
+
+}
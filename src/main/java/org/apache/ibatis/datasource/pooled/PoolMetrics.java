@@ -0,0 +1,196 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free instrumentation of a {@link PooledDataSource}.
+ *
+ * Unlike {@link PoolState}, nothing here is guarded by the pool monitor, so
+ * {@link #snapshot()} can be called at any time without blocking the pool.
+ */
+/**
+ * 连接池度量信息，无锁
+ * PoolState的getter都是synchronized的，而且只有平均值
+ */
+public class PoolMetrics {
+
+  //获取连接的等待时间
+  private final Histogram waitTime = new Histogram();
+  //连接被借出(使用)的时间
+  private final Histogram usageTime = new Histogram();
+  //新建物理连接的时间
+  private final Histogram creationTime = new Histogram();
+
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private final AtomicLong badConnectionCount = new AtomicLong();
+  private final AtomicLong claimedOverdueConnectionCount = new AtomicLong();
+  private final AtomicLong leakedConnectionCount = new AtomicLong();
+
+  private volatile int activeConnectionCount;
+  private volatile int idleConnectionCount;
+
+  void recordWaitTime(long nanos) {
+    waitTime.recordNanos(nanos);
+  }
+
+  void recordUsageTime(long nanos) {
+    usageTime.recordNanos(nanos);
+  }
+
+  void recordCreationTime(long nanos) {
+    creationTime.recordNanos(nanos);
+  }
+
+  void incrementTimeoutCount() {
+    timeoutCount.incrementAndGet();
+  }
+
+  void incrementBadConnectionCount() {
+    badConnectionCount.incrementAndGet();
+  }
+
+  void incrementClaimedOverdueConnectionCount() {
+    claimedOverdueConnectionCount.incrementAndGet();
+  }
+
+  void incrementLeakedConnectionCount() {
+    leakedConnectionCount.incrementAndGet();
+  }
+
+  void updateConnectionCounts(int active, int idle) {
+    this.activeConnectionCount = active;
+    this.idleConnectionCount = idle;
+  }
+
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /*
+   * Clears the histograms and counters. Connection counts are kept as they reflect the pool, not its history.
+   */
+  public void reset() {
+    waitTime.reset();
+    usageTime.reset();
+    creationTime.reset();
+    timeoutCount.set(0);
+    badConnectionCount.set(0);
+    claimedOverdueConnectionCount.set(0);
+    leakedConnectionCount.set(0);
+  }
+
+  public static class Snapshot {
+
+    private final long timestamp;
+    private final Histogram.Snapshot waitTime;
+    private final Histogram.Snapshot usageTime;
+    private final Histogram.Snapshot creationTime;
+    private final long timeoutCount;
+    private final long badConnectionCount;
+    private final long claimedOverdueConnectionCount;
+    private final long leakedConnectionCount;
+    private final int activeConnectionCount;
+    private final int idleConnectionCount;
+
+    Snapshot(PoolMetrics metrics) {
+      this.timestamp = System.currentTimeMillis();
+      this.waitTime = metrics.waitTime.snapshot();
+      this.usageTime = metrics.usageTime.snapshot();
+      this.creationTime = metrics.creationTime.snapshot();
+      this.timeoutCount = metrics.timeoutCount.get();
+      this.badConnectionCount = metrics.badConnectionCount.get();
+      this.claimedOverdueConnectionCount = metrics.claimedOverdueConnectionCount.get();
+      this.leakedConnectionCount = metrics.leakedConnectionCount.get();
+      this.activeConnectionCount = metrics.activeConnectionCount;
+      this.idleConnectionCount = metrics.idleConnectionCount;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /*
+     * @return time spent in getConnection() until a connection was handed out, in microseconds
+     */
+    public Histogram.Snapshot getWaitTime() {
+      return waitTime;
+    }
+
+    /*
+     * @return time between checkout and close() of a connection, in microseconds
+     */
+    public Histogram.Snapshot getUsageTime() {
+      return usageTime;
+    }
+
+    /*
+     * @return time taken to open a new physical connection, in microseconds
+     */
+    public Histogram.Snapshot getCreationTime() {
+      return creationTime;
+    }
+
+    /*
+     * @return number of times a caller waited the whole poolTimeToWait without being handed a connection
+     */
+    public long getTimeoutCount() {
+      return timeoutCount;
+    }
+
+    public long getBadConnectionCount() {
+      return badConnectionCount;
+    }
+
+    public long getClaimedOverdueConnectionCount() {
+      return claimedOverdueConnectionCount;
+    }
+
+    /*
+     * @return number of connections reported as held longer than poolLeakDetectionThreshold
+     */
+    public long getLeakedConnectionCount() {
+      return leakedConnectionCount;
+    }
+
+    public int getActiveConnectionCount() {
+      return activeConnectionCount;
+    }
+
+    public int getIdleConnectionCount() {
+      return idleConnectionCount;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("\n===METRICS=====================================================");
+      builder.append("\n activeConnections              ").append(activeConnectionCount);
+      builder.append("\n idleConnections                ").append(idleConnectionCount);
+      builder.append("\n waitTime                       ").append(waitTime);
+      builder.append("\n usageTime                      ").append(usageTime);
+      builder.append("\n creationTime                   ").append(creationTime);
+      builder.append("\n timeouts                       ").append(timeoutCount);
+      builder.append("\n claimedOverdue                 ").append(claimedOverdueConnectionCount);
+      builder.append("\n badConnectionCount             ").append(badConnectionCount);
+      builder.append("\n leakedConnections              ").append(leakedConnectionCount);
+      builder.append("\n===============================================================");
+      return builder.toString();
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * A named share (bulkhead) of a {@link PooledDataSource}.
+ *
+ * Connections checked out through a partition come from the same pool, but no more than
+ * maximumActiveConnections of them can be in use at once, and callers give up with an
+ * SQLException after waiting timeToWait milliseconds. This way a slow workload can not
+ * take all the connections a latency sensitive one needs.
+ *
+ * A partition is itself a DataSource, so it can be handed to a session. Mapped statements
+ * select one with the poolPartition attribute.
+ */
+/**
+ * 连接池分区(舱壁隔离)
+ * 比如报表查询和OLTP查询用不同的分区，各自有最大连接数和等待超时
+ */
+public class PoolPartition implements DataSource {
+
+  private final PooledDataSource dataSource;
+  private final String name;
+  private final int maximumActiveConnections;
+  private final int timeToWait;
+
+  //当前借出的连接数,在PoolState锁里修改
+  private volatile int activeConnectionCount;
+
+  PoolPartition(PooledDataSource dataSource, String name, int maximumActiveConnections, int timeToWait) {
+    this.dataSource = dataSource;
+    this.name = name;
+    this.maximumActiveConnections = maximumActiveConnections;
+    this.timeToWait = timeToWait;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaximumActiveConnections() {
+    return maximumActiveConnections;
+  }
+
+  public int getTimeToWait() {
+    return timeToWait;
+  }
+
+  public int getActiveConnectionCount() {
+    return activeConnectionCount;
+  }
+
+  boolean isFull() {
+    return activeConnectionCount >= maximumActiveConnections;
+  }
+
+  void checkedOut() {
+    activeConnectionCount++;
+  }
+
+  void checkedIn() {
+    activeConnectionCount--;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return dataSource.getConnection(this);
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return dataSource.getConnection(username, password, this);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return dataSource.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    dataSource.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    dataSource.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return dataSource.getLoginTimeout();
+  }
+
+  public Logger getParentLogger() {
+    return dataSource.getParentLogger();
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return name + " (active: " + activeConnectionCount + "/" + maximumActiveConnections + ", timeToWait: " + timeToWait + ")";
+  }
+
+}
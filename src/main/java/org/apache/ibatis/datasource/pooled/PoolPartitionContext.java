@@ -0,0 +1,55 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Holds the name of the {@link PoolPartition} that {@link PooledDataSource#getConnection()}
+ * should use on the current thread. The executor sets it while running a mapped statement
+ * that declares a poolPartition; it only matters if that statement opens the session's connection.
+ */
+/**
+ * 当前线程要使用的连接池分区名
+ */
+public final class PoolPartitionContext {
+
+  private static final ThreadLocal<String> CURRENT = new ThreadLocal<String>();
+
+  private PoolPartitionContext() {
+    // Prevent Instantiation
+  }
+
+  /*
+   * @return the previous partition, to be passed to restore()
+   */
+  public static String bind(String partition) {
+    String previous = CURRENT.get();
+    CURRENT.set(partition);
+    return previous;
+  }
+
+  public static void restore(String previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  public static String current() {
+    return CURRENT.get();
+  }
+
+}
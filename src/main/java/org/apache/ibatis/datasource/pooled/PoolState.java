@@ -28,7 +28,7 @@ public class PoolState {
 
   protected PooledDataSource dataSource;
 
-  //空闲的连接
+  //默认用户名密码的空闲连接(其他用户的在各自的CredentialPool里)
   protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
   //活动的连接
   protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
@@ -85,8 +85,11 @@ public class PoolState {
   }
 
 
+  /*
+   * @return the idle connections of all usernames and passwords
+   */
   public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+    return dataSource.getIdleConnectionCount();
   }
 
   public synchronized int getActiveConnectionCount() {
@@ -104,11 +107,19 @@ public class PoolState {
     builder.append("\n jdbcPassword                   ").append((dataSource.getPassword() == null ? "NULL" : "************"));
     builder.append("\n poolMaxActiveConnections       ").append(dataSource.poolMaximumActiveConnections);
     builder.append("\n poolMaxIdleConnections         ").append(dataSource.poolMaximumIdleConnections);
+    builder.append("\n poolMaxActivePerCredential     ").append(dataSource.poolMaximumActiveConnectionsPerCredential);
+    builder.append("\n poolMaxIdlePerCredential       ").append(dataSource.poolMaximumIdleConnectionsPerCredential);
+    builder.append("\n poolAdaptiveSizing             ").append(dataSource.poolAdaptiveSizing);
+    builder.append("\n poolMinActiveConnections       ").append(dataSource.poolMinimumActiveConnections);
     builder.append("\n poolMaxCheckoutTime            ").append(dataSource.poolMaximumCheckoutTime);
     builder.append("\n poolTimeToWait                 ").append(dataSource.poolTimeToWait);
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolLeakDetectionThreshold     ").append(dataSource.poolLeakDetectionThreshold);
+    for (PoolPartition partition : dataSource.getPartitions()) {
+      builder.append("\n partition                      ").append(partition);
+    }
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
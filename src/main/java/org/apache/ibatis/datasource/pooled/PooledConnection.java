@@ -21,6 +21,7 @@ import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
@@ -41,10 +42,23 @@ class PooledConnection implements InvocationHandler {
   //代理的连接
   private Connection proxyConnection;
   private long checkoutTimestamp;
+  private long checkoutNanoTime;
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  //按用户名密码分池以后不再用
+  @Deprecated
   private int connectionTypeCode;
   private boolean valid;
+  //泄漏检测用:借出时的调用栈(抽样，没开启时为null)，最后执行的语句，是否已报告过
+  private Throwable checkoutStack;
+  private volatile String lastStatement;
+  private boolean leakReported;
+  //借出时所属的分区
+  private PoolPartition partition;
+  //建立连接时连接池配置的代数，配置变了以后旧连接归还时关闭
+  private int generation;
+  //借出时所属的用户名密码子池
+  private CredentialPool credentialPool;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -105,20 +119,24 @@ class PooledConnection implements InvocationHandler {
     return realConnection == null ? 0 : realConnection.hashCode();
   }
 
-  /*
+  /**
    * Getter for the connection type (based on url + user + password)
    *
-   * @return The connection type
+   * @return The connection type, 0 unless it was set
+   * @deprecated connections are matched to their pool by username and password, not by a type code
    */
+  @Deprecated
   public int getConnectionTypeCode() {
     return connectionTypeCode;
   }
 
-  /*
+  /**
    * Setter for the connection type
    *
    * @param connectionTypeCode - the connection type
+   * @deprecated connections are matched to their pool by username and password, not by a type code
    */
+  @Deprecated
   public void setConnectionTypeCode(int connectionTypeCode) {
     this.connectionTypeCode = connectionTypeCode;
   }
@@ -195,6 +213,24 @@ class PooledConnection implements InvocationHandler {
     this.checkoutTimestamp = timestamp;
   }
 
+  /*
+   * Getter for the System.nanoTime() value taken when this connection was checked out
+   *
+   * @return the nano time
+   */
+  public long getCheckoutNanoTime() {
+    return checkoutNanoTime;
+  }
+
+  /*
+   * Setter for the System.nanoTime() value taken when this connection was checked out
+   *
+   * @param checkoutNanoTime the nano time
+   */
+  public void setCheckoutNanoTime(long checkoutNanoTime) {
+    this.checkoutNanoTime = checkoutNanoTime;
+  }
+
   /*
    * Getter for the time that this connection has been checked out
    *
@@ -204,6 +240,96 @@ class PooledConnection implements InvocationHandler {
     return System.currentTimeMillis() - checkoutTimestamp;
   }
 
+  /*
+   * Getter for the stack captured when this connection was checked out (null unless leak detection sampled it)
+   *
+   * @return the stack
+   */
+  public Throwable getCheckoutStack() {
+    return checkoutStack;
+  }
+
+  /*
+   * Setter for the stack captured when this connection was checked out
+   *
+   * @param checkoutStack the stack
+   */
+  public void setCheckoutStack(Throwable checkoutStack) {
+    this.checkoutStack = checkoutStack;
+  }
+
+  /*
+   * Getter for the id of the mapped statement (or the SQL) last prepared on this connection.
+   * Only tracked when the checkout stack was captured.
+   *
+   * @return the statement
+   */
+  public String getLastStatement() {
+    return lastStatement;
+  }
+
+  public boolean isLeakReported() {
+    return leakReported;
+  }
+
+  public void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
+  /*
+   * Getter for the partition this connection was checked out through (or null)
+   *
+   * @return the partition
+   */
+  public PoolPartition getPartition() {
+    return partition;
+  }
+
+  /*
+   * Setter for the partition this connection was checked out through
+   *
+   * @param partition the partition
+   */
+  public void setPartition(PoolPartition partition) {
+    this.partition = partition;
+  }
+
+  /*
+   * Getter for the configuration generation of the pool when the real connection was opened
+   *
+   * @return the generation
+   */
+  public int getGeneration() {
+    return generation;
+  }
+
+  /*
+   * Setter for the configuration generation of the pool when the real connection was opened
+   *
+   * @param generation the generation
+   */
+  public void setGeneration(int generation) {
+    this.generation = generation;
+  }
+
+  /*
+   * Getter for the sub-pool of the credentials this connection was opened with, while it is checked out
+   *
+   * @return the credential pool
+   */
+  CredentialPool getCredentialPool() {
+    return credentialPool;
+  }
+
+  /*
+   * Setter for the sub-pool of the credentials this connection was opened with
+   *
+   * @param credentialPool the credential pool
+   */
+  void setCredentialPool(CredentialPool credentialPool) {
+    this.credentialPool = credentialPool;
+  }
+
   @Override
   public int hashCode() {
     return hashCode;
@@ -249,6 +375,9 @@ class PooledConnection implements InvocationHandler {
         	//除了toString()方法，其他方法调用之前要检查connection是否还是合法的,不合法要抛出SQLException
           checkConnection();
         }
+        if (checkoutStack != null) {
+          trackStatement(methodName, args);
+        }
         //其他的方法，则交给真正的connection去调用
         return method.invoke(realConnection, args);
       } catch (Throwable t) {
@@ -257,6 +386,18 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
+  private void trackStatement(String methodName, Object[] args) {
+    if (methodName.startsWith("prepare") || "createStatement".equals(methodName)) {
+      String statement = ErrorContext.instance().getObject();
+      if (statement == null && args != null && args.length > 0 && args[0] instanceof String) {
+        statement = (String) args[0];
+      }
+      if (statement != null) {
+        lastStatement = statement;
+      }
+    }
+  }
+
   private void checkConnection() throws SQLException {
     if (!valid) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
@@ -23,11 +23,19 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
+import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -51,6 +59,19 @@ public class PooledDataSource implements DataSource {
   //有一个池状态
   private final PoolState state = new PoolState(this);
 
+  //无锁的度量信息(直方图+计数器)
+  private final PoolMetrics metrics = new PoolMetrics();
+
+  private final ConnectionLeakDetector leakDetector = new ConnectionLeakDetector(this, metrics);
+
+  private final AdaptivePoolSizer sizer = new AdaptivePoolSizer(this);
+
+  //分区(舱壁隔离)，key是分区名
+  private final Map<String, PoolPartition> partitions = new LinkedHashMap<String, PoolPartition>();
+
+  //按用户名密码划分的子池，默认用户的子池使用PoolState里的空闲列表
+  private final Map<String, CredentialPool> credentialPools = new HashMap<String, CredentialPool>();
+
   //里面有一个UnpooledDataSource
   private final UnpooledDataSource dataSource;
 
@@ -69,8 +90,20 @@ public class PooledDataSource implements DataSource {
   protected boolean poolPingEnabled = false;
   //用来配置 poolPingQuery 多次时间被用一次
   protected int poolPingConnectionsNotUsedFor = 0;
-
-  private int expectedConnectionTypeCode;
+  //连接借出超过这个时间(毫秒)就报告可能的泄漏，0表示不检测
+  protected volatile int poolLeakDetectionThreshold = 0;
+  //每借出多少次连接记录一次调用栈
+  protected volatile int poolLeakDetectionSampleRate = 1;
+  //自适应大小:开启后正在使用连接的数量在最小值和poolMaximumActiveConnections之间调整
+  protected volatile boolean poolAdaptiveSizing = false;
+  protected volatile int poolMinimumActiveConnections = 1;
+  protected volatile int poolAdaptiveSizingInterval = 1000;
+  //每个用户名密码最多借出/空闲的连接数，0表示只受整个连接池的上限限制
+  protected int poolMaximumActiveConnectionsPerCredential = 0;
+  protected int poolMaximumIdleConnectionsPerCredential = 0;
+
+  //配置的代数，url/用户名/密码等改变时加1
+  private int generation;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -78,33 +111,112 @@ public class PooledDataSource implements DataSource {
 
   public PooledDataSource(String driver, String url, String username, String password) {
     dataSource = new UnpooledDataSource(driver, url, username, password);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
   }
 
   public PooledDataSource(String driver, String url, Properties driverProperties) {
     dataSource = new UnpooledDataSource(driver, url, driverProperties);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
   }
 
   public PooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
     dataSource = new UnpooledDataSource(driverClassLoader, driver, url, username, password);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
   }
 
   public PooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
     dataSource = new UnpooledDataSource(driverClassLoader, driver, url, driverProperties);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
   }
 
   @Override
   public Connection getConnection() throws SQLException {
 	  //覆盖了DataSource.getConnection方法，每次都是pop一个Connection，即从池中取出一个来
-    return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
+    return getConnection(currentPartition());
   }
 
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
-    return popConnection(username, password).getProxyConnection();
+    return getConnection(username, password, currentPartition());
+  }
+
+  Connection getConnection(PoolPartition partition) throws SQLException {
+    return popConnection(dataSource.getUsername(), dataSource.getPassword(), partition).getProxyConnection();
+  }
+
+  Connection getConnection(String username, String password, PoolPartition partition) throws SQLException {
+    return popConnection(username, password, partition).getProxyConnection();
+  }
+
+  /*
+   * Adds a partition (bulkhead) to this pool. Connections checked out through it are limited to
+   * maximumActiveConnections, and callers give up after waiting timeToWait milliseconds.
+   *
+   * @return the partition, which can also be used as a DataSource
+   */
+  public PoolPartition addPartition(String name, int maximumActiveConnections, int timeToWait) {
+    synchronized (state) {
+      PoolPartition partition = new PoolPartition(this, name, maximumActiveConnections, timeToWait);
+      partitions.put(name, partition);
+      return partition;
+    }
+  }
+
+  public PoolPartition getPartition(String name) {
+    synchronized (state) {
+      return partitions.get(name);
+    }
+  }
+
+  public Collection<PoolPartition> getPartitions() {
+    synchronized (state) {
+      return new ArrayList<PoolPartition>(partitions.values());
+    }
+  }
+
+  /*
+   * Defines the partitions as a comma separated list of name:maximumActiveConnections:timeToWait,
+   * for example "reporting:2:30000,oltp:8:1000". Replaces the existing partitions.
+   *
+   * @param poolPartitions The partitions
+   */
+  public void setPoolPartitions(String poolPartitions) {
+    synchronized (state) {
+      partitions.clear();
+      if (poolPartitions == null) {
+        return;
+      }
+      for (String definition : poolPartitions.split(",")) {
+        if (definition.trim().length() == 0) {
+          continue;
+        }
+        String[] parts = definition.trim().split(":");
+        if (parts.length != 3) {
+          throw new DataSourceException("Invalid pool partition '" + definition + "'. Expected name:maximumActiveConnections:timeToWait");
+        }
+        try {
+          addPartition(parts[0].trim(), Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim()));
+        } catch (NumberFormatException e) {
+          throw new DataSourceException("Invalid pool partition '" + definition + "'. Cause: " + e, e);
+        }
+      }
+    }
+  }
+
+  private PoolPartition currentPartition() throws SQLException {
+    String name = PoolPartitionContext.current();
+    if (name == null) {
+      return null;
+    }
+    PoolPartition partition = getPartition(name);
+    if (partition == null) {
+      throw new SQLException("PooledDataSource: Unknown pool partition '" + name + "'.");
+    }
+    return partition;
+  }
+
+  private void releasePartition(PooledConnection conn) {
+    PoolPartition partition = conn.getPartition();
+    if (partition != null) {
+      partition.checkedIn();
+      conn.setPartition(null);
+    }
   }
 
   @Override
@@ -128,38 +240,52 @@ public class PooledDataSource implements DataSource {
   }
 
   public void setDriver(String driver) {
-    dataSource.setDriver(driver);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setDriver(driver);
+      retireConnections();
+    }
   }
 
   public void setUrl(String url) {
-    dataSource.setUrl(url);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setUrl(url);
+      retireConnections();
+    }
   }
 
   public void setUsername(String username) {
-    dataSource.setUsername(username);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setUsername(username);
+      retireConnections();
+    }
   }
 
   public void setPassword(String password) {
-    dataSource.setPassword(password);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setPassword(password);
+      retireConnections();
+    }
   }
 
   public void setDefaultAutoCommit(boolean defaultAutoCommit) {
-    dataSource.setAutoCommit(defaultAutoCommit);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setAutoCommit(defaultAutoCommit);
+      retireConnections();
+    }
   }
 
   public void setDefaultTransactionIsolationLevel(Integer defaultTransactionIsolationLevel) {
-    dataSource.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setDefaultTransactionIsolationLevel(defaultTransactionIsolationLevel);
+      retireConnections();
+    }
   }
 
   public void setDriverProperties(Properties driverProps) {
-    dataSource.setDriverProperties(driverProps);
-    forceCloseAll();
+    synchronized (state) {
+      dataSource.setDriverProperties(driverProps);
+      retireConnections();
+    }
   }
 
   /*
@@ -168,8 +294,10 @@ public class PooledDataSource implements DataSource {
    * @param poolMaximumActiveConnections The maximum number of active connections
    */
   public void setPoolMaximumActiveConnections(int poolMaximumActiveConnections) {
-    this.poolMaximumActiveConnections = poolMaximumActiveConnections;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolMaximumActiveConnections = poolMaximumActiveConnections;
+      trimIdleConnections();
+    }
   }
 
   /*
@@ -178,8 +306,10 @@ public class PooledDataSource implements DataSource {
    * @param poolMaximumIdleConnections The maximum number of idle connections
    */
   public void setPoolMaximumIdleConnections(int poolMaximumIdleConnections) {
-    this.poolMaximumIdleConnections = poolMaximumIdleConnections;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolMaximumIdleConnections = poolMaximumIdleConnections;
+      trimIdleConnections();
+    }
   }
 
   /*
@@ -189,8 +319,11 @@ public class PooledDataSource implements DataSource {
    * @param poolMaximumCheckoutTime The maximum time
    */
   public void setPoolMaximumCheckoutTime(int poolMaximumCheckoutTime) {
-    this.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolMaximumCheckoutTime = poolMaximumCheckoutTime;
+      //唤醒等待的线程，按新配置重新计算
+      state.notifyAll();
+    }
   }
 
   /*
@@ -199,8 +332,11 @@ public class PooledDataSource implements DataSource {
    * @param poolTimeToWait The time to wait
    */
   public void setPoolTimeToWait(int poolTimeToWait) {
-    this.poolTimeToWait = poolTimeToWait;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolTimeToWait = poolTimeToWait;
+      //唤醒等待的线程，按新配置重新计算
+      state.notifyAll();
+    }
   }
 
   /*
@@ -209,8 +345,11 @@ public class PooledDataSource implements DataSource {
    * @param poolPingQuery The query
    */
   public void setPoolPingQuery(String poolPingQuery) {
-    this.poolPingQuery = poolPingQuery;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolPingQuery = poolPingQuery;
+      //唤醒等待的线程，按新配置重新计算
+      state.notifyAll();
+    }
   }
 
   /*
@@ -219,8 +358,11 @@ public class PooledDataSource implements DataSource {
    * @param poolPingEnabled True if we need to check a connection before using it
    */
   public void setPoolPingEnabled(boolean poolPingEnabled) {
-    this.poolPingEnabled = poolPingEnabled;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolPingEnabled = poolPingEnabled;
+      //唤醒等待的线程，按新配置重新计算
+      state.notifyAll();
+    }
   }
 
   /*
@@ -230,8 +372,99 @@ public class PooledDataSource implements DataSource {
    * @param milliseconds the number of milliseconds of inactivity that will trigger a ping
    */
   public void setPoolPingConnectionsNotUsedFor(int milliseconds) {
-    this.poolPingConnectionsNotUsedFor = milliseconds;
-    forceCloseAll();
+    synchronized (state) {
+      this.poolPingConnectionsNotUsedFor = milliseconds;
+      //唤醒等待的线程，按新配置重新计算
+      state.notifyAll();
+    }
+  }
+
+  /*
+   * Connections checked out for longer than this many milliseconds are reported as
+   * possible leaks, checked every half threshold by a background thread once the first
+   * connection is checked out. 0 (the default) disables leak detection.
+   *
+   * @param poolLeakDetectionThreshold the threshold in milliseconds
+   */
+  public void setPoolLeakDetectionThreshold(int poolLeakDetectionThreshold) {
+    synchronized (state) {
+      this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+      //后台检查按新阈值重新安排
+      leakDetector.onThresholdChanged();
+    }
+  }
+
+  /*
+   * When leak detection is enabled, capture the stack of one in every this many checkouts.
+   *
+   * @param poolLeakDetectionSampleRate 1 to capture every checkout
+   */
+  public void setPoolLeakDetectionSampleRate(int poolLeakDetectionSampleRate) {
+    this.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+  }
+
+  /*
+   * Lets the pool adjust how many connections it opens, between poolMinimumActiveConnections
+   * and poolMaximumActiveConnections, from the observed demand.
+   *
+   * @param poolAdaptiveSizing True to enable adaptive sizing
+   */
+  public void setPoolAdaptiveSizing(boolean poolAdaptiveSizing) {
+    synchronized (state) {
+      this.poolAdaptiveSizing = poolAdaptiveSizing;
+      trimIdleConnections();
+    }
+  }
+
+  /*
+   * The lower bound of the number of active connections when adaptive sizing is enabled
+   *
+   * @param poolMinimumActiveConnections The minimum number of active connections
+   */
+  public void setPoolMinimumActiveConnections(int poolMinimumActiveConnections) {
+    synchronized (state) {
+      this.poolMinimumActiveConnections = poolMinimumActiveConnections;
+      trimIdleConnections();
+    }
+  }
+
+  /*
+   * How often (in milliseconds) adaptive sizing re-evaluates the pool size
+   *
+   * @param poolAdaptiveSizingInterval The interval
+   */
+  public void setPoolAdaptiveSizingInterval(int poolAdaptiveSizingInterval) {
+    synchronized (state) {
+      this.poolAdaptiveSizingInterval = poolAdaptiveSizingInterval;
+      //唤醒等待的线程，按新配置重新计算
+      state.notifyAll();
+    }
+  }
+
+  /*
+   * The maximum number of active connections per username and password, within
+   * poolMaximumActiveConnections. 0 (the default) means no limit of its own.
+   *
+   * @param poolMaximumActiveConnectionsPerCredential The maximum number of active connections per credentials
+   */
+  public void setPoolMaximumActiveConnectionsPerCredential(int poolMaximumActiveConnectionsPerCredential) {
+    synchronized (state) {
+      this.poolMaximumActiveConnectionsPerCredential = poolMaximumActiveConnectionsPerCredential;
+      state.notifyAll();
+    }
+  }
+
+  /*
+   * The maximum number of idle connections per username and password, within
+   * poolMaximumIdleConnections. 0 (the default) means no limit of its own.
+   *
+   * @param poolMaximumIdleConnectionsPerCredential The maximum number of idle connections per credentials
+   */
+  public void setPoolMaximumIdleConnectionsPerCredential(int poolMaximumIdleConnectionsPerCredential) {
+    synchronized (state) {
+      this.poolMaximumIdleConnectionsPerCredential = poolMaximumIdleConnectionsPerCredential;
+      trimIdleConnections();
+    }
   }
 
   public String getDriver() {
@@ -290,17 +523,201 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampleRate() {
+    return poolLeakDetectionSampleRate;
+  }
+
+  public boolean isPoolAdaptiveSizing() {
+    return poolAdaptiveSizing;
+  }
+
+  public int getPoolMinimumActiveConnections() {
+    return poolMinimumActiveConnections;
+  }
+
+  public int getPoolAdaptiveSizingInterval() {
+    return poolAdaptiveSizingInterval;
+  }
+
+  public int getPoolMaximumActiveConnectionsPerCredential() {
+    return poolMaximumActiveConnectionsPerCredential;
+  }
+
+  public int getPoolMaximumIdleConnectionsPerCredential() {
+    return poolMaximumIdleConnectionsPerCredential;
+  }
+
+  /*
+   * The number of active connections the pool currently allows. This is poolMaximumActiveConnections
+   * unless adaptive sizing is enabled.
+   */
+  public int getTargetActiveConnections() {
+    synchronized (state) {
+      return getMaximumActiveConnections();
+    }
+  }
+
+  private int getMaximumActiveConnections() {
+    return poolAdaptiveSizing ? sizer.getTargetActiveConnections() : poolMaximumActiveConnections;
+  }
+
+  private void resizeIfNeeded() {
+    if (poolAdaptiveSizing && sizer.maybeResize(System.currentTimeMillis(), state.activeConnections.size())) {
+      //目标变小了关掉多余的空闲连接，变大了唤醒等待的线程
+      trimIdleConnections();
+    }
+  }
+
+  /*
+   * Called when a setting used to open connections changes. Idle connections are closed now,
+   * checked out ones are closed when they are returned, so in-flight work is not interrupted.
+   */
+  private void retireConnections() {
+    generation++;
+    for (CredentialPool pool : credentialPools.values()) {
+      List<PooledConnection> idle = pool.getIdleConnections();
+      for (int i = idle.size(); i > 0; i--) {
+        closeIdleConnection(idle.remove(i - 1));
+      }
+      pool.retire();
+    }
+    credentialPools.clear();
+    if (log.isDebugEnabled() && !state.activeConnections.isEmpty()) {
+      log.debug("PooledDataSource configuration changed, " + state.activeConnections.size() + " active connections will be closed when returned.");
+    }
+    metrics.updateConnectionCounts(state.activeConnections.size(), 0);
+    state.notifyAll();
+  }
+
+  /*
+   * Called when a pool size changes. Closes idle connections above the new limits; if too many
+   * connections are checked out, the excess is closed as they are returned.
+   */
+  private void trimIdleConnections() {
+    for (CredentialPool pool : credentialPools.values()) {
+      List<PooledConnection> idle = pool.getIdleConnections();
+      while (idle.size() > getMaximumIdleConnectionsPerCredential()) {
+        closeIdleConnection(idle.remove(idle.size() - 1));
+      }
+    }
+    while (getIdleConnectionCount() > poolMaximumIdleConnections
+        || state.activeConnections.size() + getIdleConnectionCount() > getMaximumActiveConnections()) {
+      if (!evictIdleConnection(null)) {
+        break;
+      }
+    }
+    metrics.updateConnectionCounts(state.activeConnections.size(), getIdleConnectionCount());
+    //可能变大了，唤醒等待的线程
+    state.notifyAll();
+  }
+
+  /*
+   * Closes the oldest idle connection of another username and password, to make room
+   * for a new connection within poolMaximumActiveConnections.
+   */
+  private boolean evictIdleConnection(CredentialPool except) {
+    Iterator<CredentialPool> it = credentialPools.values().iterator();
+    while (it.hasNext()) {
+      CredentialPool pool = it.next();
+      if (pool != except && !pool.getIdleConnections().isEmpty()) {
+        closeIdleConnection(pool.getIdleConnections().remove(0));
+        if (pool.isEmpty()) {
+          it.remove();
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private CredentialPool getCredentialPool(String username, String password) {
+    String key = CredentialPool.keyOf(username, password);
+    CredentialPool pool = credentialPools.get(key);
+    if (pool == null) {
+      //默认用户的空闲连接还是放在PoolState里
+      boolean defaultCredentials = isDefaultCredentials(username, password);
+      pool = new CredentialPool(username, password, defaultCredentials ? state.idleConnections : new ArrayList<PooledConnection>());
+      credentialPools.put(key, pool);
+    }
+    return pool;
+  }
+
+  private boolean isDefaultCredentials(String username, String password) {
+    return (username == null ? dataSource.getUsername() == null : username.equals(dataSource.getUsername()))
+        && (password == null ? dataSource.getPassword() == null : password.equals(dataSource.getPassword()));
+  }
+
+  private CredentialPool releaseCredentialPool(PooledConnection conn) {
+    CredentialPool pool = conn.getCredentialPool();
+    if (pool != null) {
+      pool.checkedIn();
+      conn.setCredentialPool(null);
+    }
+    return pool;
+  }
+
+  private void removeIfEmpty(CredentialPool pool) {
+    String key = CredentialPool.keyOf(pool.getUsername(), pool.getPassword());
+    if (pool.isEmpty() && credentialPools.get(key) == pool) {
+      credentialPools.remove(key);
+    }
+  }
+
+  private Connection openConnection(CredentialPool pool) throws SQLException {
+    if (isDefaultCredentials(pool.getUsername(), pool.getPassword())) {
+      return dataSource.getConnection();
+    }
+    return dataSource.getConnection(pool.getUsername(), pool.getPassword());
+  }
+
+  /*
+   * The number of idle connections of all usernames and passwords. Must hold the PoolState monitor.
+   */
+  int getIdleConnectionCount() {
+    int count = 0;
+    for (CredentialPool pool : credentialPools.values()) {
+      count += pool.getIdleConnections().size();
+    }
+    return count;
+  }
+
+  private int getMaximumActiveConnectionsPerCredential() {
+    return poolMaximumActiveConnectionsPerCredential > 0 ? poolMaximumActiveConnectionsPerCredential : poolMaximumActiveConnections;
+  }
+
+  private int getMaximumIdleConnectionsPerCredential() {
+    return poolMaximumIdleConnectionsPerCredential > 0 ? poolMaximumIdleConnectionsPerCredential : poolMaximumIdleConnections;
+  }
+
+  private void closeIdleConnection(PooledConnection conn) {
+    conn.invalidate();
+    try {
+      conn.getRealConnection().close();
+    } catch (Exception e) {
+      // ignore
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Closed idle connection " + conn.getRealHashCode() + ".");
+    }
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
   public void forceCloseAll() {
     synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
       //关闭所有的activeConnections和idleConnections
       for (int i = state.activeConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
+          //借出时占的分区和子池名额现在就还，持有者之后close的时候不会再还一次
+          releasePartition(conn);
+          releaseCredentialPool(conn);
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -311,20 +728,26 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
-          conn.invalidate();
+      for (CredentialPool pool : credentialPools.values()) {
+        List<PooledConnection> idle = pool.getIdleConnections();
+        for (int i = idle.size(); i > 0; i--) {
+          try {
+            PooledConnection conn = idle.remove(i - 1);
+            conn.invalidate();
 
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
+            Connection realConn = conn.getRealConnection();
+            if (!realConn.getAutoCommit()) {
+              realConn.rollback();
+            }
+            realConn.close();
+          } catch (Exception e) {
+            // ignore
           }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
         }
+        pool.retire();
       }
+      credentialPools.clear();
+      metrics.updateConnectionCounts(0, 0);
     }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
@@ -335,8 +758,21 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
-    return ("" + url + username + password).hashCode();
+  /*
+   * Lock-free histograms and counters of this pool. Use getPoolMetrics().snapshot()
+   * to read them without blocking the pool.
+   */
+  public PoolMetrics getPoolMetrics() {
+    return metrics;
+  }
+
+  //泄漏检测的后台线程调用，连接池没有借出和归还时也能发现泄漏
+  void detectLeaks() {
+    synchronized (state) {
+      if (poolLeakDetectionThreshold > 0) {
+        leakDetector.detect(state.activeConnections);
+      }
+    }
   }
 
   protected void pushConnection(PooledConnection conn) throws SQLException {
@@ -344,8 +780,21 @@ public class PooledDataSource implements DataSource {
     synchronized (state) {
       //先从activeConnections中删除此connection
       state.activeConnections.remove(conn);
+      metrics.recordUsageTime(System.nanoTime() - conn.getCheckoutNanoTime());
+      releasePartition(conn);
+      //这个连接还算子池借出的，收缩时子池不会因为空了被删掉
+      resizeIfNeeded();
+      CredentialPool pool = releaseCredentialPool(conn);
+      if (poolLeakDetectionThreshold > 0) {
+        leakDetector.onCheckin(conn);
+        leakDetector.detect(state.activeConnections);
+      }
       if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        //放回借出时所用用户名密码的子池
+        if (pool != null && !pool.isRetired() && conn.getGeneration() == generation
+            && pool.getIdleConnections().size() < getMaximumIdleConnectionsPerCredential()
+            && getIdleConnectionCount() < poolMaximumIdleConnections
+            && state.activeConnections.size() + getIdleConnectionCount() < getMaximumActiveConnections()) {
       	  //如果空闲的连接太少，
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
           if (!conn.getRealConnection().getAutoCommit()) {
@@ -353,7 +802,8 @@ public class PooledDataSource implements DataSource {
           }
           //new一个新的Connection，加入到idle列表
           PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
+          newConn.setGeneration(conn.getGeneration());
+          pool.getIdleConnections().add(newConn);
           newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
           newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
           conn.invalidate();
@@ -374,40 +824,72 @@ public class PooledDataSource implements DataSource {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
           }
           conn.invalidate();
+          if (pool != null) {
+            removeIfEmpty(pool);
+          }
+          //分区的等待者可能在等这个连接归还
+          state.notifyAll();
         }
       } else {
         if (log.isDebugEnabled()) {
           log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
         }
         state.badConnectionCount++;
+        metrics.incrementBadConnectionCount();
+        if (pool != null) {
+          removeIfEmpty(pool);
+        }
       }
+      metrics.updateConnectionCounts(state.activeConnections.size(), getIdleConnectionCount());
     }
   }
 
-  private PooledConnection popConnection(String username, String password) throws SQLException {
+  private PooledConnection popConnection(String username, String password, PoolPartition partition) throws SQLException {
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
     int localBadConnectionCount = 0;
+    int timeToWait = partition == null ? poolTimeToWait : partition.getTimeToWait();
 
     //最外面是while死循环，如果一直拿不到connection，则不断尝试
     while (conn == null) {
       synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
-          //如果有空闲的连接的话
+        resizeIfNeeded();
+        //每次都重新取，等待期间配置可能变了
+        CredentialPool pool = getCredentialPool(username, password);
+        boolean mustWait = false;
+        if (partition != null && partition.isFull()) {
+          //分区的连接已经借完了，只能等待本分区的连接归还
+          mustWait = true;
+        } else if (!pool.getIdleConnections().isEmpty()) {
+          //如果这个用户有空闲的连接的话
           // Pool has available connection
           //删除空闲列表里第一个，返回
-          conn = state.idleConnections.remove(0);
+          conn = pool.getIdleConnections().remove(0);
           if (log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
         } else {
         	//如果没有空闲的连接
           // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
+          if (pool.getActiveConnectionCount() >= getMaximumActiveConnectionsPerCredential()) {
+            //这个用户的连接已经借完了，等待它的连接归还
+            mustWait = true;
+          } else if (state.activeConnections.size() < getMaximumActiveConnections()) {
         	  //如果activeConnections太少,那就new一个PooledConnection
             // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
+            if (state.activeConnections.size() + getIdleConnectionCount() >= getMaximumActiveConnections()) {
+              //其他用户的空闲连接占了名额，关掉一个
+              evictIdleConnection(pool);
+            }
+            long createNanos = System.nanoTime();
+            conn = new PooledConnection(openConnection(pool), this);
+            conn.setGeneration(generation);
+            metrics.recordCreationTime(System.nanoTime() - createNanos);
+            if (poolAdaptiveSizing) {
+              sizer.recordCreation(System.nanoTime() - createNanos);
+            }
             if (log.isDebugEnabled()) {
               log.debug("Created connection " + conn.getRealHashCode() + ".");
             }
@@ -421,14 +903,35 @@ public class PooledDataSource implements DataSource {
             	//如果checkout时间过长，则这个connection标记为overdue（过期）
               // Can claim overdue connection
               state.claimedOverdueConnectionCount++;
+              metrics.incrementClaimedOverdueConnectionCount();
               state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
               state.accumulatedCheckoutTime += longestCheckoutTime;
               state.activeConnections.remove(oldestActiveConnection);
+              releasePartition(oldestActiveConnection);
+              CredentialPool oldestPool = releaseCredentialPool(oldestActiveConnection);
+              if (poolLeakDetectionThreshold > 0) {
+                leakDetector.onOverdueClaimed(oldestActiveConnection, longestCheckoutTime);
+              }
               if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
                 oldestActiveConnection.getRealConnection().rollback();
               }
-              //删掉最老的连接，然后再new一个新连接
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+              if (oldestPool == pool) {
+                //删掉最老的连接，然后再new一个新连接
+                conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
+                conn.setGeneration(oldestActiveConnection.getGeneration());
+              } else {
+                //最老的连接是别的用户的，不能给这个用户用，关掉重新建一个
+                try {
+                  oldestActiveConnection.getRealConnection().close();
+                } catch (SQLException e) {
+                  // ignore
+                }
+                if (oldestPool != null) {
+                  removeIfEmpty(oldestPool);
+                }
+                conn = new PooledConnection(openConnection(pool), this);
+                conn.setGeneration(generation);
+              }
               oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
                 log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
@@ -436,23 +939,53 @@ public class PooledDataSource implements DataSource {
             } else {
             	//如果checkout时间不够长，等待吧
               // Must wait
+              mustWait = true;
+            }
+          }
+        }
+        if (mustWait) {
+          long waitTime = timeToWait;
+          if (partition != null) {
+            //分区的等待有上限，超时就放弃
+            waitTime = timeToWait - (System.currentTimeMillis() - t);
+            if (waitTime <= 0) {
+              metrics.incrementTimeoutCount();
+              if (log.isDebugEnabled()) {
+                log.debug("PooledDataSource: Timed out waiting " + timeToWait + " milliseconds for a connection in partition " + partition.getName() + ".");
+              }
+              throw new SQLException("PooledDataSource: Timed out waiting " + timeToWait + " milliseconds for a connection in partition " + partition.getName() + ".");
+            }
+          }
+          try {
+            if (!countedWait) {
+            	//统计信息：等待+1
+              state.hadToWaitCount++;
+              countedWait = true;
+            }
+            if (log.isDebugEnabled()) {
+              log.debug("Waiting as long as " + waitTime + " milliseconds for connection.");
+            }
+            long wt = System.currentTimeMillis();
+            //睡一会儿吧
+            if (poolAdaptiveSizing) {
+              //自适应模式下，最多等一个调整周期，醒来后重新评估大小
+              sizer.beginWait(state.activeConnections.size());
               try {
-                if (!countedWait) {
-                	//统计信息：等待+1
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                //睡一会儿吧
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
+                state.wait(Math.min(waitTime, poolAdaptiveSizingInterval));
+              } finally {
+                sizer.endWait();
               }
+            } else {
+              state.wait(waitTime);
             }
+            long waited = System.currentTimeMillis() - wt;
+            state.accumulatedWaitTime += waited;
+            if (partition == null && waited >= poolTimeToWait) {
+              //等满了poolTimeToWait还没被唤醒，记为一次超时
+              metrics.incrementTimeoutCount();
+            }
+          } catch (InterruptedException e) {
+            break;
           }
         }
         if (conn != null) {
@@ -461,19 +994,35 @@ public class PooledDataSource implements DataSource {
             if (!conn.getRealConnection().getAutoCommit()) {
               conn.getRealConnection().rollback();
             }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
             //记录checkout时间
             conn.setCheckoutTimestamp(System.currentTimeMillis());
+            conn.setCheckoutNanoTime(System.nanoTime());
             conn.setLastUsedTimestamp(System.currentTimeMillis());
+            if (poolLeakDetectionThreshold > 0) {
+              leakDetector.onCheckout(conn);
+              leakDetector.detect(state.activeConnections);
+            }
+            if (partition != null) {
+              conn.setPartition(partition);
+              partition.checkedOut();
+            }
+            conn.setCredentialPool(pool);
+            pool.checkedOut();
             state.activeConnections.add(conn);
             state.requestCount++;
             state.accumulatedRequestTime += System.currentTimeMillis() - t;
+            metrics.recordWaitTime(conn.getCheckoutNanoTime() - startNanos);
+            if (poolAdaptiveSizing) {
+              sizer.recordCheckout(state.activeConnections.size(), countedWait, conn.getCheckoutNanoTime() - startNanos);
+            }
+            metrics.updateConnectionCounts(state.activeConnections.size(), getIdleConnectionCount());
           } else {
             if (log.isDebugEnabled()) {
               log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
             }
             //如果没拿到，统计信息：坏连接+1
             state.badConnectionCount++;
+            metrics.incrementBadConnectionCount();
             localBadConnectionCount++;
             conn = null;
             if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
@@ -24,18 +24,24 @@ import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.impl.LocalCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.datasource.pooled.PoolPartitionContext;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.CoalesceMode;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.LocalCacheEviction;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
@@ -68,14 +74,16 @@ public abstract class BaseExecutor implements Executor {
   //查询堆栈
   protected int queryStack = 0;
   private boolean closed;
+  //本事务写过(还没提交或回滚)，查询不和别的会话合并
+  private boolean dirty;
 
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
-    this.localCache = new PerpetualCache("LocalCache");
-    this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
     this.closed = false;
     this.configuration = configuration;
+    this.localCache = newLocalCache("LocalCache", true);
+    this.localOutputParameterCache = newLocalCache("LocalOutputParameterCache", false);
     this.wrapper = this;
   }
 
@@ -123,7 +131,13 @@ public abstract class BaseExecutor implements Executor {
     }
     //先清局部缓存，再更新，如何更新交由子类，模板方法模式
     clearLocalCache();
-    return doUpdate(ms, parameter);
+    dirty = true;
+    String previousPartition = bindPoolPartition(ms);
+    try {
+      return doUpdate(ms, parameter);
+    } finally {
+      restorePoolPartition(ms, previousPartition);
+    }
   }
 
   @Override
@@ -144,10 +158,8 @@ public abstract class BaseExecutor implements Executor {
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
     //得到绑定sql
     BoundSql boundSql = ms.getBoundSql(parameter);
-    //创建缓存Key
-    CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
-    //查询
-    return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
+    //缓存Key用得上的时候才创建，见下面的query
+    return query(ms, parameter, rowBounds, resultHandler, null, boundSql);
  }
 
   @SuppressWarnings("unchecked")
@@ -162,12 +174,23 @@ public abstract class BaseExecutor implements Executor {
     if (queryStack == 0 && ms.isFlushCacheRequired()) {
       clearLocalCache();
     }
-    List<E> list;
+    //没传缓存Key的话，本地缓存(或者合并查询)用得上才创建
+    if (key == null && isCacheKeyNeeded(ms, resultHandler)) {
+      //反序列化以后的延迟加载连BoundSql也没传
+      if (boundSql == null) {
+        boundSql = ms.getBoundSql(parameter);
+      }
+      key = createCacheKey(ms, parameter, rowBounds, boundSql);
+    }
+    List<E> list = null;
     try {
       //加一,这样递归调用到上面的时候就不会再清局部缓存了
       queryStack++;
       //先根据cachekey从localCache去查
-      list = resultHandler == null ? (List<E>) localCache.getObject(key) : null;
+      if (resultHandler == null && key != null) {
+        list = (List<E>) localCache.getObject(key);
+        recordLocalCacheRequest(list != null);
+      }
       if (list != null) {
         //若查到localCache缓存，处理localOutputParameterCache
         handleLocallyCachedOutputParameters(ms, key, parameter, boundSql);
@@ -191,6 +214,9 @@ public abstract class BaseExecutor implements Executor {
         // issue #482
     	//如果是STATEMENT，清本地缓存
         clearLocalCache();
+      } else {
+        //语句执行完了，有上限的话再淘汰
+        evictLocalCache();
       }
     }
     return list;
@@ -223,9 +249,12 @@ public abstract class BaseExecutor implements Executor {
     cacheKey.update(ms.getId());
     cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
     cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
+    //静态SQL每次都是SqlSource里的同一个字符串，比较key的时候不用逐个字符比；动态SQL不intern，免得填满常量池
     cacheKey.update(boundSql.getSql());
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
+    //参数对象的MetaObject只建一次
+    MetaObject metaObject = null;
     // mimic DefaultParameterHandler logic
     //模仿DefaultParameterHandler的逻辑,不再重复，请参考DefaultParameterHandler
     for (int i = 0; i < parameterMappings.size(); i++) {
@@ -240,7 +269,9 @@ public abstract class BaseExecutor implements Executor {
         } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
           value = parameterObject;
         } else {
-          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          if (metaObject == null) {
+            metaObject = configuration.newMetaObject(parameterObject);
+          }
           value = metaObject.getValue(propertyName);
         }
         cacheKey.update(value);
@@ -268,6 +299,7 @@ public abstract class BaseExecutor implements Executor {
     if (required) {
       transaction.commit();
     }
+    dirty = false;
   }
 
   @Override
@@ -280,6 +312,7 @@ public abstract class BaseExecutor implements Executor {
         if (required) {
           transaction.rollback();
         }
+        dirty = false;
       }
     }
   }
@@ -287,6 +320,7 @@ public abstract class BaseExecutor implements Executor {
   @Override
   public void clearLocalCache() {
     if (!closed) {
+      configuration.getLocalCacheStatistics().recordClear(localCache.getSize());
       localCache.clear();
       localOutputParameterCache.clear();
     }
@@ -331,18 +365,41 @@ public abstract class BaseExecutor implements Executor {
   }
 
   //从数据库查
-  private <E> List<E> queryFromDatabase(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
+  private <E> List<E> queryFromDatabase(final MappedStatement ms, final Object parameter, final RowBounds rowBounds, final ResultHandler resultHandler, CacheKey key, final BoundSql boundSql) throws SQLException {
     List<E> list;
     //先向缓存中放入占位符？？？
-    localCache.putObject(key, EXECUTION_PLACEHOLDER);
+    if (key != null) {
+      localCache.putObject(key, EXECUTION_PLACEHOLDER);
+    }
+    String previousPartition = bindPoolPartition(ms);
+    long start = System.nanoTime();
     try {
-      list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      if (isCoalesced(ms, resultHandler)) {
+        //同样的查询正在别的会话里执行的话，等它的结果
+        list = configuration.getQueryCoalescer().query(ms, key, new QueryCoalescer.Query<E>() {
+          @Override
+          public List<E> execute() throws SQLException {
+            return doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+          }
+        });
+      } else {
+        list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      }
     } finally {
+      restorePoolPartition(ms, previousPartition);
       //最后删除占位符
-      localCache.removeObject(key);
+      if (key != null) {
+        localCache.removeObject(key);
+      }
+    }
+    if (key == null) {
+      return list;
     }
     //加入缓存
     localCache.putObject(key, list);
+    CacheStatistics statistics = configuration.getLocalCacheStatistics();
+    statistics.recordLoad(System.nanoTime() - start);
+    statistics.recordPut(list);
     //如果是存储过程，OUT参数也加入缓存
     if (ms.getStatementType() == StatementType.CALLABLE) {
       localOutputParameterCache.putObject(key, parameter);
@@ -350,6 +407,78 @@ public abstract class BaseExecutor implements Executor {
     return list;
   }
 
+  //配置了localCacheSize或localCacheMaxBytes才有上限，否则还是PerpetualCache(延迟加载的ClosedExecutor没有configuration)
+  private PerpetualCache newLocalCache(String id, boolean countEvictions) {
+    if (configuration == null) {
+      return new PerpetualCache(id);
+    }
+    Integer size = configuration.getLocalCacheSize();
+    Long maxBytes = configuration.getLocalCacheMaxBytes();
+    if (size == null && maxBytes == null) {
+      return new PerpetualCache(id);
+    }
+    LocalCache cache = new LocalCache(id,
+        size == null ? Integer.MAX_VALUE : size,
+        maxBytes == null ? Long.MAX_VALUE : maxBytes,
+        configuration.getLocalCacheEviction() == LocalCacheEviction.LRU);
+    if (countEvictions) {
+      cache.setStatistics(configuration.getLocalCacheStatistics());
+    }
+    return cache;
+  }
+
+  private void evictLocalCache() {
+    if (localCache instanceof LocalCache) {
+      ((LocalCache) localCache).evict();
+      ((LocalCache) localOutputParameterCache).evict();
+    }
+  }
+
+  private void recordLocalCacheRequest(boolean hit) {
+    if (hit) {
+      configuration.getLocalCacheStatistics().recordHit();
+    } else {
+      configuration.getLocalCacheStatistics().recordMiss();
+    }
+  }
+
+  //只合并没有嵌套查询的(嵌套查询和延迟加载要等整个查询结束才填好)；存储过程有OUT参数，不合并
+  private boolean isCoalesced(MappedStatement ms, ResultHandler resultHandler) {
+    if (ms.getCoalesce() == CoalesceMode.NONE || resultHandler != null || dirty || ms.getStatementType() == StatementType.CALLABLE) {
+      return false;
+    }
+    return !hasNestedQueries(ms);
+  }
+
+  //缓存Key什么时候用不上：最外层的查询，没有嵌套查询(不会有循环引用和延迟加载)，不合并，
+  //而且本地缓存不会去查(有ResultHandler)或者语句一结束就清掉(localCacheScope=STATEMENT)
+  private boolean isCacheKeyNeeded(MappedStatement ms, ResultHandler resultHandler) {
+    if (queryStack > 0 || ms.getCoalesce() != CoalesceMode.NONE || hasNestedQueries(ms)) {
+      return true;
+    }
+    return resultHandler == null && configuration.getLocalCacheScope() == LocalCacheScope.SESSION;
+  }
+
+  private boolean hasNestedQueries(MappedStatement ms) {
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      if (resultMap.hasNestedQueries()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  //语句指定了连接池分区，执行期间告诉PooledDataSource(只有这时才打开连接的话才起作用)
+  private String bindPoolPartition(MappedStatement ms) {
+    return ms.getPoolPartition() == null ? null : PoolPartitionContext.bind(ms.getPoolPartition());
+  }
+
+  private void restorePoolPartition(MappedStatement ms, String previousPartition) {
+    if (ms.getPoolPartition() != null) {
+      PoolPartitionContext.restore(previousPartition);
+    }
+  }
+
   protected Connection getConnection(Log statementLog) throws SQLException {
     Connection connection = transaction.getConnection();
     if (statementLog.isDebugEnabled()) {
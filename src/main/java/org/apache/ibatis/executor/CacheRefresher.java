@@ -0,0 +1,214 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ * Refresh ahead of the second level cache (refreshAfter attribute of a select).
+ *
+ * The results of a select with refreshAfter are cached with the time they were loaded. Once
+ * they are older than refreshAfter milliseconds, a read still returns them and the select is
+ * executed again in the background, by one thread of a small pool, with its own transaction.
+ * A result is only refreshed by one thread at a time. The result is reloaded synchronously
+ * only once it has expired (cacheTtl of the select or flushInterval of the cache).
+ *
+ * The values of the parameters are read when the refresh is scheduled, so the caller may change
+ * or reuse its parameter object as soon as the select returns.
+ */
+/**
+ * 二级缓存的提前刷新
+ * 结果超过refreshAfter毫秒以后，读的时候还是返回旧的结果，同时在后台重新查一次放进缓存；同一个结果同时只刷新一次
+ */
+public class CacheRefresher {
+
+  private static final Log log = LogFactory.getLog(CacheRefresher.class);
+
+  private final Configuration configuration;
+  private int threads = 2;
+  private ExecutorService executorService;
+  //正在刷新的缓存键
+  private final ConcurrentMap<CacheKey, Boolean> refreshing = new ConcurrentHashMap<CacheKey, Boolean>();
+
+  public CacheRefresher(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /*
+   * Sets the number of background threads, 2 by default. Only call before the first refresh.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /*
+   * @return the value to cache for the results of the statement: with the time they were loaded if it has a refreshAfter
+   */
+  public static Object wrap(MappedStatement ms, Object value) {
+    return ms.getRefreshAfter() == null ? value : new LoadedValue(value, System.currentTimeMillis());
+  }
+
+  public static Object unwrap(Object cached) {
+    return cached instanceof LoadedValue ? ((LoadedValue) cached).value : cached;
+  }
+
+  /*
+   * @return whether the cached value should be refreshed in the background
+   */
+  public boolean isStale(MappedStatement ms, Object cached) {
+    return ms.getRefreshAfter() != null && cached instanceof LoadedValue
+        && System.currentTimeMillis() - ((LoadedValue) cached).loadedAt >= ms.getRefreshAfter();
+  }
+
+  /*
+   * Executes the select again in the background and caches its results, unless it is already being refreshed.
+   */
+  public void refresh(final MappedStatement ms, Object parameterObject, final RowBounds rowBounds, final CacheKey key, BoundSql boundSql) {
+    if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+      return;
+    }
+    //调用者返回以后可能改参数对象，在这里就把参数值取出来
+    final BoundSql snapshot;
+    try {
+      snapshot = snapshot(parameterObject, boundSql);
+    } catch (RuntimeException e) {
+      refreshing.remove(key);
+      log.debug("Not refreshing the cached results of " + ms.getId() + ", its parameters could not be read.  Cause: " + e);
+      return;
+    }
+    try {
+      getExecutorService().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            reload(ms, null, rowBounds, key, snapshot);
+          } catch (Exception e) {
+            //下次读到的时候再试
+            log.error("Error refreshing the cached results of " + ms.getId() + ".  Cause: " + e, e);
+          } finally {
+            refreshing.remove(key);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      refreshing.remove(key);
+      throw e;
+    }
+  }
+
+  //参数值都放进新BoundSql的额外参数里(改成不会和别的名字冲突的平的名字)，不再依赖参数对象
+  private BoundSql snapshot(Object parameterObject, BoundSql boundSql) {
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    List<Object> values = new ArrayList<Object>();
+    MetaObject metaObject = null;
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      String propertyName = parameterMapping.getProperty();
+      Object value;
+      //和DefaultParameterHandler取值的逻辑一样
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        value = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        value = null;
+      } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+        value = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        value = metaObject.getValue(propertyName);
+      }
+      parameterMappings.add(new ParameterMapping.Builder(configuration, "_refresh" + values.size(), parameterMapping.getTypeHandler())
+          .mode(parameterMapping.getMode())
+          .javaType(parameterMapping.getJavaType())
+          .jdbcType(parameterMapping.getJdbcType())
+          .numericScale(parameterMapping.getNumericScale())
+          .resultMapId(parameterMapping.getResultMapId())
+          .jdbcTypeName(parameterMapping.getJdbcTypeName())
+          .expression(parameterMapping.getExpression())
+          .build());
+      values.add(value);
+    }
+    BoundSql snapshot = new BoundSql(configuration, boundSql.getSql(), parameterMappings, null);
+    for (int i = 0; i < values.size(); i++) {
+      snapshot.setAdditionalParameter("_refresh" + i, values.get(i));
+    }
+    return snapshot;
+  }
+
+  //用新的事务和执行器(不经过插件)查，提交的时候放进缓存
+  private void reload(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) throws Exception {
+    Environment environment = configuration.getEnvironment();
+    Transaction tx = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+    CachingExecutor executor = new CachingExecutor(new SimpleExecutor(configuration, tx), configuration.getInvalidationBus());
+    boolean loaded = false;
+    try {
+      executor.reload(ms, parameterObject, rowBounds, key, boundSql);
+      loaded = true;
+    } finally {
+      executor.close(!loaded);
+    }
+  }
+
+  private synchronized ExecutorService getExecutorService() {
+    if (executorService == null) {
+      executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mybatis-cache-refresh");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executorService;
+  }
+
+  private static class LoadedValue implements Serializable {
+    private static final long serialVersionUID = 3961380713623463525L;
+
+    private Object value;
+    private long loadedAt;
+
+    //BINARY和COPY编码器按字段复制，不用退回Java序列化
+    private LoadedValue() {
+    }
+
+    LoadedValue(Object value, long loadedAt) {
+      this.value = value;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+}
@@ -16,17 +16,35 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EntityCache;
+import org.apache.ibatis.cache.TableInvalidations;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.invalidation.Invalidation;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
@@ -41,10 +59,24 @@ import org.apache.ibatis.transaction.Transaction;
 public class CachingExecutor implements Executor {
 
   private Executor delegate;
-  private TransactionalCacheManager tcm = new TransactionalCacheManager();
+  private TransactionalCacheManager tcm;
+  //cacheInvalidation=TABLE时，本事务写过的表，提交时才让缓存失效
+  private Set<String> pendingTables = new HashSet<String>();
+  private TableInvalidations tableInvalidations;
+  //entityCacheEnabled=true时，本事务改过的实体，提交时再删一次(免得别的会话在提交前又把旧的放回去)
+  private List<Object> pendingEntities = new ArrayList<Object>();
+  private EntityCache entityCache;
+  //提交的失效通知其他节点，没配置的话是null
+  private InvalidationBus invalidationBus;
 
   public CachingExecutor(Executor delegate) {
+    this(delegate, null);
+  }
+
+  public CachingExecutor(Executor delegate, InvalidationBus invalidationBus) {
     this.delegate = delegate;
+    this.invalidationBus = invalidationBus;
+    this.tcm = new TransactionalCacheManager(invalidationBus);
     delegate.setExecutorWrapper(this);
   }
 
@@ -58,8 +90,12 @@ public class CachingExecutor implements Executor {
     try {
       //issues #499, #524 and #573
       if (forceRollback) { 
+        pendingTables.clear();
+        pendingEntities.clear();
         tcm.rollback();
       } else {
+        invalidatePendingTables();
+        removePendingEntities();
         tcm.commit();
       }
     } finally {
@@ -75,15 +111,17 @@ public class CachingExecutor implements Executor {
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
 	//刷新缓存完再update
-    flushCacheIfRequired(ms);
+    boolean evicted = evictEntities(ms, parameterObject);
+    flushCacheIfRequired(ms, parameterObject, evicted);
     return delegate.update(ms, parameterObject);
   }
 
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
     BoundSql boundSql = ms.getBoundSql(parameterObject);
-	//query时传入一个cachekey参数
-    CacheKey key = createCacheKey(ms, parameterObject, rowBounds, boundSql);
+	//query时传入一个cachekey参数，二级缓存用不上的话交给BaseExecutor看本地缓存用不用得上
+    CacheKey key = ms.getCache() != null && ms.isUseCache() && resultHandler == null
+        ? createCacheKey(ms, parameterObject, rowBounds, boundSql) : null;
     return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
@@ -98,11 +136,20 @@ public class CachingExecutor implements Executor {
       flushCacheIfRequired(ms);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, parameterObject, boundSql);
+        if (ms.getEntityIds() != null && ms.getConfiguration().isEntityCacheEnabled() && isDefault(rowBounds)) {
+          List<E> list = queryByEntityIds(ms, parameterObject, key, boundSql);
+          if (list != null) {
+            return list;
+          }
+        }
+        if (ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE || ms.getConfiguration().isEntityCacheEnabled()) {
+          return queryCachedValue(ms, parameterObject, rowBounds, key, boundSql, false);
+        }
         @SuppressWarnings("unchecked")
-        List<E> list = (List<E>) tcm.getObject(cache, key);
+        List<E> list = (List<E>) getCachedValue(ms, parameterObject, rowBounds, key, boundSql);
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          list = load(ms, parameterObject, rowBounds, key, boundSql);
+          tcm.putObject(cache, key, toCachedValue(ms, list)); // issue #578 and #116
         }
         return list;
       }
@@ -110,6 +157,248 @@ public class CachingExecutor implements Executor {
     return delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  //缓存里存的不是结果本身：cacheInvalidation=TABLE时带上读过的表和查询开始的时间，这些表之后被写过就不用；
+  //entityCacheEnabled=true时只存主键列表，行从实体缓存里取(行也带上读过的表)
+  private <E> List<E> queryCachedValue(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql,
+      boolean reload) throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    Cache cache = ms.getCache();
+    TableInvalidations invalidations = configuration.getTableInvalidations();
+    String[] tables = null;
+    if (configuration.getCacheInvalidation() == CacheInvalidation.TABLE) {
+      tables = invalidations.getReadTables(ms, boundSql);
+      if (tables == null) {
+        tables = new String[] { TableInvalidations.namespaceTable(cache) };
+      }
+    }
+    EntityCache entities = configuration.isEntityCacheEnabled() ? configuration.getEntityCache() : null;
+    // the entry must always be read so that a blocking cache is locked and then released by putObject
+    Object cached = reload ? null : getCachedValue(ms, parameterObject, rowBounds, key, boundSql);
+    if (tables != null) {
+      cached = isPending(tables) ? null : invalidations.unwrap(cached);
+    }
+    if (entities != null) {
+      cached = entities.fromCachedValue(cached);
+    }
+    @SuppressWarnings("unchecked")
+    List<E> list = (List<E>) cached;
+    if (list == null) {
+      long stamp = invalidations.stamp();
+      list = load(ms, parameterObject, rowBounds, key, boundSql);
+      Object value = entities == null ? list : entities.toCachedValue(ms, list, getEntityTables(ms, boundSql), stamp, tcm);
+      if (tables != null) {
+        value = invalidations.wrap(tables, stamp, value);
+      }
+      tcm.putObject(cache, key, toCachedValue(ms, value));
+    }
+    return list;
+  }
+
+  /*
+   * Executes the select again and caches its results when this executor commits. Used by {@link CacheRefresher}.
+   */
+  <E> List<E> reload(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) throws SQLException {
+    if (ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE || ms.getConfiguration().isEntityCacheEnabled()) {
+      return queryCachedValue(ms, parameterObject, rowBounds, key, boundSql, true);
+    }
+    List<E> list = load(ms, parameterObject, rowBounds, key, boundSql);
+    tcm.putObject(ms.getCache(), key, toCachedValue(ms, list));
+    return list;
+  }
+
+  //缓存没有的时候查数据库，耗时计入缓存的统计
+  private <E> List<E> load(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) throws SQLException {
+    long start = System.nanoTime();
+    List<E> list = delegate.<E> query(ms, parameterObject, rowBounds, null, key, boundSql);
+    CacheStatistics statistics = ms.getConfiguration().getCacheStatistics(ms.getCache().getId());
+    if (statistics != null) {
+      statistics.recordLoad(System.nanoTime() - start);
+    }
+    return list;
+  }
+
+  //读缓存：cacheTtl过了的不算；refreshAfter过了的还是返回，同时在后台刷新
+  private Object getCachedValue(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+    Object cached = ExpiringCache.unwrap(tcm.getObject(ms.getCache(), key));
+    CacheRefresher refresher = ms.getConfiguration().getCacheRefresher();
+    if (refresher.isStale(ms, cached)) {
+      refresher.refresh(ms, parameterObject, rowBounds, key, boundSql);
+    }
+    return CacheRefresher.unwrap(cached);
+  }
+
+  //语句声明了refreshAfter的话带上查询的时间；声明了cacheTtl的话带上存活时间，ExpiringCache按它让这一项过期(自定义缓存读的时候再判断)
+  private Object toCachedValue(MappedStatement ms, Object value) {
+    value = CacheRefresher.wrap(ms, value);
+    return ms.getCacheTtl() == null ? value : ExpiringCache.withTtl(value, ms.getCacheTtl());
+  }
+
+  //按主键列表查：实体缓存里有的行直接用，只查没有的主键(把参数里的主键列表换成没有的那些)，再按请求的顺序合并
+  //不能这样查的时候返回null；查出来的总是按请求的主键顺序
+  @SuppressWarnings("unchecked")
+  private <E> List<E> queryByEntityIds(MappedStatement ms, Object parameterObject, CacheKey key, BoundSql boundSql)
+      throws SQLException {
+    EntityCache entities = ms.getConfiguration().getEntityCache();
+    ResultMap resultMap = entities.getEntityResultMap(ms);
+    Object idsParameter = getEntityIdsParameter(ms, parameterObject);
+    Collection<?> ids = toCollection(idsParameter);
+    if (resultMap == null || ids == null || ids.isEmpty()) {
+      return null;
+    }
+    String[] tables = getEntityTables(ms, boundSql);
+    //本事务写过，实体缓存里的是写之前的行，全部查，也不放进去
+    boolean pending = isPending(tables);
+    //主键(统一类型后)按请求的顺序，去掉重复的
+    Set<Object> requested = new LinkedHashSet<Object>();
+    Map<Object, Object> rows = new HashMap<Object, Object>();
+    List<Object> missing = new ArrayList<Object>();
+    for (Object id : ids) {
+      if (id != null && requested.add(EntityCache.normalizeId(id))) {
+        Object row = pending ? null : entities.getEntity(resultMap, id);
+        if (row == null) {
+          missing.add(id);
+        } else {
+          rows.put(EntityCache.normalizeId(id), row);
+        }
+      }
+    }
+    List<Object> unidentified = new ArrayList<Object>();
+    if (!missing.isEmpty()) {
+      Object parameter = parameterObject;
+      BoundSql sql = boundSql;
+      CacheKey sqlKey = key;
+      if (missing.size() < ids.size()) {
+        parameter = replaceEntityIds((Map<Object, Object>) parameterObject, idsParameter, missing);
+        sql = ms.getBoundSql(parameter);
+        sqlKey = createCacheKey(ms, parameter, RowBounds.DEFAULT, sql);
+      }
+      long stamp = ms.getConfiguration().getTableInvalidations().stamp();
+      List<Object> fetched = delegate.<Object> query(ms, parameter, RowBounds.DEFAULT, null, sqlKey, sql);
+      for (Object row : fetched) {
+        Object id = row == null ? null : entities.getId(resultMap, row);
+        if (id == null) {
+          unidentified.add(row);
+        } else {
+          rows.put(id, row);
+          if (!pending) {
+            entities.putEntity(ms, resultMap, row, tables, stamp, tcm);
+          }
+        }
+      }
+    }
+    List<E> list = new ArrayList<E>(rows.size() + unidentified.size());
+    for (Object id : requested) {
+      Object row = rows.get(id);
+      if (row != null) {
+        list.add((E) row);
+      }
+    }
+    for (Object row : unidentified) {
+      list.add((E) row);
+    }
+    return list;
+  }
+
+  private Object getEntityIdsParameter(MappedStatement ms, Object parameterObject) {
+    if (parameterObject instanceof Map) {
+      Map<?, ?> parameterMap = (Map<?, ?>) parameterObject;
+      //StrictMap取不存在的键会抛异常
+      if (parameterMap.containsKey(ms.getEntityIds())) {
+        return parameterMap.get(ms.getEntityIds());
+      }
+    }
+    return null;
+  }
+
+  private Collection<?> toCollection(Object ids) {
+    if (ids instanceof Collection) {
+      return (Collection<?>) ids;
+    } else if (ids instanceof Object[]) {
+      return Arrays.asList((Object[]) ids);
+    }
+    return null;
+  }
+
+  //单个集合参数会同时放在collection和list(或array)下，都换掉
+  private Object replaceEntityIds(Map<Object, Object> parameterObject, Object ids, List<Object> missing) {
+    Map<Object, Object> parameter = new HashMap<Object, Object>(parameterObject);
+    for (Map.Entry<Object, Object> entry : parameter.entrySet()) {
+      if (entry.getValue() == ids) {
+        entry.setValue(missing);
+      }
+    }
+    return parameter;
+  }
+
+  //实体缓存里的行读过的表：cacheInvalidation=TABLE时是语句读的表，另外namespace里的增删改都让它失效
+  //用的是这些表对应的实体伪表，按主键让实体失效的写不会让别的行失效
+  private String[] getEntityTables(MappedStatement ms, BoundSql boundSql) {
+    String namespaceTable = TableInvalidations.entityTable(TableInvalidations.namespaceTable(ms.getCache()));
+    if (ms.getConfiguration().getCacheInvalidation() == CacheInvalidation.TABLE) {
+      String[] tables = ms.getConfiguration().getTableInvalidations().getReadTables(ms, boundSql);
+      if (tables != null) {
+        String[] entityTables = new String[tables.length + 1];
+        for (int i = 0; i < tables.length; i++) {
+          entityTables[i] = TableInvalidations.entityTable(tables[i]);
+        }
+        entityTables[tables.length] = namespaceTable;
+        return entityTables;
+      }
+    }
+    return new String[] { namespaceTable };
+  }
+
+  private boolean isDefault(RowBounds rowBounds) {
+    return rowBounds.getOffset() == RowBounds.NO_ROW_OFFSET && rowBounds.getLimit() == RowBounds.NO_ROW_LIMIT;
+  }
+
+  //本事务写过这些表(还没提交)，缓存里的是写之前的结果
+  private boolean isPending(String[] tables) {
+    if (!pendingTables.isEmpty()) {
+      for (String table : tables) {
+        if (pendingTables.contains(table)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  //改和删的参数是实体的话，只让这个实体失效；返回是否按主键让实体失效了
+  private boolean evictEntities(MappedStatement ms, Object parameterObject) {
+    if (ms.getConfiguration().isEntityCacheEnabled() && ms.getSqlCommandType() != SqlCommandType.INSERT) {
+      entityCache = ms.getConfiguration().getEntityCache();
+      List<Object> evicted = entityCache.evict(parameterObject);
+      pendingEntities.addAll(evicted);
+      return !evicted.isEmpty();
+    }
+    return false;
+  }
+
+  private void removePendingEntities() {
+    if (!pendingEntities.isEmpty()) {
+      entityCache.remove(pendingEntities);
+      if (invalidationBus != null) {
+        for (Object key : pendingEntities) {
+          invalidationBus.publish(Invalidation.key(entityCache.getCache().getId(), key));
+        }
+      }
+      pendingEntities.clear();
+    }
+  }
+
+  private void invalidatePendingTables() {
+    if (!pendingTables.isEmpty()) {
+      tableInvalidations.invalidate(pendingTables);
+      if (invalidationBus != null) {
+        for (String table : pendingTables) {
+          invalidationBus.publish(Invalidation.table(table));
+        }
+      }
+      pendingTables.clear();
+    }
+  }
+
   @Override
   public List<BatchResult> flushStatements() throws SQLException {
     return delegate.flushStatements();
@@ -118,6 +407,8 @@ public class CachingExecutor implements Executor {
   @Override
   public void commit(boolean required) throws SQLException {
     delegate.commit(required);
+    invalidatePendingTables();
+    removePendingEntities();
     tcm.commit();
   }
 
@@ -127,6 +418,8 @@ public class CachingExecutor implements Executor {
       delegate.rollback(required);
     } finally {
       if (required) {
+        pendingTables.clear();
+        pendingEntities.clear();
         tcm.rollback();
       }
     }
@@ -162,6 +455,37 @@ public class CachingExecutor implements Executor {
     delegate.clearLocalCache();
   }
 
+  //cacheInvalidation=TABLE时，知道写哪些表的增删改只让读过这些表的结果失效，否则清空整个缓存
+  //entityCacheEnabled=true时，namespace里的增删改还让这个namespace查出来的实体失效，除非已经按主键让实体失效了
+  private void flushCacheIfRequired(MappedStatement ms, Object parameterObject, boolean entitiesEvicted) {
+    Configuration configuration = ms.getConfiguration();
+    if (ms.isFlushCacheRequired()
+        && (configuration.getCacheInvalidation() == CacheInvalidation.TABLE || configuration.isEntityCacheEnabled())) {
+      tableInvalidations = configuration.getTableInvalidations();
+      boolean invalidateEntities = configuration.isEntityCacheEnabled() && !entitiesEvicted;
+      if (ms.getCache() != null) {
+        addPendingTable(TableInvalidations.namespaceTable(ms.getCache()), invalidateEntities);
+      }
+      if (configuration.getCacheInvalidation() == CacheInvalidation.TABLE) {
+        String[] tables = tableInvalidations.getWrittenTables(ms, parameterObject);
+        if (tables != null) {
+          for (String table : tables) {
+            addPendingTable(table, invalidateEntities);
+          }
+          return;
+        }
+      }
+    }
+    flushCacheIfRequired(ms);
+  }
+
+  private void addPendingTable(String table, boolean invalidateEntities) {
+    pendingTables.add(table);
+    if (invalidateEntities) {
+      pendingTables.add(TableInvalidations.entityTable(table));
+    }
+  }
+
   private void flushCacheIfRequired(MappedStatement ms) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {      
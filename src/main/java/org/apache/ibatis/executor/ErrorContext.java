@@ -84,6 +84,11 @@ public class ErrorContext {
     return this;
   }
 
+  //取得当前正在处理的对象(通常是MappedStatement的id)
+  public String getObject() {
+    return object;
+  }
+
   public ErrorContext message(String message) {
     this.message = message;
     return this;
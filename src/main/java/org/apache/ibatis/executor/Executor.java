@@ -41,7 +41,7 @@ public interface Executor {
   //更新
   int update(MappedStatement ms, Object parameter) throws SQLException;
 
-  //查询，带分页，带缓存，BoundSql
+  //查询，带分页，带缓存，BoundSql；cacheKey为null时缓存用得上才创建
   <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey cacheKey, BoundSql boundSql) throws SQLException;
 
   //查询，带分页
@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.ibatis.cache.CacheCodec;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.codec.CopyCodec;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.CoalesceMode;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Single flight execution of selects with coalesce=SHARE or COPY, across sessions.
+ *
+ * When a select is executed while an identical one (same {@link CacheKey}: statement, SQL,
+ * parameters, row bounds and environment) is running in another session, it waits for that
+ * one and returns its results instead of querying the database. With SHARE, all of them
+ * return the same objects; with COPY, each waiting session gets its own deep copy. If the
+ * running select fails, or its results cannot be copied, the waiting ones execute the select
+ * themselves.
+ */
+/**
+ * 合并同时执行的相同查询
+ * 同一个CacheKey的查询正在别的会话里执行的话，等它执行完拿它的结果，不再查数据库
+ */
+public class QueryCoalescer {
+
+  private static final Log log = LogFactory.getLog(QueryCoalescer.class);
+
+  //正在执行的查询
+  private final ConcurrentMap<CacheKey, Flight> flights = new ConcurrentHashMap<CacheKey, Flight>();
+  private final CacheCodec copier = new CopyCodec();
+
+  /*
+   * Executes a select of the database
+   */
+  public interface Query<E> {
+    List<E> execute() throws SQLException;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <E> List<E> query(MappedStatement ms, CacheKey key, Query<E> query) throws SQLException {
+    Flight flight = new Flight();
+    Flight current = flights.putIfAbsent(key, flight);
+    if (current == null) {
+      return lead(ms, key, flight, query);
+    }
+    try {
+      current.done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return query.execute();
+    }
+    Object result = current.result;
+    if (result == null) {
+      return query.execute();
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Coalesced " + ms.getId() + " with a running identical select");
+    }
+    return (List<E>) (ms.getCoalesce() == CoalesceMode.COPY ? copier.decode(result) : result);
+  }
+
+  //自己查，查完把结果(或者结果的拷贝)给等着的线程
+  private <E> List<E> lead(MappedStatement ms, CacheKey key, Flight flight, Query<E> query) throws SQLException {
+    try {
+      List<E> list = query.execute();
+      //拷贝要在返回之前做，返回以后调用者可能会改
+      flight.result = ms.getCoalesce() == CoalesceMode.COPY ? copy(ms, list) : list;
+      return list;
+    } finally {
+      flights.remove(key, flight);
+      flight.done.countDown();
+    }
+  }
+
+  private Object copy(MappedStatement ms, Object list) {
+    try {
+      return copier.encode(list);
+    } catch (RuntimeException e) {
+      //拷贝不了就让等着的线程自己查
+      log.debug("Could not copy the results of " + ms.getId() + " for coalesced selects.  Cause: " + e);
+      return null;
+    }
+  }
+
+  private static class Flight {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Object result;
+  }
+
+}
@@ -22,13 +22,22 @@ import java.util.Map;
 import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.MappingFingerprint;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CompressedCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
-import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.codec.JavaSerializationCodec;
+import org.apache.ibatis.cache.impl.ConcurrentLruCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
@@ -49,6 +58,14 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  //读写缓存复制值的方式
+  private Class<? extends CacheCodec> codec;
+  //读写缓存序列化以后的大值压缩存放
+  private boolean compression;
+  //命中，淘汰等统计
+  private CacheStatistics statistics;
+  //持久化的缓存校验用的映射摘要
+  private MappingFingerprint mappingFingerprint;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -86,7 +103,27 @@ public class CacheBuilder {
     this.blocking = blocking;
     return this;
   }
+
+  public CacheBuilder codec(Class<? extends CacheCodec> codec) {
+    this.codec = codec;
+    return this;
+  }
   
+  public CacheBuilder compression(boolean compression) {
+    this.compression = compression;
+    return this;
+  }
+
+  public CacheBuilder statistics(CacheStatistics statistics) {
+    this.statistics = statistics;
+    return this;
+  }
+
+  public CacheBuilder mappingFingerprint(MappingFingerprint mappingFingerprint) {
+    this.mappingFingerprint = mappingFingerprint;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -94,27 +131,63 @@ public class CacheBuilder {
 
   public Cache build() {
     setDefaultImplementations();
+    if (statistics == null) {
+      statistics = new CacheStatistics(id);
+    }
     //先new一个base的cache(PerpetualCache)
     Cache cache = newBaseCacheInstance(implementation, id);
     //设额外属性
     setCacheProperties(cache);
+    setStatistics(cache);
+    setMappingFingerprint(cache);
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
+      //读写缓存里存的是序列化以后的字节，按行数称重的话要称序列化以前的结果，所以WeightedCache放到SerializedCache外面
+      List<Class<? extends Cache>> serializedDecorators = new ArrayList<Class<? extends Cache>>();
       for (Class<? extends Cache> decorator : decorators) {
+        if (readWrite && WeightedCache.class.isAssignableFrom(decorator)) {
+          serializedDecorators.add(decorator);
+          continue;
+        }
           //装饰者模式一个个包装cache
         cache = newCacheDecoratorInstance(decorator, cache);
         //又要来一遍设额外属性
         setCacheProperties(cache);
+        setStatistics(cache);
       }
       //最后附加上标准的装饰者
-      cache = setStandardDecorators(cache);
+      cache = setStandardDecorators(cache, true, true, serializedDecorators);
+    } else if (ConcurrentLruCache.class.equals(cache.getClass())) {
+      //自己做LRU而且线程安全，不要eviction装饰者(会加回全局锁)和SynchronizedCache
+      cache = setStandardDecorators(cache, false, true, new ArrayList<Class<? extends Cache>>());
+    } else if (OffHeapCache.class.equals(cache.getClass()) || MappedFileCache.class.equals(cache.getClass())) {
+      //堆外缓存和文件缓存每次都反序列化出新的对象，也是线程安全的，不要SerializedCache和SynchronizedCache
+      cache = setStandardDecorators(cache, false, false, new ArrayList<Class<? extends Cache>>());
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
         //如果是custom缓存，且不是日志，要加日志
-      cache = new LoggingCache(cache);
+      cache = new LoggingCache(cache, statistics);
     }
+    //统计的条数问最外层
+    statistics.setCache(cache);
     return cache;
   }
 
+  //能淘汰记录的缓存(有statistics属性)记下淘汰的条数
+  private void setStatistics(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (metaCache.hasSetter("statistics")) {
+      metaCache.setValue("statistics", statistics);
+    }
+  }
+
+  //重启后还在的缓存(有mappingFingerprint属性)，映射改了以后不用以前存的结果
+  private void setMappingFingerprint(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (mappingFingerprint != null && metaCache.hasSetter("mappingFingerprint")) {
+      metaCache.setValue("mappingFingerprint", mappingFingerprint);
+    }
+  }
+
   private void setDefaultImplementations() {
       //又是一重保险，如果为null则设默认值,和XMLMapperBuilder.cacheElement以及MapperBuilderAssistant.useNewCache逻辑重复了
     if (implementation == null) {
@@ -126,27 +199,47 @@ public class CacheBuilder {
   }
 
   //最后附加上标准的装饰者
-  private Cache setStandardDecorators(Cache cache) {
+  //serializedDecorators包在SerializedCache外面，看到的是没序列化的值
+  private Cache setStandardDecorators(Cache cache, boolean synchronize, boolean serialize,
+      List<Class<? extends Cache>> serializedDecorators) {
     try {
-      MetaObject metaCache = SystemMetaObject.forObject(cache);
-      if (size != null && metaCache.hasSetter("size")) {
-        metaCache.setValue("size", size);
+      setSize(cache);
+      if (readWrite && serialize) {
+        if (compression) {
+          //压缩的是序列化以后的字节，所以在SerializedCache里面
+          cache = new CompressedCache(cache);
+          //compressionThreshold，compressionLevel这些属性
+          setCacheProperties(cache);
+          setStatistics(cache);
+        }
+          //如果readOnly=false,可读写的缓存 会返回缓存对象的拷贝(通过序列化) 。这会慢一些,但是安全,因此默认是 false。
+        cache = new SerializedCache(cache, newCodecInstance());
       }
-      if (clearInterval != null) {
-        //刷新缓存间隔,怎么刷新呢，用ScheduledCache来刷，还是装饰者模式，漂亮！
-        cache = new ScheduledCache(cache);
-        ((ScheduledCache) cache).setClearInterval(clearInterval);
+      for (Class<? extends Cache> decorator : serializedDecorators) {
+        cache = newCacheDecoratorInstance(decorator, cache);
+        setCacheProperties(cache);
+        setStatistics(cache);
+        setSize(cache);
       }
-      if (readWrite) {
-          //如果readOnly=false,可读写的缓存 会返回缓存对象的拷贝(通过序列化) 。这会慢一些,但是安全,因此默认是 false。
-        cache = new SerializedCache(cache);
+      if (!synchronize) {
+        //本身线程安全的缓存
+        cache = newExpiringCache(cache);
       }
-      //日志缓存
-      cache = new LoggingCache(cache);
+      //日志缓存，也记命中等统计
+      cache = new LoggingCache(cache, statistics);
       //同步缓存, 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
-      cache = new SynchronizedCache(cache);
+      if (synchronize) {
+        cache = new SynchronizedCache(cache);
+        //要放在SynchronizedCache外面，后台线程删的时候也要同步
+        cache = newExpiringCache(cache);
+      }
       if (blocking) {
-        cache = new BlockingCache(cache);
+        BlockingCache blockingCache = new BlockingCache(cache);
+        //只读缓存的值本来就是共享的，等的线程直接拿查的线程放进来的值
+        blockingCache.setShareValues(!readWrite);
+        //timeout，leaseTime这些属性
+        setCacheProperties(blockingCache);
+        cache = blockingCache;
       }
       return cache;
     } catch (Exception e) {
@@ -154,6 +247,43 @@ public class CacheBuilder {
     }
   }
 
+  private void setSize(Cache cache) {
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    if (size != null && metaCache.hasSetter("size")) {
+      metaCache.setValue("size", size);
+    }
+  }
+
+  //刷新缓存间隔，每一项放进去这么久以后过期(不再整个缓存一起清空)，语句的cacheTtl也在后台过期
+  //没有刷新间隔就不装饰，语句的cacheTtl存在值里面，读的时候过期(ExpiringCache.unwrap)
+  private Cache newExpiringCache(Cache cache) {
+    if (clearInterval == null) {
+      return cache;
+    }
+    ExpiringCache expiringCache = new ExpiringCache(cache);
+    expiringCache.setTtl(clearInterval);
+    expiringCache.setStatistics(statistics);
+    return expiringCache;
+  }
+
+  private CacheCodec newCodecInstance() {
+    return newCodec(codec);
+  }
+
+  /*
+   * @param codec the codec class, or null for Java serialization
+   */
+  public static CacheCodec newCodec(Class<? extends CacheCodec> codec) {
+    if (codec == null) {
+      return new JavaSerializationCodec();
+    }
+    try {
+      return codec.newInstance();
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache codec (" + codec + "). Cause: " + e, e);
+    }
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
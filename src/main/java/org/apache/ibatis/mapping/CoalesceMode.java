@@ -0,0 +1,27 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ * Whether concurrent identical executions of a select share one database round trip (coalesce attribute).
+ */
+/**
+ * 相同的查询同时执行时是否合并成一次
+ * NONE：不合并(默认)；SHARE：等着的线程拿到同一个结果对象；COPY：等着的线程各拿一份深拷贝
+ */
+public enum CoalesceMode {
+  NONE, SHARE, COPY
+}
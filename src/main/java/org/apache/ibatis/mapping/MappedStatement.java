@@ -20,6 +20,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.TableInvalidations;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -61,6 +62,18 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  //使用的连接池分区
+  private String poolPartition;
+  //语句读写的表(小写)，没声明就是null
+  private String[] tables;
+  //装主键列表的参数名(实体缓存按主键部分命中用)
+  private String entityIds;
+  //结果在二级缓存里的存活时间(毫秒)，null表示用缓存的flushInterval
+  private Long cacheTtl;
+  //结果在二级缓存里超过这么多毫秒就在后台刷新，null表示不刷新
+  private Long refreshAfter;
+  //相同的查询同时执行时是否合并成一次
+  private CoalesceMode coalesce = CoalesceMode.NONE;
 
   MappedStatement() {
     // constructor disabled
@@ -179,6 +192,44 @@ public final class MappedStatement {
       mappedStatement.resultSets = delimitedStringtoArray(resultSet);
       return this;
     }
+
+    public Builder poolPartition(String poolPartition) {
+      mappedStatement.poolPartition = poolPartition;
+      return this;
+    }
+
+    public Builder tables(String tables) {
+      String[] names = delimitedStringtoArray(tables);
+      if (names != null) {
+        for (int i = 0; i < names.length; i++) {
+          names[i] = TableInvalidations.tableName(names[i]);
+        }
+      }
+      mappedStatement.tables = names;
+      return this;
+    }
+
+    public Builder entityIds(String entityIds) {
+      mappedStatement.entityIds = entityIds;
+      return this;
+    }
+
+    public Builder cacheTtl(Long cacheTtl) {
+      mappedStatement.cacheTtl = cacheTtl;
+      return this;
+    }
+
+    public Builder refreshAfter(Long refreshAfter) {
+      mappedStatement.refreshAfter = refreshAfter;
+      return this;
+    }
+
+    public Builder coalesce(CoalesceMode coalesce) {
+      if (coalesce != null) {
+        mappedStatement.coalesce = coalesce;
+      }
+      return this;
+    }
     
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
@@ -281,6 +332,45 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  public String getPoolPartition() {
+    return poolPartition;
+  }
+
+  /*
+   * @return the tables declared as read (select) or written (insert, update, delete) by this statement, in lower case, or null
+   */
+  public String[] getTables() {
+    return tables;
+  }
+
+  /*
+   * @return the name of the parameter holding the ids this select looks up, or null
+   */
+  public String getEntityIds() {
+    return entityIds;
+  }
+
+  /*
+   * @return the milliseconds the results of this select stay in the second level cache, or null to use the flushInterval of the cache
+   */
+  public Long getCacheTtl() {
+    return cacheTtl;
+  }
+
+  /*
+   * @return the age in milliseconds after which the cached results of this select are refreshed in the background, or null
+   */
+  public Long getRefreshAfter() {
+    return refreshAfter;
+  }
+
+  /*
+   * @return whether concurrent identical executions of this select share one database round trip, NONE by default
+   */
+  public CoalesceMode getCoalesce() {
+    return coalesce;
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
 	//其实就是调用sqlSource.getBoundSql
@@ -0,0 +1,28 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * How the second level cache is invalidated by statements with flushCache=true.
+ */
+/**
+ * 二级缓存的失效方式
+ * 默认值为 NAMESPACE，增删改会清空整个namespace的缓存。
+ * 若设置值为 TABLE，增删改只让读过同样表的查询结果失效(表从语句的tables属性或者SQL里得到)。
+ */
+public enum CacheInvalidation {
+  NAMESPACE, TABLE
+}
@@ -0,0 +1,250 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * Loads the second level cache before the application serves requests (&lt;cacheWarmup&gt; element).
+ *
+ * Each registered select is executed once with its parameter, on a pool of at most
+ * {@link #setThreads(int)} threads, and its session is committed so that the results are cached.
+ * This also prepares the JDBC statements and builds the reflection metadata and type handler
+ * lookups the selects need. The registered selects are run when the SqlSessionFactory is built,
+ * and again each time {@link #run(SqlSessionFactory)} is called. A select that fails is logged
+ * and does not stop the others.
+ */
+/**
+ * 缓存预热
+ * 启动时(或者需要的时候)用有限的线程池把登记的查询执行一遍并提交，结果进入二级缓存；顺便预热JDBC语句，反射和类型处理器
+ */
+public class CacheWarmup {
+
+  private static final Log log = LogFactory.getLog(CacheWarmup.class);
+
+  private final List<Query> queries = new ArrayList<Query>();
+  private int threads = 4;
+
+  /*
+   * Sets the maximum number of selects executed at the same time, 4 by default.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /*
+   * Registers a select to execute. A String parameter is converted to the parameterType of the
+   * statement if it is a number or a boolean, so that the cache key matches the one of the application.
+   */
+  public synchronized void addStatement(String statement, Object parameter) {
+    addStatement(statement, parameter, null);
+  }
+
+  /*
+   * @param javaType the type to convert a String parameter to, instead of the parameterType of the statement
+   */
+  public synchronized void addStatement(String statement, Object parameter, Class<?> javaType) {
+    queries.add(new Query(statement, parameter, javaType));
+  }
+
+  public synchronized boolean isEmpty() {
+    return queries.isEmpty();
+  }
+
+  /*
+   * Executes the registered selects and waits until they are done.
+   */
+  public Result run(final SqlSessionFactory sqlSessionFactory) {
+    final List<Query> toRun;
+    synchronized (this) {
+      toRun = new ArrayList<Query>(queries);
+    }
+    long start = System.currentTimeMillis();
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    if (!toRun.isEmpty()) {
+      ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, toRun.size())), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mybatis-cache-warmup");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      for (final Query query : toRun) {
+        executorService.execute(new Runnable() {
+          @Override
+          public void run() {
+            long queryStart = System.currentTimeMillis();
+            try {
+              warm(sqlSessionFactory, query);
+            } catch (Exception e) {
+              failures.incrementAndGet();
+              log.warn("Error warming up the cache with " + query.statement + ".  Cause: " + e);
+            }
+            int count = done.incrementAndGet();
+            if (log.isDebugEnabled()) {
+              log.debug("Warmed up " + query.statement + " (" + count + " of " + toRun.size() + ") in "
+                  + (System.currentTimeMillis() - queryStart) + " ms");
+            }
+          }
+        });
+      }
+      executorService.shutdown();
+      try {
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        //不等了，剩下的在后台继续
+        Thread.currentThread().interrupt();
+      }
+    }
+    Result result = new Result(done.get(), failures.get(), System.currentTimeMillis() - start);
+    if (log.isDebugEnabled()) {
+      log.debug(result.toString());
+    }
+    return result;
+  }
+
+  private void warm(SqlSessionFactory sqlSessionFactory, Query query) {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    MappedStatement ms = configuration.getMappedStatement(query.statement);
+    //结果和参数类型的反射信息先建好
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      Reflector.forClass(resultMap.getType());
+    }
+    Class<?> parameterType = query.javaType != null ? query.javaType : ms.getParameterMap().getType();
+    if (query.parameter instanceof String && parameterType == null) {
+      //不知道类型，只能按字符串查，应用用别的类型查的话缓存键对不上
+      log.warn("The warmup parameter of " + query.statement + " is used as a String since the statement has no parameterType."
+          + "  Set the javaType of the parameter if the application passes another type.");
+    }
+    Object parameter = convert(query.parameter, parameterType);
+    if (parameter != null && !configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+      Reflector.forClass(parameter.getClass());
+    }
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.selectList(query.statement, parameter);
+      //提交了结果才进二级缓存
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  /*
+   * Converts a String to a number, a boolean or a character of the type; other values and types are returned as they are.
+   */
+  //配置里写的参数都是字符串，转成语句的参数类型，不然缓存键和应用查询的对不上
+  public static Object convert(Object parameter, Class<?> type) {
+    if (!(parameter instanceof String) || type == null) {
+      return parameter;
+    }
+    String value = (String) parameter;
+    if (type == Integer.class || type == int.class) {
+      return Integer.valueOf(value);
+    } else if (type == Long.class || type == long.class) {
+      return Long.valueOf(value);
+    } else if (type == Short.class || type == short.class) {
+      return Short.valueOf(value);
+    } else if (type == Byte.class || type == byte.class) {
+      return Byte.valueOf(value);
+    } else if (type == Double.class || type == double.class) {
+      return Double.valueOf(value);
+    } else if (type == Float.class || type == float.class) {
+      return Float.valueOf(value);
+    } else if (type == Boolean.class || type == boolean.class) {
+      return Boolean.valueOf(value);
+    } else if ((type == Character.class || type == char.class) && value.length() == 1) {
+      return Character.valueOf(value.charAt(0));
+    } else if (type == BigDecimal.class) {
+      return new BigDecimal(value);
+    } else if (type == BigInteger.class) {
+      return new BigInteger(value);
+    }
+    return parameter;
+  }
+
+  private static class Query {
+    private final String statement;
+    private final Object parameter;
+    private final Class<?> javaType;
+
+    Query(String statement, Object parameter, Class<?> javaType) {
+      this.statement = statement;
+      this.parameter = parameter;
+      this.javaType = javaType;
+    }
+  }
+
+  /**
+   * The outcome of a warmup.
+   */
+  public static class Result {
+
+    private final int statements;
+    private final int failures;
+    private final long elapsedTime;
+
+    Result(int statements, int failures, long elapsedTime) {
+      this.statements = statements;
+      this.failures = failures;
+      this.elapsedTime = elapsedTime;
+    }
+
+    /*
+     * @return the number of selects executed, including the failed ones
+     */
+    public int getStatements() {
+      return statements;
+    }
+
+    public int getFailures() {
+      return failures;
+    }
+
+    /*
+     * @return the time the whole warmup took, in milliseconds
+     */
+    public long getElapsedTime() {
+      return elapsedTime;
+    }
+
+    @Override
+    public String toString() {
+      return "Cache warmup: " + statements + " selects (" + failures + " failed) in " + elapsedTime + " ms";
+    }
+  }
+
+}
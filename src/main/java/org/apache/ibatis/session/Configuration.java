@@ -31,17 +31,33 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.cache.EntityCache;
+import org.apache.ibatis.cache.TableInvalidations;
+import org.apache.ibatis.cache.codec.BinaryCodec;
+import org.apache.ibatis.cache.codec.CopyCodec;
+import org.apache.ibatis.cache.codec.JavaSerializationCodec;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
+import org.apache.ibatis.cache.invalidation.LoopbackTransport;
+import org.apache.ibatis.cache.invalidation.SocketTransport;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.ConcurrentLruCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.CacheRefresher;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.QueryCoalescer;
 import org.apache.ibatis.executor.ReuseExecutor;
 import org.apache.ibatis.executor.SimpleExecutor;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -114,6 +130,16 @@ public class Configuration {
   protected String logPrefix;
   protected Class <? extends Log> logImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  //本地缓存的条数和估算字节数上限，null表示不限
+  protected Integer localCacheSize;
+  protected Long localCacheMaxBytes;
+  protected LocalCacheEviction localCacheEviction = LocalCacheEviction.LRU;
+  //二级缓存按namespace还是按表失效
+  protected CacheInvalidation cacheInvalidation = CacheInvalidation.NAMESPACE;
+  //二级缓存按主键缓存实体，查询缓存只存主键列表
+  protected boolean entityCacheEnabled = false;
+  //失效总线攒多少毫秒发一次
+  protected long invalidationBatchInterval = 20;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
@@ -126,6 +152,18 @@ public class Configuration {
   //对象工厂和对象包装器工厂
   protected ObjectFactory objectFactory = new DefaultObjectFactory();
   protected ObjectWrapperFactory objectWrapperFactory = new DefaultObjectWrapperFactory();
+  //每张表最后一次被写的时间，cacheInvalidation=TABLE时用
+  protected final TableInvalidations tableInvalidations = new TableInvalidations();
+  //按主键缓存的实体，entityCacheEnabled=true时用
+  protected final EntityCache entityCache = new EntityCache(this);
+  //二级缓存的提前刷新(语句的refreshAfter)
+  protected final CacheRefresher cacheRefresher = new CacheRefresher(this);
+  //合并各会话同时执行的相同查询(语句的coalesce)
+  protected final QueryCoalescer queryCoalescer = new QueryCoalescer();
+  //启动时预热二级缓存的查询(<cacheWarmup>)
+  protected final CacheWarmup cacheWarmup = new CacheWarmup();
+  //把提交的失效发给其他节点，配置了<invalidationTransport>才有
+  protected InvalidationBus invalidationBus;
   //映射注册机
   protected MapperRegistry mapperRegistry = new MapperRegistry(this);
 
@@ -153,6 +191,10 @@ public class Configuration {
   protected final Map<String, MappedStatement> mappedStatements = new StrictMap<MappedStatement>("Mapped Statements collection");
   //缓存,存在Map里
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  //二级缓存的统计，和caches的键一样
+  protected final Map<String, CacheStatistics> cacheStatistics = new StrictMap<CacheStatistics>("Cache statistics collection");
+  //所有会话的本地缓存合在一起的统计
+  protected final CacheStatistics localCacheStatistics = new CacheStatistics("localCache");
   //结果映射,存在Map里
   protected final Map<String, ResultMap> resultMaps = new StrictMap<ResultMap>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<ParameterMap>("Parameter Maps collection");
@@ -189,10 +231,22 @@ public class Configuration {
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT_LRU", ConcurrentLruCache.class);
+    typeAliasRegistry.registerAlias("OFF_HEAP", OffHeapCache.class);
+    typeAliasRegistry.registerAlias("MAPPED_FILE", MappedFileCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("WEIGHTED", WeightedCache.class);
+
+    typeAliasRegistry.registerAlias("JAVA", JavaSerializationCodec.class);
+    typeAliasRegistry.registerAlias("BINARY", BinaryCodec.class);
+    typeAliasRegistry.registerAlias("COPY", CopyCodec.class);
+
+    typeAliasRegistry.registerAlias("LOOPBACK", LoopbackTransport.class);
+    typeAliasRegistry.registerAlias("SOCKET", SocketTransport.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -397,6 +451,90 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  public Integer getLocalCacheSize() {
+    return localCacheSize;
+  }
+
+  public void setLocalCacheSize(Integer localCacheSize) {
+    this.localCacheSize = localCacheSize;
+  }
+
+  public Long getLocalCacheMaxBytes() {
+    return localCacheMaxBytes;
+  }
+
+  public void setLocalCacheMaxBytes(Long localCacheMaxBytes) {
+    this.localCacheMaxBytes = localCacheMaxBytes;
+  }
+
+  public LocalCacheEviction getLocalCacheEviction() {
+    return localCacheEviction;
+  }
+
+  public void setLocalCacheEviction(LocalCacheEviction localCacheEviction) {
+    this.localCacheEviction = localCacheEviction;
+  }
+
+  public CacheInvalidation getCacheInvalidation() {
+    return cacheInvalidation;
+  }
+
+  public void setCacheInvalidation(CacheInvalidation cacheInvalidation) {
+    this.cacheInvalidation = cacheInvalidation;
+  }
+
+  public TableInvalidations getTableInvalidations() {
+    return tableInvalidations;
+  }
+
+  public boolean isEntityCacheEnabled() {
+    return entityCacheEnabled;
+  }
+
+  public void setEntityCacheEnabled(boolean entityCacheEnabled) {
+    this.entityCacheEnabled = entityCacheEnabled;
+  }
+
+  public void setEntityCacheSize(int entityCacheSize) {
+    entityCache.setSize(entityCacheSize);
+  }
+
+  public EntityCache getEntityCache() {
+    return entityCache;
+  }
+
+  public void setCacheRefreshThreads(int cacheRefreshThreads) {
+    cacheRefresher.setThreads(cacheRefreshThreads);
+  }
+
+  public CacheRefresher getCacheRefresher() {
+    return cacheRefresher;
+  }
+
+  public QueryCoalescer getQueryCoalescer() {
+    return queryCoalescer;
+  }
+
+  public CacheWarmup getCacheWarmup() {
+    return cacheWarmup;
+  }
+
+  public long getInvalidationBatchInterval() {
+    return invalidationBatchInterval;
+  }
+
+  public void setInvalidationBatchInterval(long invalidationBatchInterval) {
+    this.invalidationBatchInterval = invalidationBatchInterval;
+  }
+
+  public InvalidationBus getInvalidationBus() {
+    return invalidationBus;
+  }
+
+  public void setInvalidationBus(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -519,7 +657,7 @@ public class Configuration {
     }
     //如果要求缓存，生成另一种CachingExecutor(默认就是有缓存),装饰者模式,所以默认都是返回CachingExecutor
     if (cacheEnabled) {
-      executor = new CachingExecutor(executor);
+      executor = new CachingExecutor(executor, invalidationBus);
     }
     //此处调用插件,通过插件可以改变Executor行为
     executor = (Executor) interceptorChain.pluginAll(executor);
@@ -566,6 +704,28 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  public void addCacheStatistics(CacheStatistics statistics) {
+    cacheStatistics.put(statistics.getId(), statistics);
+  }
+
+  public Collection<CacheStatistics> getCacheStatistics() {
+    return cacheStatistics.values();
+  }
+
+  /*
+   * @return the statistics of the second level cache with the id of one of {@link #getCaches()}, or null
+   */
+  public CacheStatistics getCacheStatistics(String id) {
+    return cacheStatistics.containsKey(id) ? cacheStatistics.get(id) : null;
+  }
+
+  /*
+   * @return the statistics of the local caches of all sessions together
+   */
+  public CacheStatistics getLocalCacheStatistics() {
+    return localCacheStatistics;
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
@@ -0,0 +1,28 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * Which results leave a bounded local cache first (see localCacheSize and localCacheMaxBytes).
+ * LRU evicts the least recently used, FIFO the oldest.
+ */
+/**
+ * 本地缓存超过localCacheSize或localCacheMaxBytes时先淘汰哪些结果
+ * LRU：最久没用的，FIFO：最早放进去的
+ */
+public enum LocalCacheEviction {
+  LRU, FIFO
+}
@@ -104,7 +104,12 @@ public class SqlSessionFactoryBuilder {
     
   //最后一个build方法使用了一个Configuration作为参数,并返回DefaultSqlSessionFactory
   public SqlSessionFactory build(Configuration config) {
-    return new DefaultSqlSessionFactory(config);
+    SqlSessionFactory sqlSessionFactory = new DefaultSqlSessionFactory(config);
+    //登记了预热的查询的话，先把二级缓存装好
+    if (!config.getCacheWarmup().isEmpty()) {
+      config.getCacheWarmup().run(sqlSessionFactory);
+    }
+    return sqlSessionFactory;
   }
 
 }
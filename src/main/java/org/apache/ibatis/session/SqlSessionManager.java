@@ -27,6 +27,7 @@ import java.util.Properties;
 
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 
 /**
  * @author Larry Meadors
@@ -110,6 +111,10 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     this.localSqlSession.set(openSession(execType, connection));
   }
 
+  public void startManagedSession(String poolPartition) {
+    this.localSqlSession.set(openSession(poolPartition));
+  }
+
   public boolean isManagedSessionStarted() {
     return this.localSqlSession.get() != null;
   }
@@ -154,6 +159,18 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionFactory.openSession(execType, connection);
   }
 
+  /*
+   * @see DefaultSqlSessionFactory#openSession(String)
+   */
+  public SqlSession openSession(String poolPartition) {
+    //连接池分区不在SqlSessionFactory接口里，只有DefaultSqlSessionFactory支持
+    if (!(sqlSessionFactory instanceof DefaultSqlSessionFactory)) {
+      throw new SqlSessionException("Error:  Cannot open a session on a pool partition.  "
+          + sqlSessionFactory.getClass().getName() + " does not support pool partitions.");
+    }
+    return ((DefaultSqlSessionFactory) sqlSessionFactory).openSession(poolPartition);
+  }
+
   @Override
   public Configuration getConfiguration() {
     return sqlSessionFactory.getConfiguration();
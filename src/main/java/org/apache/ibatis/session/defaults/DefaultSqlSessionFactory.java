@@ -18,6 +18,11 @@ package org.apache.ibatis.session.defaults;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.pooled.PoolPartition;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
@@ -78,6 +83,15 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
     return openSessionFromDataSource(execType, null, autoCommit);
   }
 
+  /*
+   * Connections of this session come from the named partition of the environment's PooledDataSource.
+   * This overrides the poolPartition of the mapped statements executed by the session.
+   * Not part of {@link SqlSessionFactory}, so that other implementations do not have to provide it.
+   */
+  public SqlSession openSession(String poolPartition) {
+    return openSessionFromDataSource(configuration.getDefaultExecutorType(), null, false, poolPartition);
+  }
+
   //以下2个方法都会调用openSessionFromConnection
   @Override
   public SqlSession openSession(Connection connection) {
@@ -95,12 +109,17 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
   }
 
   private SqlSession openSessionFromDataSource(ExecutorType execType, TransactionIsolationLevel level, boolean autoCommit) {
+    return openSessionFromDataSource(execType, level, autoCommit, null);
+  }
+
+  private SqlSession openSessionFromDataSource(ExecutorType execType, TransactionIsolationLevel level, boolean autoCommit, String poolPartition) {
     Transaction tx = null;
     try {
       final Environment environment = configuration.getEnvironment();
       final TransactionFactory transactionFactory = getTransactionFactoryFromEnvironment(environment);
+      final DataSource dataSource = getDataSource(environment, poolPartition);
       //通过事务工厂来产生一个事务
-      tx = transactionFactory.newTransaction(environment.getDataSource(), level, autoCommit);
+      tx = transactionFactory.newTransaction(dataSource, level, autoCommit);
       //生成一个执行器(事务包含在执行器里)
       final Executor executor = configuration.newExecutor(tx, execType);
       //然后产生一个DefaultSqlSession
@@ -115,6 +134,22 @@ public class DefaultSqlSessionFactory implements SqlSessionFactory {
     }
   }
 
+  //指定了连接池分区的话，用分区作为DataSource
+  private DataSource getDataSource(Environment environment, String poolPartition) {
+    DataSource dataSource = environment.getDataSource();
+    if (poolPartition == null) {
+      return dataSource;
+    }
+    if (!(dataSource instanceof PooledDataSource)) {
+      throw new DataSourceException("Pool partitions require a PooledDataSource, but the environment uses " + dataSource.getClass().getName() + ".");
+    }
+    PoolPartition partition = ((PooledDataSource) dataSource).getPartition(poolPartition);
+    if (partition == null) {
+      throw new DataSourceException("Unknown pool partition '" + poolPartition + "'.");
+    }
+    return partition;
+  }
+
   private SqlSession openSessionFromConnection(ExecutorType execType, Connection connection) {
     try {
       boolean autoCommit;
@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class BlockingCacheTest {
+
+  private final AtomicInteger reads = new AtomicInteger();
+
+  @Test
+  public void shouldGiveTheLoadedValueToWaitingThreads() throws Exception {
+    BlockingCache cache = newCache();
+    cache.setShareValues(true);
+    assertNull(cache.getObject("key"));
+    Future<Object> waiter = get(cache, "key");
+    Thread.sleep(100);
+    assertFalse(waiter.isDone());
+    Object value = new Object();
+    cache.putObject("key", value);
+    assertSame(value, waiter.get(1, TimeUnit.SECONDS));
+    // the miss, the check after it and the first read of the waiter
+    assertEquals(3, reads.get());
+  }
+
+  @Test
+  public void shouldReadTheCacheAgainWhenValuesAreNotShared() throws Exception {
+    BlockingCache cache = newCache();
+    assertNull(cache.getObject("key"));
+    Future<Object> waiter = get(cache, "key");
+    Thread.sleep(100);
+    cache.putObject("key", "value");
+    assertEquals("value", waiter.get(1, TimeUnit.SECONDS));
+    assertEquals(4, reads.get());
+  }
+
+  @Test
+  public void shouldLetAWaitingThreadLoadAReleasedKey() throws Exception {
+    BlockingCache cache = newCache();
+    assertNull(cache.getObject("key"));
+    Future<Object> waiter = get(cache, "key");
+    Thread.sleep(100);
+    cache.putObject("key", null);
+    assertNull(waiter.get(1, TimeUnit.SECONDS));
+    // the waiter is now loading the key
+    Future<Object> otherWaiter = get(cache, "key");
+    Thread.sleep(100);
+    assertFalse(otherWaiter.isDone());
+  }
+
+  @Test
+  public void shouldNotBlockHits() throws Exception {
+    BlockingCache cache = newCache();
+    cache.putObject("hit", "value");
+    assertNull(cache.getObject("miss"));
+    assertEquals("value", get(cache, "hit").get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldLoadAKeyWhoseLeaseHasExpired() throws Exception {
+    BlockingCache cache = newCache();
+    cache.setLeaseTime(100);
+    assertNull(cache.getObject("key"));
+    // never put: another thread loads it after the lease
+    assertNull(get(cache, "key").get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldTimeOut() throws Exception {
+    BlockingCache cache = newCache();
+    cache.setTimeout(100);
+    assertNull(cache.getObject("key"));
+    try {
+      get(cache, "key").get(1, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+    }
+  }
+
+  @Test
+  public void shouldReturnNullToTheLoadingThreadAgain() {
+    BlockingCache cache = newCache();
+    assertNull(cache.getObject("key"));
+    assertNull(cache.getObject("key"));
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+  }
+
+  private BlockingCache newCache() {
+    return new BlockingCache(new PerpetualCache("default") {
+      @Override
+      public Object getObject(Object key) {
+        reads.incrementAndGet();
+        return super.getObject(key);
+      }
+    });
+  }
+
+  // a new thread each time: a pooled thread could be the one that is loading the key
+  private Future<Object> get(final Cache cache, final Object key) {
+    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+      @Override
+      public Object call() {
+        return cache.getObject(key);
+      }
+    });
+    Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    thread.start();
+    return task;
+  }
+
+}
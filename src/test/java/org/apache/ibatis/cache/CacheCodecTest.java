@@ -0,0 +1,300 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.ibatis.cache.codec.BinaryCodec;
+import org.apache.ibatis.cache.codec.CopyCodec;
+import org.apache.ibatis.cache.codec.JavaSerializationCodec;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CacheCodecTest {
+
+  @Test
+  public void shouldCopyObjectGraphsWithTheBinaryCodec() {
+    assertCopiesObjectGraphs(new BinaryCodec());
+  }
+
+  @Test
+  public void shouldCopyObjectGraphsWithTheCopyCodec() {
+    assertCopiesObjectGraphs(new CopyCodec());
+  }
+
+  @Test
+  public void shouldWriteFewerBytesThanJavaSerialization() {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      authors.add(new Author(i, "user" + i, "password" + i, "user" + i + "@example.com", "bio", Section.NEWS));
+    }
+    byte[] binary = (byte[]) new BinaryCodec().encode(authors);
+    byte[] java = (byte[]) new JavaSerializationCodec().encode(authors);
+    assertTrue(binary.length < java.length);
+  }
+
+  @Test
+  public void shouldWriteCacheWrappersWithoutJavaSerialization() {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < 100; i++) {
+      authors.add(new Author(i, "user" + i, "password" + i, "user" + i + "@example.com", "bio", Section.NEWS));
+    }
+    TableInvalidations invalidations = new TableInvalidations();
+    Object stamped = invalidations.wrap(new String[] { "author" }, invalidations.stamp(), authors);
+    BinaryCodec binaryCodec = new BinaryCodec();
+    byte[] list = (byte[]) binaryCodec.encode(authors);
+    byte[] wrapped = (byte[]) binaryCodec.encode(stamped);
+    assertTrue(wrapped.length < list.length + 100);
+    assertEquals(authors, invalidations.unwrap(binaryCodec.decode(wrapped)));
+    CopyCodec copyCodec = new CopyCodec();
+    assertEquals(authors, invalidations.unwrap(copyCodec.decode(copyCodec.encode(stamped))));
+  }
+
+  @Test
+  public void shouldRejectNonSerializableObjects() {
+    for (CacheCodec codec : new CacheCodec[] { new JavaSerializationCodec(), new BinaryCodec(), new CopyCodec() }) {
+      try {
+        codec.encode(new Object());
+        fail("Expected a CacheException for " + codec);
+      } catch (CacheException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void shouldBuildReadWriteCachesWithTheConfiguredCodec() {
+    Cache cache = new CacheBuilder("default").readWrite(true).codec(BinaryCodec.class).build();
+    Author author = new Author(1, "user1", "password1", "user1@example.com", "bio", Section.NEWS);
+    cache.putObject(1, author);
+    Author cached = (Author) cache.getObject(1);
+    assertEquals(author, cached);
+    assertNotSame(author, cached);
+    assertNotSame(cached, cache.getObject(1));
+  }
+
+  @Test
+  public void shouldKeepNullValues() {
+    SerializedCache cache = new SerializedCache(new PerpetualCache("default"), new CopyCodec());
+    cache.putObject(1, null);
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldNotLoseFieldsWhoseGetterAndSetterTypesDiffer() {
+    Patient patient = new Patient();
+    patient.setName("Jane");
+    patient.setAge(42);
+    for (CacheCodec codec : new CacheCodec[] { new BinaryCodec(), new CopyCodec() }) {
+      Patient copy = (Patient) codec.decode(codec.encode(patient));
+      assertEquals("Jane", copy.getName());
+      assertEquals(Integer.valueOf(42), copy.getAge());
+    }
+  }
+
+  private void assertCopiesObjectGraphs(CacheCodec codec) {
+    Department department = new Department();
+    department.setName("Sales");
+    Timestamp created = new Timestamp(1000L);
+    created.setNanos(123456789);
+    department.setCreated(created);
+    department.setBudget(new BigDecimal("1234.56"));
+    department.setCodes(new int[] { 1, 2, 3 });
+    department.setId(UUID.randomUUID());
+    department.setCache("not copied");
+    Employee john = new Employee("John", Section.NEWS, department);
+    Employee jane = new Employee("Jane", null, department);
+    department.getEmployees().add(john);
+    department.getEmployees().add(jane);
+    department.getEmployees().add(john);
+    department.getRoles().put("manager", jane);
+
+    Department copy = (Department) codec.decode(codec.encode(department));
+    assertNotSame(department, copy);
+    assertEquals("Sales", copy.getName());
+    assertEquals(created, copy.getCreated());
+    assertNotSame(created, copy.getCreated());
+    assertEquals(new BigDecimal("1234.56"), copy.getBudget());
+    assertArrayEquals(new int[] { 1, 2, 3 }, copy.getCodes());
+    assertEquals(department.getId(), copy.getId());
+    assertNull(copy.getCache());
+    assertEquals(3, copy.getEmployees().size());
+    Employee johnCopy = copy.getEmployees().get(0);
+    assertEquals("John", johnCopy.getName());
+    assertEquals(Section.NEWS, johnCopy.getSection());
+    assertNull(copy.getEmployees().get(1).getSection());
+    // shared and cyclic references are kept
+    assertSame(johnCopy, copy.getEmployees().get(2));
+    assertSame(copy, johnCopy.getDepartment());
+    assertSame(copy.getEmployees().get(1), copy.getRoles().get("manager"));
+  }
+
+  public static class Department implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private Date created;
+    private BigDecimal budget;
+    private int[] codes;
+    private UUID id;
+    private transient String cache;
+    private List<Employee> employees = new ArrayList<Employee>();
+    private Map<String, Employee> roles = new LinkedHashMap<String, Employee>();
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Date getCreated() {
+      return created;
+    }
+
+    public void setCreated(Date created) {
+      this.created = created;
+    }
+
+    public BigDecimal getBudget() {
+      return budget;
+    }
+
+    public void setBudget(BigDecimal budget) {
+      this.budget = budget;
+    }
+
+    public int[] getCodes() {
+      return codes;
+    }
+
+    public void setCodes(int[] codes) {
+      this.codes = codes;
+    }
+
+    public UUID getId() {
+      return id;
+    }
+
+    public void setId(UUID id) {
+      this.id = id;
+    }
+
+    public String getCache() {
+      return cache;
+    }
+
+    public void setCache(String cache) {
+      this.cache = cache;
+    }
+
+    public List<Employee> getEmployees() {
+      return employees;
+    }
+
+    public void setEmployees(List<Employee> employees) {
+      this.employees = employees;
+    }
+
+    public Map<String, Employee> getRoles() {
+      return roles;
+    }
+
+    public void setRoles(Map<String, Employee> roles) {
+      this.roles = roles;
+    }
+  }
+
+  public static class Employee implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private Section section;
+    private Department department;
+
+    public Employee() {
+    }
+
+    public Employee(String name, Section section, Department department) {
+      this.name = name;
+      this.section = section;
+      this.department = department;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Section getSection() {
+      return section;
+    }
+
+    public void setSection(Section section) {
+      this.section = section;
+    }
+
+    public Department getDepartment() {
+      return department;
+    }
+
+    public void setDepartment(Department department) {
+      this.department = department;
+    }
+  }
+
+  public static class Patient implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private int age;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Integer getAge() {
+      return age;
+    }
+
+    public void setAge(int age) {
+      this.age = age;
+    }
+  }
+
+}
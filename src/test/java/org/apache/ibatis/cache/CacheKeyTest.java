@@ -18,7 +18,10 @@ package org.apache.ibatis.cache;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 public class CacheKeyTest {
 
@@ -80,4 +83,41 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldCompareLongKeys() throws Exception {
+    CacheKey key1 = new CacheKey();
+    CacheKey key2 = new CacheKey();
+    List<Object> ids = new ArrayList<Object>();
+    for (int i = 0; i < 5000; i++) {
+      key1.update(i);
+      key2.update(Integer.valueOf(i));
+      ids.add(i);
+    }
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(5000, key1.getUpdateCount());
+    assertEquals(ids, key1.getUpdateList());
+    key2.update("last");
+    assertFalse(key1.equals(key2));
+  }
+
+  @Test
+  public void shouldNotShareUpdatesWithAClone() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1, "hello" });
+    CacheKey clone = key.clone();
+    assertEquals(key, clone);
+    clone.update(2);
+    assertFalse(key.equals(clone));
+    assertEquals(Arrays.<Object>asList(1, "hello"), key.getUpdateList());
+    assertEquals(Arrays.<Object>asList(1, "hello", 2), clone.getUpdateList());
+  }
+
+  @Test
+  public void shouldFlattenArraysOfPrimitivesAndObjects() {
+    CacheKey key1 = new CacheKey(new Object[] { new int[] { 1, 2 }, new String[] { "a", "b" } });
+    CacheKey key2 = new CacheKey(new Object[] { 1, 2, "a", "b" });
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+  }
+
 }
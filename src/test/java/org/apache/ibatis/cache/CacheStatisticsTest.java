@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import org.apache.ibatis.cache.decorators.FifoCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.ConcurrentLruCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCountHitsMissesAndPuts() {
+    LoggingCache cache = new LoggingCache(new PerpetualCache("default"));
+    cache.putObject(1, "one");
+    cache.putObject(2, "two");
+    assertEquals("one", cache.getObject(1));
+    assertEquals("two", cache.getObject(2));
+    assertNull(cache.getObject(3));
+    CacheStatistics.Snapshot snapshot = cache.getStatistics().snapshot();
+    assertEquals(2, snapshot.getHits());
+    assertEquals(1, snapshot.getMisses());
+    assertEquals(3, snapshot.getRequests());
+    assertEquals(2.0 / 3.0, snapshot.getHitRatio(), 0.0001);
+    assertEquals(2, snapshot.getPuts());
+  }
+
+  @Test
+  public void shouldKeepTheCountersOfLoggingCacheSubclasses() {
+    CountingLoggingCache cache = new CountingLoggingCache(new PerpetualCache("default"));
+    cache.putObject(1, "one");
+    cache.getObject(1);
+    cache.getObject(2);
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getRequests());
+    assertEquals(0.5, cache.getHitRatio(), 0.0001);
+  }
+
+  // reads the deprecated counters, like subclasses written for older versions
+  @SuppressWarnings("deprecation")
+  private static class CountingLoggingCache extends LoggingCache {
+    CountingLoggingCache(Cache delegate) {
+      super(delegate);
+    }
+
+    int getHits() {
+      return hits;
+    }
+
+    int getRequests() {
+      return requests;
+    }
+  }
+
+  @Test
+  public void shouldCountEvictionsOfTheEvictionDecorator() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").addDecorator(FifoCache.class).size(2).statistics(statistics).build();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, "value " + i);
+    }
+    CacheStatistics.Snapshot snapshot = statistics.snapshot();
+    assertEquals(5, snapshot.getPuts());
+    assertEquals(3, snapshot.getEvictions());
+    assertEquals(2, snapshot.getSize());
+    assertTrue(snapshot.getEstimatedBytes() > 0);
+  }
+
+  @Test
+  public void shouldCountEvictionsOfAConcurrentLruCache() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").implementation(ConcurrentLruCache.class).size(10).statistics(statistics).build();
+    for (int i = 0; i < 15; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, statistics.snapshot().getEvictions());
+  }
+
+  @Test
+  public void shouldResetTheCounters() {
+    CacheStatistics statistics = new CacheStatistics("default");
+    statistics.recordHit();
+    statistics.recordMiss();
+    statistics.recordPut("value");
+    statistics.recordLoad(2000);
+    statistics.recordLoad(4000);
+    CacheStatistics.Snapshot before = statistics.snapshot();
+    assertEquals(6000, before.getTotalLoadTime());
+    assertEquals(3000, before.getAverageLoadTime());
+    statistics.reset();
+    CacheStatistics.Snapshot after = statistics.snapshot();
+    assertEquals(0, after.getRequests());
+    assertEquals(0, after.getPuts());
+    assertEquals(0, after.getLoads());
+    // a snapshot does not change after a reset
+    assertEquals(1, before.getHits());
+  }
+
+}
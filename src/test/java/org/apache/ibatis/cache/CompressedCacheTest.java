@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.ibatis.cache.codec.BinaryCodec;
+import org.apache.ibatis.cache.decorators.CompressedCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CompressedCacheTest {
+
+  @Test
+  public void shouldStoreLargeResultsCompressed() {
+    PerpetualCache base = new PerpetualCache("default");
+    CompressedCache compressedCache = new CompressedCache(base);
+    Cache cache = new SerializedCache(compressedCache, new BinaryCodec());
+    List<Author> authors = authors(200);
+    cache.putObject("authors", authors);
+    assertFalse(base.getObject("authors") instanceof byte[]);
+    assertEquals(authors, cache.getObject("authors"));
+    CacheStatistics.Snapshot snapshot = compressedCache.getStatistics().snapshot();
+    assertTrue(snapshot.getCompressedBytes() < snapshot.getUncompressedBytes());
+    assertTrue(snapshot.getCompressionRatio() < 0.5);
+    assertEquals(1, snapshot.getDecompressions());
+  }
+
+  @Test
+  public void shouldStoreSmallAndIncompressibleValuesAsTheyAre() {
+    PerpetualCache base = new PerpetualCache("default");
+    CompressedCache cache = new CompressedCache(base);
+    byte[] small = new byte[100];
+    byte[] random = new byte[4096];
+    new Random(42).nextBytes(random);
+    cache.putObject("small", small);
+    cache.putObject("random", random);
+    cache.putObject("string", "not serialized");
+    assertSame(small, base.getObject("small"));
+    assertSame(random, base.getObject("random"));
+    assertSame(random, cache.getObject("random"));
+    assertEquals("not serialized", cache.getObject("string"));
+    assertEquals(1.0, cache.getStatistics().snapshot().getCompressionRatio(), 0.0001);
+  }
+
+  @Test
+  public void shouldCompressReadWriteCachesBuiltWithCompression() {
+    Properties properties = new Properties();
+    properties.setProperty("compressionThreshold", "64");
+    properties.setProperty("compressionLevel", "9");
+    CacheStatistics statistics = new CacheStatistics("default");
+    Cache cache = new CacheBuilder("default").readWrite(true).compression(true).properties(properties)
+        .statistics(statistics).build();
+    List<Author> authors = authors(10);
+    cache.putObject("authors", authors);
+    assertEquals(authors, cache.getObject("authors"));
+    assertTrue(statistics.snapshot().getUncompressedBytes() > 0);
+    assertTrue(statistics.snapshot().getCompressionRatio() < 1);
+  }
+
+  private static List<Author> authors(int count) {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < count; i++) {
+      authors.add(new Author(i, "user" + i, "password" + i, "user" + i + "@example.com", "bio", Section.NEWS));
+    }
+    return authors;
+  }
+
+}
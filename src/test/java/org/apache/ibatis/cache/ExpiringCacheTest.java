@@ -0,0 +1,140 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  @Test
+  public void shouldExpireEachEntryAfterItsOwnTtl() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new SynchronizedCache(new PerpetualCache("default")));
+    cache.setTtl(600);
+    cache.putObject(1, "one");
+    Thread.sleep(400);
+    cache.putObject(2, "two");
+    Thread.sleep(300);
+    // only the first entry has expired
+    assertNull(cache.getObject(1));
+    assertEquals("two", cache.getObject(2));
+    Thread.sleep(400);
+    assertNull(cache.getObject(2));
+  }
+
+  @Test
+  public void shouldRemoveExpiredEntriesInTheBackground() throws Exception {
+    Cache delegate = new SynchronizedCache(new PerpetualCache("default"));
+    ExpiringCache cache = new ExpiringCache(delegate);
+    cache.setTtl(100);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    for (int i = 0; i < 50 && delegate.getSize() > 0; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(0, delegate.getSize());
+  }
+
+  @Test
+  public void shouldUseTheTtlOfTheValue() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new SynchronizedCache(new PerpetualCache("default")));
+    cache.putObject(1, "one");
+    cache.putObject(2, ExpiringCache.withTtl("two", 500));
+    assertEquals("two", cache.getObject(2));
+    Thread.sleep(600);
+    assertEquals("one", cache.getObject(1));
+    assertNull(cache.getObject(2));
+  }
+
+  @Test
+  public void shouldNotExpireAnEntryPutAgainWithoutTtl() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new SynchronizedCache(new PerpetualCache("default")));
+    cache.putObject(1, ExpiringCache.withTtl("one", 100));
+    cache.putObject(1, "uno");
+    Thread.sleep(250);
+    assertEquals("uno", cache.getObject(1));
+  }
+
+  @Test
+  public void shouldUnwrapValuesOfCachesWithoutTtl() throws Exception {
+    Cache cache = new PerpetualCache("default");
+    cache.putObject(1, ExpiringCache.withTtl("one", 100));
+    assertEquals("one", ExpiringCache.unwrap(cache.getObject(1)));
+    Thread.sleep(150);
+    assertNull(ExpiringCache.unwrap(cache.getObject(1)));
+  }
+
+  @Test
+  public void shouldUseFlushIntervalAsTtl() throws Exception {
+    Cache cache = new CacheBuilder("default").clearInterval(500L).build();
+    cache.putObject(1, "one");
+    Thread.sleep(300);
+    cache.putObject(2, "two");
+    Thread.sleep(300);
+    assertNull(cache.getObject(1));
+    assertEquals("two", cache.getObject(2));
+  }
+
+  @Test
+  public void shouldNotDecorateCachesWithoutFlushInterval() throws Exception {
+    Cache cache = new CacheBuilder("default").build();
+    cache.putObject(1, ExpiringCache.withTtl("one", 50));
+    Thread.sleep(100);
+    // the value is stored as is and expires when it is read
+    assertNotNull(cache.getObject(1));
+    assertNull(ExpiringCache.unwrap(cache.getObject(1)));
+  }
+
+  @Test
+  public void shouldPassTheDeadlineToDeadlineAwareCaches() throws Exception {
+    DeadlineCache delegate = new DeadlineCache();
+    ExpiringCache cache = new ExpiringCache(delegate);
+    cache.setTtl(60 * 1000);
+    long before = System.currentTimeMillis();
+    cache.putObject(1, "one");
+    cache.putObject(2, ExpiringCache.withTtl("two", 1000));
+    assertTrue(delegate.deadlines.get(1) >= before + 60 * 1000);
+    assertTrue(delegate.deadlines.get(2) < before + 60 * 1000);
+    assertEquals("two", cache.getObject(2));
+    cache.clear();
+  }
+
+  private static class DeadlineCache extends PerpetualCache implements DeadlineAwareCache {
+
+    private final Map<Object, Long> deadlines = new HashMap<Object, Long>();
+
+    DeadlineCache() {
+      super("default");
+    }
+
+    @Override
+    public synchronized void putObject(Object key, Object value, long deadline) {
+      deadlines.put(key, deadline);
+      putObject(key, value);
+    }
+
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cache.invalidation.Invalidation;
+import org.apache.ibatis.cache.invalidation.InvalidationBus;
+import org.apache.ibatis.cache.invalidation.InvalidationTransport;
+import org.apache.ibatis.cache.invalidation.SocketTransport;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class InvalidationBusTest {
+
+  private static final long NEVER = 60000;
+
+  @Test
+  public void shouldCoalesceInvalidationsIntoOneMessage() {
+    RecordingTransport transport = new RecordingTransport();
+    InvalidationBus bus = new InvalidationBus(new Configuration(), transport, NEVER);
+    for (int i = 0; i < 100; i++) {
+      bus.publish(Invalidation.key("users", i));
+      bus.publish(Invalidation.table("users"));
+    }
+    bus.publish(Invalidation.key("posts", 1));
+    bus.flush();
+    bus.flush();
+    assertEquals(1, transport.messages.size());
+
+    Configuration other = newConfiguration("users", "posts");
+    InvalidationBus otherBus = new InvalidationBus(other, new RecordingTransport(), NEVER);
+    otherBus.receive(transport.messages.get(0));
+    // keys of users were sent one by one, and only the key of posts was removed
+    assertEquals(0, other.getCache("users").getSize());
+    assertEquals(1, other.getCache("posts").getSize());
+    assertNull(other.getCache("posts").getObject(1));
+    bus.close();
+    otherBus.close();
+  }
+
+  @Test
+  public void shouldNotSendKeysOfClearedCaches() {
+    RecordingTransport transport = new RecordingTransport();
+    InvalidationBus bus = new InvalidationBus(new Configuration(), transport, NEVER);
+    bus.publish(Invalidation.key("users", 1));
+    bus.publish(Invalidation.cache("users"));
+    bus.flush();
+
+    Configuration other = newConfiguration("users");
+    InvalidationBus otherBus = new InvalidationBus(other, new RecordingTransport(), NEVER);
+    otherBus.receive(transport.messages.get(0));
+    assertEquals(0, other.getCache("users").getSize());
+    bus.close();
+    otherBus.close();
+  }
+
+  @Test
+  public void shouldIgnoreItsOwnMessages() {
+    RecordingTransport transport = new RecordingTransport();
+    Configuration configuration = newConfiguration("users");
+    InvalidationBus bus = new InvalidationBus(configuration, transport, NEVER);
+    bus.publish(Invalidation.cache("users"));
+    bus.flush();
+    bus.receive(transport.messages.get(0));
+    assertEquals(2, configuration.getCache("users").getSize());
+    bus.close();
+  }
+
+  @Test
+  public void shouldSendInvalidationsOverSockets() throws Exception {
+    SocketTransport receiving = new SocketTransport();
+    Configuration other = newConfiguration("users");
+    InvalidationBus otherBus = new InvalidationBus(other, receiving, NEVER);
+
+    SocketTransport sending = new SocketTransport();
+    Properties properties = new Properties();
+    properties.setProperty("peers", "localhost:" + receiving.getPort());
+    sending.setProperties(properties);
+    InvalidationBus bus = new InvalidationBus(new Configuration(), sending, 10);
+    // connections are only accepted from peers
+    receiving.setPeers("localhost:" + sending.getPort());
+    bus.publish(Invalidation.cache("users"));
+
+    for (int i = 0; i < 100 && other.getCache("users").getSize() > 0; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(0, other.getCache("users").getSize());
+    bus.close();
+    otherBus.close();
+  }
+
+  @Test
+  public void shouldRefuseConnectionsFromHostsThatAreNotPeers() throws Exception {
+    SocketTransport receiving = new SocketTransport();
+    receiving.setPeers("192.0.2.1:7800");
+    Configuration other = newConfiguration("users");
+    InvalidationBus otherBus = new InvalidationBus(other, receiving, NEVER);
+
+    SocketTransport sending = new SocketTransport();
+    sending.setPeers("localhost:" + receiving.getPort());
+    InvalidationBus bus = new InvalidationBus(new Configuration(), sending, NEVER);
+    bus.publish(Invalidation.cache("users"));
+    bus.flush();
+
+    Thread.sleep(200);
+    assertEquals(2, other.getCache("users").getSize());
+    bus.close();
+    otherBus.close();
+  }
+
+  @Test
+  public void shouldIgnoreMessagesInAnotherFormat() throws Exception {
+    Configuration configuration = newConfiguration("users");
+    InvalidationBus bus = new InvalidationBus(configuration, new RecordingTransport(), NEVER);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(new HashMap<String, String>());
+    oos.close();
+    bus.receive(bos.toByteArray());
+    bus.receive(new byte[] { 1, 2, 3 });
+    assertEquals(2, configuration.getCache("users").getSize());
+    bus.close();
+  }
+
+  @Test
+  public void shouldSendCacheKeysAndClearTheCacheForOtherKeys() {
+    RecordingTransport transport = new RecordingTransport();
+    InvalidationBus bus = new InvalidationBus(new Configuration(), transport, NEVER);
+    bus.publish(Invalidation.key("users", new CacheKey(new Object[] { "users.byId", 1L })));
+    bus.publish(Invalidation.key("posts", new Object()));
+    bus.flush();
+
+    Configuration other = newConfiguration("users", "posts");
+    other.getCache("users").putObject(new CacheKey(new Object[] { "users.byId", 1L }), "jane");
+    InvalidationBus otherBus = new InvalidationBus(other, new RecordingTransport(), NEVER);
+    otherBus.receive(transport.messages.get(0));
+    assertEquals(2, other.getCache("users").getSize());
+    assertNull(other.getCache("users").getObject(new CacheKey(new Object[] { "users.byId", 1L })));
+    // a key that cannot be written invalidates its whole cache
+    assertEquals(0, other.getCache("posts").getSize());
+    bus.close();
+    otherBus.close();
+  }
+
+  private Configuration newConfiguration(String... cacheIds) {
+    Configuration configuration = new Configuration();
+    for (String id : cacheIds) {
+      Cache cache = new PerpetualCache(id);
+      cache.putObject(1, "one");
+      cache.putObject(2, "two");
+      configuration.addCache(cache);
+    }
+    return configuration;
+  }
+
+  private static class RecordingTransport implements InvalidationTransport {
+    private final List<byte[]> messages = new ArrayList<byte[]>();
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+    @Override
+    public void start(InvalidationBus bus) {
+    }
+
+    @Override
+    public void publish(byte[] message) {
+      messages.add(message);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+}
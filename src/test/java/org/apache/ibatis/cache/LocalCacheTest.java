@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.impl.LocalCache;
+import org.junit.Test;
+
+public class LocalCacheTest {
+
+  @Test
+  public void shouldOnlyEvictWhenAsked() {
+    LocalCache cache = new LocalCache("local", 2, Long.MAX_VALUE, true);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(5, cache.getSize());
+    cache.evict();
+    assertEquals(2, cache.getSize());
+    assertEquals(3, cache.getObject(3));
+    assertEquals(4, cache.getObject(4));
+    assertEquals(0, cache.getTotalBytes());
+  }
+
+  @Test
+  public void shouldEvictUntilTheEstimatedBytesFit() {
+    CacheStatistics statistics = new CacheStatistics("local");
+    LocalCache cache = new LocalCache("local", Integer.MAX_VALUE, 10000, true);
+    cache.setStatistics(statistics);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, rows(50));
+    }
+    long perEntry = cache.getTotalBytes() / 10;
+    assertTrue(perEntry > 0);
+    cache.getObject(0);
+    cache.evict();
+    assertTrue(cache.getTotalBytes() <= 10000);
+    assertEquals(10000 / perEntry, cache.getSize());
+    assertEquals(10 - cache.getSize(), statistics.snapshot().getEvictions());
+    // the least recently used entries went first
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldForgetTheSizeOfRemovedEntries() {
+    LocalCache cache = new LocalCache("local", Integer.MAX_VALUE, 100000, false);
+    cache.putObject("a", rows(10));
+    cache.putObject("b", rows(10));
+    long bytes = cache.getTotalBytes();
+    cache.removeObject("a");
+    assertEquals(bytes / 2, cache.getTotalBytes());
+    cache.clear();
+    assertEquals(0, cache.getTotalBytes());
+  }
+
+  private static List<String> rows(int count) {
+    List<String> rows = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      rows.add("row number " + (1000 + i));
+    }
+    return rows;
+  }
+
+}
@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.apache.ibatis.cache.decorators.ExpiringCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Blog;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedFileCacheTest {
+
+  private File directory;
+
+  @Before
+  public void createDirectory() throws Exception {
+    directory = File.createTempFile("mybatis", "cache");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After
+  public void deleteDirectory() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void shouldKeepItemsAcrossRestarts() {
+    MappedFileCache cache = newCache("v1");
+    cache.putObject(key("selectAuthor", 1, Section.NEWS), "author1");
+    cache.putObject(key("selectAuthor", 2, Section.NEWS), "author2");
+    cache.putObject("plain", "value");
+    cache.removeObject(key("selectAuthor", 2, Section.NEWS));
+    cache.close();
+
+    cache = newCache("v1");
+    assertEquals(2, cache.getSize());
+    assertEquals("author1", cache.getObject(key("selectAuthor", 1, Section.NEWS)));
+    assertNull(cache.getObject(key("selectAuthor", 2, Section.NEWS)));
+    assertEquals("value", cache.getObject("plain"));
+    cache.close();
+  }
+
+  @Test
+  public void shouldExpireItemsReloadedAfterARestart() throws Exception {
+    MappedFileCache cache = newCache("v1");
+    ExpiringCache expiringCache = new ExpiringCache(cache);
+    expiringCache.setTtl(60 * 60 * 1000);
+    expiringCache.putObject("hour", "value");
+    cache.putObject("soon", "value", System.currentTimeMillis() + 50);
+    cache.putObject("forever", "value");
+    cache.close();
+
+    Thread.sleep(100);
+    cache = newCache("v1");
+    assertEquals(2, cache.getSize());
+    assertNull(cache.getObject("soon"));
+    assertEquals("value", cache.getObject("hour"));
+    assertEquals("value", cache.getObject("forever"));
+    cache.putObject("past", "value", System.currentTimeMillis() - 1);
+    assertNull(cache.getObject("past"));
+    assertEquals(2, cache.getSize());
+    cache.close();
+  }
+
+  @Test
+  public void shouldReturnTheRemovedItem() {
+    MappedFileCache cache = newCache("v1");
+    cache.putObject("key", "value");
+    assertEquals("value", cache.removeObject("key"));
+    assertNull(cache.removeObject("key"));
+    assertEquals(0, cache.getSize());
+    cache.close();
+  }
+
+  @Test
+  public void shouldRejectItemsWrittenWithAnotherFingerprint() {
+    MappedFileCache cache = newCache("v1");
+    cache.putObject("key", "value");
+    cache.close();
+
+    cache = newCache("v2");
+    assertEquals(0, cache.getSize());
+    assertNull(cache.getObject("key"));
+    cache.close();
+  }
+
+  @Test
+  public void shouldRejectItemsWrittenWithAnotherResultType() {
+    MappedFileCache cache = newCache("v1", Author.class);
+    cache.putObject("key", "value");
+    cache.close();
+
+    cache = newCache("v1", Author.class);
+    assertEquals(1, cache.getSize());
+    cache.close();
+
+    cache = newCache("v1", Blog.class);
+    assertEquals(0, cache.getSize());
+    assertNull(cache.getObject("key"));
+    cache.close();
+  }
+
+  @Test
+  public void shouldDropOldestItemsWhenTheFileIsFull() {
+    MappedFileCache cache = newCache("v1");
+    cache.setFileSize(4096);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, "value" + i);
+      // rewrite a key many times, compaction drops the old records
+      cache.putObject("hot", "value" + i);
+    }
+    assertTrue(cache.getSize() > 10);
+    assertNull(cache.getObject(0));
+    assertEquals("value999", cache.getObject(999));
+    assertEquals("value999", cache.getObject("hot"));
+    cache.close();
+
+    cache = newCache("v1");
+    cache.setFileSize(4096);
+    assertEquals("value999", cache.getObject(999));
+    assertEquals("value999", cache.getObject("hot"));
+    cache.close();
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    MappedFileCache cache = newCache("v1");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertNull(cache.getObject(4));
+    cache.close();
+
+    cache = newCache("v1");
+    assertEquals(0, cache.getSize());
+    cache.close();
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldNotShareAFileBetweenTwoCaches() {
+    MappedFileCache cache = newCache("v1");
+    cache.putObject("key", "value");
+    try {
+      newCache("v1").getObject("key");
+    } finally {
+      cache.close();
+    }
+  }
+
+  private MappedFileCache newCache(String fingerprint) {
+    MappedFileCache cache = new MappedFileCache("org.apache.ibatis.domain.blog.mappers.AuthorMapper");
+    cache.setDirectory(directory.getAbsolutePath());
+    cache.setFileSize(64 * 1024);
+    cache.setFingerprint(fingerprint);
+    return cache;
+  }
+
+  // a cache used by a select that returns the result type
+  private MappedFileCache newCache(String fingerprint, Class<?> resultType) {
+    MappedFileCache cache = newCache(fingerprint);
+    Configuration configuration = new Configuration();
+    ResultMap resultMap = new ResultMap.Builder(configuration, "selectAuthor-Inline", resultType,
+        new ArrayList<ResultMapping>()).build();
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, cache.getId() + ".selectAuthor",
+        new StaticSqlSource(configuration, "select * from author"), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).cache(cache).build());
+    cache.setMappingFingerprint(new MappingFingerprint(configuration, cache.getId()));
+    return cache;
+  }
+
+  private CacheKey key(Object... objects) {
+    return new CacheKey(objects);
+  }
+
+}
@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopiesOfCachedValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    Author author = new Author(1, "user1", "password1", "user1@example.com", "bio", Section.NEWS);
+    cache.putObject(1, author);
+    Author cached = (Author) cache.getObject(1);
+    assertEquals(author, cached);
+    assertNotSame(author, cached);
+    assertNotSame(cached, cache.getObject(1));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedItemsWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.setCapacity(1024);
+    // every value takes a 64 byte block, so the slab holds 16 of them
+    for (int i = 0; i < 16; i++) {
+      cache.putObject(i, "value" + i);
+    }
+    assertEquals(16, cache.getSize());
+    assertNotNull(cache.getObject(0));
+    cache.putObject(16, "value16");
+    assertEquals(16, cache.getSize());
+    assertEquals("value0", cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(16 * 64, cache.getUsedBytes());
+  }
+
+  @Test
+  public void shouldReassignSlabsToOtherSizes() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.setCapacity(1024);
+    for (int i = 0; i < 8; i++) {
+      cache.putObject(i, "value" + i);
+    }
+    cache.putObject("big", rows(50));
+    assertEquals(rows(50), cache.getObject("big"));
+    assertEquals(1, cache.getSize());
+    // bigger than a slab
+    cache.putObject("huge", rows(1000));
+    assertNull(cache.getObject("huge"));
+  }
+
+  @Test
+  public void shouldRemoveAndFlushItemsOnDemand() {
+    OffHeapCache cache = new OffHeapCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, rows(i));
+    }
+    assertEquals(rows(2), cache.removeObject(2));
+    assertNull(cache.getObject(2));
+    cache.clear();
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getUsedBytes());
+    cache.putObject(4, rows(4));
+    assertEquals(rows(4), cache.getObject(4));
+  }
+
+  @Test
+  public void shouldBeConfiguredThroughCacheBuilderProperties() {
+    Properties properties = new Properties();
+    properties.setProperty("capacity", "4096");
+    properties.setProperty("slabSize", "1024");
+    Cache cache = new CacheBuilder("default")
+        .implementation(OffHeapCache.class)
+        .readWrite(true)
+        .properties(properties)
+        .build();
+    assertTrue(cache instanceof LoggingCache);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, "value" + i);
+    }
+    assertEquals(64, cache.getSize());
+  }
+
+  @Test
+  public void shouldNotHoldTheLockWhileSerializing() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject("other", "value");
+    SlowValue value = new SlowValue(cache);
+    cache.putObject("slow", value);
+    assertEquals("value", value.readDuringSerialization);
+  }
+
+  // reads the cache from another thread while it is being serialized
+  private static class SlowValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Cache cache;
+    private transient Object readDuringSerialization;
+
+    SlowValue(Cache cache) {
+      this.cache = cache;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        readDuringSerialization = executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            return cache.getObject("other");
+          }
+        }).get(5, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new IOException("The cache was locked during serialization: " + e);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  private List<Integer> rows(int count) {
+    List<Integer> rows = new ArrayList<Integer>();
+    for (int i = 0; i < count; i++) {
+      rows.add(i);
+    }
+    return rows;
+  }
+
+}
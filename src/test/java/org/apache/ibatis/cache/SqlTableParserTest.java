@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SqlTableParserTest {
+
+  @Test
+  public void shouldFindTablesOfSelects() {
+    assertArrayEquals(new String[] { "blog", "author", "post" }, SqlTableParser.parse(
+        "SELECT b.id, a.username FROM Blog b JOIN author AS a ON a.id = b.author_id\n"
+        + " LEFT OUTER JOIN post p on p.blog_id = b.id WHERE b.id = ? ORDER BY b.id"));
+    assertArrayEquals(new String[] { "blog", "author" }, SqlTableParser.parse("select * from blog, author a where a.id = blog.author_id"));
+    assertArrayEquals(new String[] { "blog", "post" }, SqlTableParser.parse(
+        "select * from blog where id in (select blog_id from post where subject = 'from comment')"));
+    assertArrayEquals(new String[] { "author" }, SqlTableParser.parse("select * from \"BLOG\".\"AUTHOR\" -- from post"));
+  }
+
+  @Test
+  public void shouldFindTablesOfWrites() {
+    assertArrayEquals(new String[] { "author" }, SqlTableParser.parse("insert into Author (id, username) values (?, ?)"));
+    assertArrayEquals(new String[] { "author" }, SqlTableParser.parse("update author set username = ? where id = ?"));
+    assertArrayEquals(new String[] { "author" }, SqlTableParser.parse("delete from author where id = ?"));
+    assertArrayEquals(new String[] { "blog", "author" }, SqlTableParser.parse("insert into blog (author_id) select id from author"));
+  }
+
+  @Test
+  public void shouldRecordTablesWithoutTheirSchema() {
+    assertArrayEquals(new String[] { "person" }, SqlTableParser.parse("select * from app.person p where p.id = ?"));
+    assertArrayEquals(new String[] { "person" }, SqlTableParser.parse("update APP.\"Person\" set name = ?"));
+    assertArrayEquals(new String[] { "person" }, SqlTableParser.parse("delete from [db].[dbo].[person] where id = ?"));
+    assertArrayEquals(new String[] { "my.person" }, SqlTableParser.parse("select * from app.`my.person`"));
+  }
+
+  @Test
+  public void shouldNotFindTablesOfProcedureCalls() {
+    assertNull(SqlTableParser.parse("{call get_author(?)}"));
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class TableInvalidationsTest {
+
+  private static final String[] PERSON = new String[] { "person" };
+
+  @Test
+  public void shouldIgnoreResultsReadBeforeAWriteOfTheirTables() {
+    TableInvalidations invalidations = new TableInvalidations();
+    Object cached = invalidations.wrap(PERSON, invalidations.stamp(), "Jane");
+    invalidations.invalidate(Collections.singleton("pet"));
+    assertEquals("Jane", invalidations.unwrap(cached));
+    invalidations.invalidate(Collections.singleton("person"));
+    assertNull(invalidations.unwrap(cached));
+  }
+
+  @Test
+  public void shouldKeepResultsReadAfterTheLastWrite() {
+    TableInvalidations invalidations = new TableInvalidations();
+    invalidations.invalidate(Collections.singleton("person"));
+    // in the same millisecond as the write
+    Object cached = invalidations.wrap(PERSON, invalidations.stamp(), "Jane");
+    assertEquals("Jane", invalidations.unwrap(cached));
+  }
+
+  @Test
+  public void shouldInvalidateResultsReadFromASchemaQualifiedTable() {
+    TableInvalidations invalidations = new TableInvalidations();
+    MappedStatement select = statement("select name from app.person where id = ?", null);
+    Object cached = invalidations.wrap(invalidations.getReadTables(select, select.getBoundSql(null)), invalidations.stamp(), "Jane");
+    MappedStatement update = statement("update person set name = ? where id = ?", null);
+    invalidations.invalidate(Arrays.asList(invalidations.getWrittenTables(update, null)));
+    assertNull(invalidations.unwrap(cached));
+
+    // declared tables too
+    select = statement("select name from v_person", "APP.PERSON");
+    cached = invalidations.wrap(invalidations.getReadTables(select, select.getBoundSql(null)), invalidations.stamp(), "Jane");
+    invalidations.invalidate(Arrays.asList(invalidations.getWrittenTables(update, null)));
+    assertNull(invalidations.unwrap(cached));
+  }
+
+  private MappedStatement statement(String sql, String tables) {
+    Configuration configuration = new Configuration();
+    return new MappedStatement.Builder(configuration, "statement", new StaticSqlSource(configuration, sql), SqlCommandType.SELECT)
+        .tables(tables).build();
+  }
+
+}
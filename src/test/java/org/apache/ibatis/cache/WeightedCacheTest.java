@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.ObjectSizeEstimator;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class WeightedCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedItemsBeyondMaximumWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher("ROWS");
+    cache.setMaximumWeight(10);
+    cache.putObject(0, rows(4));
+    cache.putObject(1, rows(4));
+    assertNotNull(cache.getObject(0));
+    cache.putObject(2, rows(4));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(2));
+    assertEquals(8, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldNotCacheItemsHeavierThanMaximumEntryWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher("ROWS");
+    cache.setMaximumEntryWeight(5);
+    cache.putObject(0, rows(2));
+    cache.putObject(1, rows(6));
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    // a result that grew too big replaces the previous one
+    cache.putObject(0, rows(6));
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldEstimateBiggerResultsAsHeavier() {
+    ObjectSizeEstimator estimator = new ObjectSizeEstimator();
+    List<Author> small = authors(10);
+    List<Author> big = authors(10000);
+    long smallSize = estimator.estimate(small);
+    long bigSize = estimator.estimate(big);
+    assertTrue(smallSize > 10 * 40);
+    assertTrue(bigSize > smallSize * 500);
+  }
+
+  @Test
+  public void shouldBeConfiguredThroughCacheBuilderProperties() {
+    Properties properties = new Properties();
+    properties.setProperty("weigher", "ROWS");
+    properties.setProperty("maximumWeight", "10");
+    Cache cache = new CacheBuilder("default")
+        .addDecorator(WeightedCache.class)
+        .properties(properties)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, rows(3));
+    }
+    assertEquals(3, cache.getSize());
+  }
+
+  @Test
+  public void shouldWeighTheRowsOfReadWriteCachesBeforeSerialization() {
+    Properties properties = new Properties();
+    properties.setProperty("weigher", "ROWS");
+    properties.setProperty("maximumWeight", "10");
+    properties.setProperty("compressionThreshold", "1");
+    Cache cache = new CacheBuilder("default")
+        .addDecorator(WeightedCache.class)
+        .readWrite(true)
+        .compression(true)
+        .properties(properties)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, rows(3));
+    }
+    assertEquals(3, cache.getSize());
+    assertEquals(rows(3), cache.getObject(9));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, rows(i));
+    }
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getTotalWeight());
+  }
+
+  private List<Integer> rows(int count) {
+    List<Integer> rows = new ArrayList<Integer>();
+    for (int i = 0; i < count; i++) {
+      rows.add(i);
+    }
+    return rows;
+  }
+
+  private List<Author> authors(int count) {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < count; i++) {
+      authors.add(new Author(i, "user" + i, "password" + i, "user" + i + "@example.com", "bio of user " + i, Section.NEWS));
+    }
+    return authors;
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptivePoolSizerTest {
+
+  private PooledDataSource dataSource;
+  private AdaptivePoolSizer sizer;
+
+  @Before
+  public void setUp() {
+    dataSource = new PooledDataSource();
+    dataSource.setPoolAdaptiveSizing(true);
+    dataSource.setPoolMinimumActiveConnections(2);
+    dataSource.setPoolAdaptiveSizingInterval(1000);
+    dataSource.setPoolMaximumActiveConnections(20);
+    sizer = new AdaptivePoolSizer(dataSource);
+    sizer.maybeResize(1, 0);
+  }
+
+  @Test
+  public void shouldStartAtMinimum() {
+    assertEquals(2, sizer.getTargetActiveConnections());
+  }
+
+  @Test
+  public void shouldGrowTowardPeakDemandWhenCallersWait() {
+    sizer.recordCheckout(2, false, 0);
+    sizer.beginWait(2);
+    sizer.beginWait(2);
+    sizer.endWait();
+    sizer.endWait();
+    sizer.recordCheckout(2, true, 5000000);
+    assertFalse(sizer.maybeResize(500, 2));
+    assertTrue(sizer.maybeResize(1001, 2));
+    assertEquals(4, sizer.getTargetActiveConnections());
+  }
+
+  @Test
+  public void shouldGrowOneAtATimeWhenConnectionCreationGetsSlow() {
+    sizer.recordCreation(1000000);
+    sizer.maybeResize(1001, 0);
+    sizer.recordCreation(10000000);
+    sizer.beginWait(2);
+    sizer.beginWait(2);
+    sizer.recordCheckout(2, true, 5000000);
+    sizer.endWait();
+    sizer.endWait();
+    assertTrue(sizer.maybeResize(2001, 2));
+    assertEquals(3, sizer.getTargetActiveConnections());
+  }
+
+  @Test
+  public void shouldShrinkWhenLessThanHalfIsUsed() {
+    for (int i = 0; i < 5; i++) {
+      sizer.beginWait(20);
+      sizer.endWait();
+      sizer.recordCheckout(20, true, 1000);
+      sizer.maybeResize(1001 + i * 1000, 0);
+    }
+    assertEquals(20, sizer.getTargetActiveConnections());
+    sizer.recordCheckout(2, false, 0);
+    assertTrue(sizer.maybeResize(10001, 2));
+    assertEquals(11, sizer.getTargetActiveConnections());
+  }
+
+  @Test
+  public void shouldStayWithinBounds() {
+    dataSource.setPoolMaximumActiveConnections(3);
+    sizer.beginWait(3);
+    sizer.beginWait(3);
+    sizer.beginWait(3);
+    sizer.endWait();
+    sizer.endWait();
+    sizer.endWait();
+    sizer.recordCheckout(3, true, 1000);
+    sizer.maybeResize(1001, 3);
+    assertEquals(3, sizer.getTargetActiveConnections());
+    sizer.maybeResize(2001, 0);
+    sizer.maybeResize(3001, 0);
+    assertEquals(2, sizer.getTargetActiveConnections());
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void shouldReportPercentilesAsBucketUpperBounds() {
+    Histogram histogram = new Histogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(100);
+    }
+    histogram.record(50000);
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.getCount());
+    assertEquals(99 * 100 + 50000, snapshot.getTotal());
+    assertEquals(50000, snapshot.getMax());
+    assertEquals(127, snapshot.getMedian());
+    assertEquals(127, snapshot.get99thPercentile());
+    assertEquals(50000, snapshot.getPercentile(100));
+  }
+
+  @Test
+  public void shouldNotChangeSnapshotAfterMoreRecords() {
+    Histogram histogram = new Histogram();
+    histogram.record(10);
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    histogram.record(1000);
+    assertEquals(1, snapshot.getCount());
+    assertEquals(10, snapshot.getMax());
+    assertEquals(2, histogram.snapshot().getCount());
+  }
+
+  @Test
+  public void shouldResetAllValues() {
+    Histogram histogram = new Histogram();
+    histogram.record(0);
+    histogram.record(-5);
+    histogram.recordNanos(3000000);
+    assertEquals(3000, histogram.snapshot().getMax());
+    histogram.reset();
+    Histogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getPercentile(99));
+    assertTrue(snapshot.toString().contains("count=0"));
+  }
+
+}
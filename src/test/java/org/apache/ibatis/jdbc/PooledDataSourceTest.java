@@ -16,14 +16,23 @@
 package org.apache.ibatis.jdbc;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.pooled.PoolMetrics;
+import org.apache.ibatis.datasource.pooled.PoolPartition;
+import org.apache.ibatis.datasource.pooled.PoolPartitionContext;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Test;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -71,6 +80,388 @@ public class PooledDataSourceTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldRecordMetricsWithoutLockingThePool() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(2);
+      ds.setPoolMaximumIdleConnections(2);
+      Connection c1 = ds.getConnection();
+      Connection c2 = ds.getConnection();
+      PoolMetrics.Snapshot snapshot = ds.getPoolMetrics().snapshot();
+      assertEquals(2, snapshot.getActiveConnectionCount());
+      assertEquals(2, snapshot.getWaitTime().getCount());
+      assertEquals(2, snapshot.getCreationTime().getCount());
+      assertEquals(0, snapshot.getUsageTime().getCount());
+      c1.close();
+      c2.close();
+      ds.getConnection().close();
+      snapshot = ds.getPoolMetrics().snapshot();
+      assertEquals(0, snapshot.getActiveConnectionCount());
+      assertEquals(2, snapshot.getIdleConnectionCount());
+      assertEquals(3, snapshot.getWaitTime().getCount());
+      assertEquals(2, snapshot.getCreationTime().getCount());
+      assertEquals(3, snapshot.getUsageTime().getCount());
+      assertEquals(0, snapshot.getTimeoutCount());
+      assertEquals(0, snapshot.getBadConnectionCount());
+      assertTrue(snapshot.getWaitTime().get99thPercentile() <= snapshot.getWaitTime().getMax());
+      assertNotNull(snapshot.toString());
+      ds.getPoolMetrics().reset();
+      assertEquals(0, ds.getPoolMetrics().snapshot().getWaitTime().getCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReportConnectionsHeldPastLeakDetectionThreshold() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionThreshold(10);
+      Connection leaked = ds.getConnection();
+      Thread.sleep(50);
+      Connection other = ds.getConnection();
+      other.close();
+      assertEquals(1, ds.getPoolMetrics().snapshot().getLeakedConnectionCount());
+      Thread.sleep(50);
+      ds.getConnection().close();
+      assertEquals(1, ds.getPoolMetrics().snapshot().getLeakedConnectionCount());
+      leaked.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReportLeaksOfAPoolThatIsNotUsedAnymore() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionThreshold(10);
+      Connection leaked = ds.getConnection();
+      // no other checkout or checkin
+      for (int i = 0; i < 100 && ds.getPoolMetrics().snapshot().getLeakedConnectionCount() == 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(1, ds.getPoolMetrics().snapshot().getLeakedConnectionCount());
+      leaked.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCheckForLeaksWithTheNewThreshold() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolLeakDetectionThreshold(60 * 1000);
+      Connection leaked = ds.getConnection();
+      ds.setPoolLeakDetectionThreshold(10);
+      // no other checkout or checkin
+      for (int i = 0; i < 100 && ds.getPoolMetrics().snapshot().getLeakedConnectionCount() == 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(1, ds.getPoolMetrics().snapshot().getLeakedConnectionCount());
+      leaked.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldNotDetectLeaksWhenDisabled() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection held = ds.getConnection();
+      Thread.sleep(20);
+      ds.getConnection().close();
+      held.close();
+      assertEquals(0, ds.getPoolMetrics().snapshot().getLeakedConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldGrowAdaptivePoolWhenCallersHaveToWait() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolAdaptiveSizing(true);
+      ds.setPoolMinimumActiveConnections(1);
+      ds.setPoolAdaptiveSizingInterval(20);
+      ds.setPoolTimeToWait(5000);
+      assertEquals(1, ds.getTargetActiveConnections());
+      Connection c1 = ds.getConnection();
+      Connection c2 = ds.getConnection();
+      assertEquals(2, ds.getTargetActiveConnections());
+      assertEquals(2, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(1, ds.getPoolState().getHadToWaitCount());
+      c1.close();
+      c2.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseIdleConnectionsAboveTheAdaptiveTarget() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+      ds.setPoolMinimumActiveConnections(2);
+      ds.setPoolAdaptiveSizing(true);
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCloseIdleConnectionsWhenAdaptivePoolShrinks() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolAdaptiveSizing(true);
+      ds.setPoolMinimumActiveConnections(3);
+      ds.setPoolAdaptiveSizingInterval(20);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      for (Connection c : connections) {
+        c.close();
+      }
+      ds.setPoolMinimumActiveConnections(1);
+      Thread.sleep(50);
+      // ends the window with the demand of 3 connections
+      ds.getConnection().close();
+      Thread.sleep(50);
+      // demand was 1, the target shrinks and the idle connections above it are closed
+      Connection c = ds.getConnection();
+      int target = ds.getTargetActiveConnections();
+      assertTrue(target < 3);
+      assertEquals(target - 1, ds.getPoolState().getIdleConnectionCount());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldLimitConnectionsCheckedOutThroughAPartition() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(5);
+      ds.setPoolPartitions("reporting:1:50, oltp:3:1000");
+      PoolPartition reporting = ds.getPartition("reporting");
+      assertEquals(2, ds.getPartitions().size());
+      Connection c1 = reporting.getConnection();
+      assertEquals(1, reporting.getActiveConnectionCount());
+      try {
+        reporting.getConnection();
+        fail("Expected a timeout, the partition is full.");
+      } catch (SQLException e) {
+        assertTrue(e.getMessage().contains("reporting"));
+      }
+      assertEquals(1, ds.getPoolMetrics().snapshot().getTimeoutCount());
+      // the rest of the pool is still available
+      Connection c2 = ds.getPartition("oltp").getConnection();
+      Connection c3 = ds.getConnection();
+      c1.close();
+      assertEquals(0, reporting.getActiveConnectionCount());
+      Connection c4 = reporting.getConnection();
+      c4.close();
+      c2.close();
+      c3.close();
+      assertEquals(0, ds.getPartition("oltp").getActiveConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReleasePartitionsOfConnectionsClosedByForceCloseAll() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolPartitions("reporting:1:50");
+      PoolPartition reporting = ds.getPartition("reporting");
+      Connection held = reporting.getConnection();
+      ds.forceCloseAll();
+      assertEquals(0, reporting.getActiveConnectionCount());
+      // closing the invalidated connection afterwards does not release the partition twice
+      held.close();
+      assertEquals(0, reporting.getActiveConnectionCount());
+      Connection c1 = reporting.getConnection();
+      try {
+        reporting.getConnection();
+        fail("Expected a timeout, the partition is full.");
+      } catch (SQLException e) {
+        assertTrue(e.getMessage().contains("reporting"));
+      }
+      c1.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldUseThePartitionBoundToTheCurrentThread() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      PoolPartition reporting = ds.addPartition("reporting", 1, 1000);
+      String previous = PoolPartitionContext.bind("reporting");
+      try {
+        Connection c = ds.getConnection();
+        assertEquals(1, reporting.getActiveConnectionCount());
+        c.close();
+      } finally {
+        PoolPartitionContext.restore(previous);
+      }
+      assertNull(PoolPartitionContext.current());
+      PoolPartitionContext.bind("unknown");
+      try {
+        ds.getConnection();
+        fail("Expected an unknown partition to be rejected.");
+      } catch (SQLException e) {
+        assertTrue(e.getMessage().contains("unknown"));
+      } finally {
+        PoolPartitionContext.restore(null);
+      }
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test(expected = DataSourceException.class)
+  public void shouldRejectInvalidPartitionDefinitions() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ds.setPoolPartitions("reporting:2");
+  }
+
+  @Test
+  public void shouldRetireConnectionsOnReturnWhenTheUrlChanges() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      Connection c1 = ds.getConnection();
+      Connection c2 = ds.getConnection();
+      c2.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      ds.setUrl(ds.getUrl());
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      // work in progress is not interrupted
+      assertFalse(c1.isClosed());
+      c1.createStatement().close();
+      c1.close();
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      Connection c3 = ds.getConnection();
+      c3.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldShrinkGraduallyWhenMaximumActiveConnectionsIsLowered() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(3);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      ds.setPoolMaximumActiveConnections(1);
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        assertFalse(c.isClosed());
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldKeepSeparateIdleConnectionsPerCredentials() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      createTenantUser(ds);
+      ds.setPoolMaximumActiveConnections(2);
+      Connection tenant = ds.getConnection("TENANT", "secret");
+      assertEquals("TENANT", tenant.getMetaData().getUserName());
+      tenant.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      // the idle tenant connection is not handed out to the default user
+      Connection c1 = ds.getConnection();
+      assertEquals("SA", c1.getMetaData().getUserName());
+      // the global cap is shared, so the idle tenant connection is closed to make room
+      Connection c2 = ds.getConnection();
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      c1.close();
+      c2.close();
+      tenant = ds.getConnection("TENANT", "secret");
+      assertEquals("TENANT", tenant.getMetaData().getUserName());
+      tenant.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldLimitActiveConnectionsPerCredentials() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      createTenantUser(ds);
+      ds.setPoolMaximumActiveConnectionsPerCredential(1);
+      Connection tenant = ds.getConnection("TENANT", "secret");
+      // other credentials are not affected
+      Connection c = ds.getConnection();
+      c.close();
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+      final Connection[] second = new Connection[1];
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            second[0] = ds.getConnection("TENANT", "secret");
+          } catch (SQLException e) {
+            // fails the assertion below
+          }
+        }
+      };
+      thread.start();
+      while (ds.getPoolState().getHadToWaitCount() == 0) {
+        Thread.sleep(10);
+      }
+      tenant.close();
+      thread.join(5000);
+      assertNotNull(second[0]);
+      assertEquals("TENANT", second[0].getMetaData().getUserName());
+      second[0].close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private void createTenantUser(PooledDataSource ds) throws SQLException {
+    Connection c = ds.getConnection();
+    try {
+      c.createStatement().execute("CREATE USER TENANT PASSWORD 'secret'");
+    } catch (SQLException e) {
+      // already created by another test
+    } finally {
+      c.close();
+    }
+    ds.forceCloseAll();
+  }
+
   @Test
   public void shouldNotFailCallingToStringOverAnInvalidConnection() throws Exception {
     PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
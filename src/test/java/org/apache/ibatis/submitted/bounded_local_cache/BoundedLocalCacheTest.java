@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.bounded_local_cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Statement;
+
+import org.apache.ibatis.session.LocalCacheEviction;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedLocalCacheTest {
+
+  private static final String GET_NAME = "org.apache.ibatis.submitted.bounded_local_cache.PersonMapper.getName";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("bounded_local_cache",
+        "org/apache/ibatis/submitted/bounded_local_cache/PersonMapper.xml");
+    sqlSessionFactory.getConfiguration().setLocalCacheSize(2);
+  }
+
+  @Test
+  public void shouldEvictTheLeastRecentlyUsedResult() throws Exception {
+    long evictions = sqlSessionFactory.getConfiguration().getLocalCacheStatistics().snapshot().getEvictions();
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.selectOne(GET_NAME, 1);
+      sqlSession.selectOne(GET_NAME, 2);
+      sqlSession.selectOne(GET_NAME, 1);
+      sqlSession.selectOne(GET_NAME, 3);
+      renameBehindTheCache(sqlSession);
+      // 2 was evicted, 1 and 3 are still cached
+      assertEquals("Jane", sqlSession.selectOne(GET_NAME, 1));
+      assertEquals("Jack", sqlSession.selectOne(GET_NAME, 3));
+      assertEquals("Joan", sqlSession.selectOne(GET_NAME, 2));
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(evictions + 2, sqlSessionFactory.getConfiguration().getLocalCacheStatistics().snapshot().getEvictions());
+  }
+
+  @Test
+  public void shouldEvictTheOldestResult() throws Exception {
+    sqlSessionFactory.getConfiguration().setLocalCacheEviction(LocalCacheEviction.FIFO);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.selectOne(GET_NAME, 1);
+      sqlSession.selectOne(GET_NAME, 2);
+      sqlSession.selectOne(GET_NAME, 1);
+      sqlSession.selectOne(GET_NAME, 3);
+      renameBehindTheCache(sqlSession);
+      // 1 was evicted although it was used last but one
+      assertEquals("John", sqlSession.selectOne(GET_NAME, 2));
+      assertEquals("Joan", sqlSession.selectOne(GET_NAME, 1));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  // changes every name on the connection of the session, without going through its local cache
+  private void renameBehindTheCache(SqlSession sqlSession) throws Exception {
+    Statement statement = sqlSession.getConnection().createStatement();
+    statement.executeUpdate("update person set name = 'Joan'");
+    statement.close();
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_invalidation_bus;
+
+import static org.apache.ibatis.submitted.person_fixture.PersonFixture.renameBehindTheCache;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheInvalidationBusTest {
+
+  private static final String CONFIG = "org/apache/ibatis/submitted/cache_invalidation_bus/mybatis-config.xml";
+
+  // two nodes sharing a database
+  private SqlSessionFactory node1;
+  private SqlSessionFactory node2;
+
+  @Before
+  public void setUp() throws Exception {
+    node1 = PersonFixture.buildSqlSessionFactory(CONFIG);
+    node2 = PersonFixture.buildSqlSessionFactory(CONFIG);
+    PersonFixture.createDatabase(node1);
+  }
+
+  @After
+  public void tearDown() {
+    node1.getConfiguration().getInvalidationBus().close();
+    node2.getConfiguration().getInvalidationBus().close();
+  }
+
+  @Test
+  public void shouldInvalidateTheCacheOfTheOtherNode() throws Exception {
+    assertEquals("Jane", getName(node1, 1));
+    assertEquals("Jane", getName(node2, 1));
+    rename(node2, 1, "Joan");
+    assertEquals("Joan", getName(node2, 1));
+    for (int i = 0; i < 100 && !"Joan".equals(getName(node1, 1)); i++) {
+      Thread.sleep(20);
+    }
+    assertEquals("Joan", getName(node1, 1));
+  }
+
+  @Test
+  public void shouldNotPublishRolledBackWrites() throws Exception {
+    assertEquals("Jane", getName(node1, 1));
+    SqlSession sqlSession = node2.openSession();
+    try {
+      Map<String, Object> parameter = new HashMap<String, Object>();
+      parameter.put("id", 1);
+      parameter.put("name", "Joan");
+      sqlSession.update("org.apache.ibatis.submitted.cache_invalidation_bus.PersonMapper.rename", parameter);
+      sqlSession.rollback(true);
+    } finally {
+      sqlSession.close();
+    }
+    node2.getConfiguration().getInvalidationBus().flush();
+    // the cache of node 1 still holds the result, even though it was renamed behind the cache
+    renameBehindTheCache(node1, 1, "Jill");
+    assertEquals("Jane", getName(node1, 1));
+  }
+
+  private String getName(SqlSessionFactory node, int id) {
+    return PersonFixture.getName(node, "org.apache.ibatis.submitted.cache_invalidation_bus.PersonMapper.getName", id);
+  }
+
+  private void rename(SqlSessionFactory node, int id, String name) {
+    SqlSession sqlSession = node.openSession();
+    try {
+      Map<String, Object> parameter = new HashMap<String, Object>();
+      parameter.put("id", id);
+      parameter.put("name", name);
+      sqlSession.update("org.apache.ibatis.submitted.cache_invalidation_bus.PersonMapper.rename", parameter);
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_refresh;
+
+import static org.apache.ibatis.submitted.person_fixture.PersonFixture.renameBehindTheCache;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheRefreshTest {
+
+  private static final String NAMESPACE = "org.apache.ibatis.submitted.cache_refresh.PersonMapper.";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("cache_refresh",
+        "org/apache/ibatis/submitted/cache_refresh/PersonMapper.xml");
+  }
+
+  @Test
+  public void shouldReturnTheCachedResultWhileRefreshingIt() throws Exception {
+    assertEquals("Jane", getName("getName", 1));
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    assertEquals("Jane", getName("getName", 1));
+    Thread.sleep(300);
+    // too old: still returned, and refreshed in the background
+    assertEquals("Jane", getName("getName", 1));
+    for (int i = 0; i < 100 && !"Joan".equals(getName("getName", 1)); i++) {
+      Thread.sleep(20);
+    }
+    assertEquals("Joan", getName("getName", 1));
+  }
+
+  @Test
+  public void shouldRefreshWithTheParametersOfTheStaleRead() throws Exception {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    assertEquals("Jane", getName("getName", parameter));
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    Thread.sleep(300);
+    assertEquals("Jane", getName("getName", parameter));
+    // the caller reuses its parameter object while the refresh is running
+    parameter.put("id", 2);
+    for (int i = 0; i < 100 && !"Joan".equals(getName("getName", 1)); i++) {
+      Thread.sleep(20);
+    }
+    assertEquals("Joan", getName("getName", 1));
+  }
+
+  @Test
+  public void shouldReloadExpiredResults() throws Exception {
+    assertEquals("Jane", getName("getNameWithTtl", 1));
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    Thread.sleep(400);
+    assertEquals("Joan", getName("getNameWithTtl", 1));
+  }
+
+  private String getName(String statement, Object id) {
+    return PersonFixture.getName(sqlSessionFactory, NAMESPACE + statement, id);
+  }
+
+}
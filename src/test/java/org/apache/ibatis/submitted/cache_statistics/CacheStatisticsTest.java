@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("cache_statistics",
+        "org/apache/ibatis/submitted/cache_statistics/PersonMapper.xml");
+  }
+
+  @Test
+  public void shouldReportTheStatisticsOfTheSecondLevelCache() {
+    for (int id = 1; id <= 3; id++) {
+      getName(id);
+    }
+    getName(3);
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    Cache cache = configuration.getCache("org.apache.ibatis.submitted.cache_statistics.PersonMapper");
+    CacheStatistics.Snapshot snapshot = configuration.getCacheStatistics(cache.getId()).snapshot();
+    assertEquals(1, snapshot.getHits());
+    assertEquals(3, snapshot.getMisses());
+    assertEquals(3, snapshot.getPuts());
+    assertEquals(1, snapshot.getEvictions());
+    assertEquals(2, snapshot.getSize());
+    assertEquals(3, snapshot.getLoads());
+    assertTrue(snapshot.getAverageLoadTime() > 0);
+  }
+
+  @Test
+  public void shouldReportTheStatisticsOfTheLocalCaches() {
+    CacheStatistics statistics = sqlSessionFactory.getConfiguration().getLocalCacheStatistics();
+    statistics.reset();
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.selectList("org.apache.ibatis.submitted.cache_statistics.PersonMapper.getNames");
+      sqlSession.selectList("org.apache.ibatis.submitted.cache_statistics.PersonMapper.getNames");
+      CacheStatistics.Snapshot snapshot = statistics.snapshot();
+      assertEquals(1, snapshot.getHits());
+      assertEquals(1, snapshot.getMisses());
+      assertEquals(1, snapshot.getLoads());
+      assertEquals(1, snapshot.getSize());
+      assertTrue(snapshot.getEstimatedBytes() > 0);
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(0, statistics.snapshot().getSize());
+  }
+
+  private String getName(int id) {
+    return PersonFixture.getName(sqlSessionFactory, "org.apache.ibatis.submitted.cache_statistics.PersonMapper.getName", id);
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_ttl;
+
+import static org.apache.ibatis.submitted.person_fixture.PersonFixture.renameBehindTheCache;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheTtlTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("cache_ttl",
+        "org/apache/ibatis/submitted/cache_ttl/PersonMapper.xml");
+  }
+
+  @Test
+  public void shouldExpireOnlyTheResultsOfTheSelectWithTtl() throws Exception {
+    assertEquals("Jane", getName(1));
+    assertEquals("Jane", getNameForever(1));
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    assertEquals("Jane", getName(1));
+    Thread.sleep(400);
+    assertEquals("Joan", getName(1));
+    assertEquals("Jane", getNameForever(1));
+  }
+
+  @Test
+  public void shouldReadTheTtlOfAnnotatedSelects() throws Exception {
+    assertEquals(Long.valueOf(300), sqlSessionFactory.getConfiguration()
+        .getMappedStatement("org.apache.ibatis.submitted.cache_ttl.PersonMapper.getNameByAnnotation").getCacheTtl());
+    assertEquals(null, sqlSessionFactory.getConfiguration()
+        .getMappedStatement("org.apache.ibatis.submitted.cache_ttl.PersonMapper.getNameForever").getCacheTtl());
+  }
+
+  private String getName(int id) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PersonMapper.class).getName(id);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private String getNameForever(int id) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PersonMapper.class).getNameForever(id);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
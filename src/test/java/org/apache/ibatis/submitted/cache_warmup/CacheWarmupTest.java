@@ -0,0 +1,85 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cache_warmup;
+
+import static org.apache.ibatis.submitted.person_fixture.PersonFixture.renameBehindTheCache;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheStatistics;
+import org.apache.ibatis.session.CacheWarmup;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheWarmupTest {
+
+  private static final String NAMESPACE = "org.apache.ibatis.submitted.cache_warmup.PersonMapper";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    // the database must exist before the factory is built, since the warmup runs then
+    PersonFixture.createDatabase("cache_warmup");
+    sqlSessionFactory = PersonFixture.buildSqlSessionFactory("org/apache/ibatis/submitted/cache_warmup/mybatis-config.xml");
+  }
+
+  @Test
+  public void shouldLoadTheCacheWhenTheFactoryIsBuilt() throws Exception {
+    CacheStatistics statistics = sqlSessionFactory.getConfiguration().getCacheStatistics(NAMESPACE);
+    assertEquals(3, statistics.snapshot().getPuts());
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    assertEquals("Jane", getName(1));
+    assertEquals(1, statistics.snapshot().getHits());
+  }
+
+  @Test
+  public void shouldWarmUpOnDemand() throws Exception {
+    CacheWarmup cacheWarmup = sqlSessionFactory.getConfiguration().getCacheWarmup();
+    cacheWarmup.addStatement(NAMESPACE + ".getName", 3);
+    cacheWarmup.addStatement(NAMESPACE + ".missing", null);
+    CacheWarmup.Result result = cacheWarmup.run(sqlSessionFactory);
+    assertEquals(5, result.getStatements());
+    assertEquals(1, result.getFailures());
+    renameBehindTheCache(sqlSessionFactory, 3, "Joan");
+    assertEquals("Jack", getName(3));
+  }
+
+  @Test
+  public void shouldConvertParametersToTheirJavaType() throws Exception {
+    CacheStatistics statistics = sqlSessionFactory.getConfiguration().getCacheStatistics(NAMESPACE);
+    renameBehindTheCache(sqlSessionFactory, 2, "Joan");
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 2);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertEquals("John", sqlSession.selectOne(NAMESPACE + ".getNameById", parameter));
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(1, statistics.snapshot().getHits());
+  }
+
+  private String getName(int id) {
+    return PersonFixture.getName(sqlSessionFactory, NAMESPACE + ".getName", id);
+  }
+
+}
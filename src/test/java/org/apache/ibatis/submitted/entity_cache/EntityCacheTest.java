@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.entity_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.Person;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntityCacheTest {
+
+  private static final String NAMESPACE = "org.apache.ibatis.submitted.entity_cache.PersonMapper";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("entity_cache",
+        "org/apache/ibatis/submitted/entity_cache/PersonMapper.xml");
+    sqlSessionFactory.getConfiguration().setEntityCacheEnabled(true);
+  }
+
+  @Test
+  public void shouldStoreEachRowOnce() {
+    assertEquals(3, findAll().size());
+    assertEquals(2, findByIds().size());
+    assertEquals(3, entities().getSize());
+    // read from the caches
+    assertEquals("John", findByIds().get(1).getName());
+  }
+
+  @Test
+  public void shouldOnlyEvictTheUpdatedEntity() {
+    assertEquals(3, findAll().size());
+    assertEquals(2, findByIds().size());
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Person person = sqlSession.getMapper(PersonMapper.class).findAll().get(0);
+      person.setName("Joan");
+      sqlSession.getMapper(PersonMapper.class).update(person);
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+
+    assertEquals(2, entities().getSize());
+    // both query results see the change
+    assertEquals("Joan", findByIds().get(0).getName());
+    assertEquals("Joan", findAll().get(0).getName());
+    assertEquals(3, entities().getSize());
+  }
+
+  @Test
+  public void shouldNotEvictEntitiesOnRollback() {
+    assertEquals(3, findAll().size());
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Person person = sqlSession.getMapper(PersonMapper.class).findAll().get(0);
+      person.setName("Joan");
+      sqlSession.getMapper(PersonMapper.class).update(person);
+      sqlSession.rollback();
+    } finally {
+      sqlSession.close();
+    }
+
+    assertEquals("Jane", findAll().get(0).getName());
+  }
+
+  @Test
+  public void shouldCacheResultsTooLargeForTheEntityCacheAsWholeLists() {
+    sqlSessionFactory.getConfiguration().getEntityCache().setSize(8);
+    assertEquals(3, findAll().size());
+    assertEquals(0, entities().getSize());
+    assertEquals(2, findByIds().size());
+    assertEquals(2, entities().getSize());
+    assertEquals("Jane", findAll().get(0).getName());
+  }
+
+  @Test
+  public void shouldCopyRowsLikeTheCacheOfTheNamespace() {
+    // a read-write cache
+    assertEquals(3, findAll().size());
+    assertNotSame(findAll().get(0), findAll().get(0));
+    assertEquals("Jane", findAll().get(0).getName());
+
+    sqlSessionFactory.getConfiguration().getEntityCache().setCodec(NAMESPACE, null);
+    entities().clear();
+    assertEquals(3, findAll().size());
+    assertSame(findAll().get(0), findAll().get(0));
+  }
+
+  private Cache entities() {
+    return sqlSessionFactory.getConfiguration().getEntityCache().getCache();
+  }
+
+  private List<Person> findAll() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PersonMapper.class).findAll();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private List<Person> findByIds() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PersonMapper.class).findByIds();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.entity_ids;
+
+import static org.apache.ibatis.submitted.person_fixture.PersonFixture.renameBehindTheCache;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.Person;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntityIdsTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("entity_ids",
+        "org/apache/ibatis/submitted/entity_ids/PersonMapper.xml");
+    sqlSessionFactory.getConfiguration().setEntityCacheEnabled(true);
+  }
+
+  @Test
+  public void shouldOnlyQueryMissingIds() throws Exception {
+    assertEquals("[Jane, John]", names(findByIds(1, 2)));
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    renameBehindTheCache(sqlSessionFactory, 3, "Jill");
+    // 1 and 2 come from the entity cache, 3 from the database, in the requested order
+    assertEquals("[Jill, John, Jane]", names(findByIds(3, 2, 1)));
+  }
+
+  @Test
+  public void shouldSkipDuplicateAndUnknownIds() {
+    assertEquals("[John]", names(findByIds(2)));
+    assertEquals("[John, Jack]", names(findByIds(2, 9, 3, 2)));
+  }
+
+  @Test
+  public void shouldMatchIdsOfAnotherNumberType() throws Exception {
+    assertEquals("[Jane]", names(findByIds(1)));
+    renameBehindTheCache(sqlSessionFactory, 1, "Joan");
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertEquals("[Jane, Jack]", names(sqlSession.getMapper(PersonMapper.class).findByIdArray(new Long[] { 1L, 3L })));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldOnlyEvictTheEntityOfAnUpdate() throws Exception {
+    assertEquals("[Jane, John]", names(findByIds(1, 2)));
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      PersonMapper mapper = sqlSession.getMapper(PersonMapper.class);
+      Person person = mapper.findByIds(Arrays.asList(1)).get(0);
+      person.setName("Joan");
+      mapper.update(person);
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+    renameBehindTheCache(sqlSessionFactory, 2, "Jill");
+    // 1 is read again, 2 is still cached although the update flushed the namespace
+    assertEquals("[Joan, John]", names(findByIds(1, 2)));
+  }
+
+  @Test
+  public void shouldNotUseEntitiesAfterAWriteOfTheNamespace() {
+    assertEquals("[Jane, John]", names(findByIds(1, 2)));
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      PersonMapper mapper = sqlSession.getMapper(PersonMapper.class);
+      Map<String, Object> parameter = new HashMap<String, Object>();
+      parameter.put("id", 1);
+      parameter.put("name", "Joan");
+      mapper.rename(parameter);
+      // not committed yet, but this session sees its own write
+      assertEquals("[Joan, John]", names(mapper.findByIds(Arrays.asList(1, 2))));
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+
+    assertEquals("[Joan, John]", names(findByIds(1, 2)));
+  }
+
+  private List<Person> findByIds(Integer... ids) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PersonMapper.class).findByIds(Arrays.asList(ids));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private String names(List<Person> persons) {
+    StringBuilder sb = new StringBuilder("[");
+    for (Person person : persons) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      sb.append(person.getName());
+    }
+    return sb.append("]").toString();
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.person_fixture;
+
+import java.io.Reader;
+import java.sql.Statement;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+
+/*
+ * The person table (Jane, John and Jack) shared by the cache tests, each in its own in-memory database.
+ */
+public final class PersonFixture {
+
+  public static final String CONFIG = "org/apache/ibatis/submitted/person_fixture/mybatis-config.xml";
+  public static final String CREATE_DB = "org/apache/ibatis/submitted/person_fixture/CreateDB.sql";
+
+  private PersonFixture() {
+  }
+
+  // builds a factory from the shared configuration and creates its database
+  public static SqlSessionFactory createSqlSessionFactory(String database, String mapper) throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("database", database);
+    properties.setProperty("mapper", mapper);
+    Reader reader = Resources.getResourceAsReader(CONFIG);
+    SqlSessionFactory sqlSessionFactory;
+    try {
+      sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader, properties);
+    } finally {
+      reader.close();
+    }
+    createDatabase(sqlSessionFactory);
+    return sqlSessionFactory;
+  }
+
+  // builds a factory from a configuration of its own, without creating the database
+  public static SqlSessionFactory buildSqlSessionFactory(String config) throws Exception {
+    Reader reader = Resources.getResourceAsReader(config);
+    try {
+      return new SqlSessionFactoryBuilder().build(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  public static void createDatabase(SqlSessionFactory sqlSessionFactory) throws Exception {
+    createDatabase(sqlSessionFactory.getConfiguration().getEnvironment().getDataSource());
+  }
+
+  // for factories that read the database while they are built
+  public static void createDatabase(String database) throws Exception {
+    createDatabase(new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:" + database, "sa", ""));
+  }
+
+  private static void createDatabase(DataSource dataSource) throws Exception {
+    BaseDataTest.runScript(dataSource, CREATE_DB);
+  }
+
+  public static String getName(SqlSessionFactory sqlSessionFactory, String statement, Object id) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.selectOne(statement, id);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  // changes a row without MyBatis knowing it
+  public static void renameBehindTheCache(SqlSessionFactory sqlSessionFactory, int id, String name) throws Exception {
+    SqlSession sqlSession = sqlSessionFactory.openSession(true);
+    try {
+      Statement statement = sqlSession.getConnection().createStatement();
+      statement.executeUpdate("update person set name = '" + name + "' where id = " + id);
+      statement.close();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.query_coalescing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.submitted.person_fixture.PersonFixture;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCoalescingTest {
+
+  private static final int SESSIONS = 4;
+
+  private SqlSessionFactory sqlSessionFactory;
+  private SlowQueries slowQueries;
+
+  @Before
+  public void setUp() throws Exception {
+    sqlSessionFactory = PersonFixture.createSqlSessionFactory("query_coalescing",
+        "org/apache/ibatis/submitted/query_coalescing/PersonMapper.xml");
+
+    slowQueries = new SlowQueries();
+    sqlSessionFactory.getConfiguration().addInterceptor(slowQueries);
+  }
+
+  @Test
+  public void shouldQueryOncePerSessionByDefault() throws Exception {
+    selectConcurrently("getPeople");
+    assertEquals(SESSIONS, slowQueries.count.get());
+  }
+
+  @Test
+  public void shouldShareOneQueryBetweenSessions() throws Exception {
+    List<List<Object>> results = selectConcurrently("getPeopleShared");
+    assertEquals(1, slowQueries.count.get());
+    for (List<Object> result : results) {
+      assertEquals(3, result.size());
+      assertSame(results.get(0), result);
+    }
+  }
+
+  @Test
+  public void shouldGiveEachSessionItsOwnCopy() throws Exception {
+    List<List<Object>> results = selectConcurrently("getPeopleCopied");
+    assertEquals(1, slowQueries.count.get());
+    for (int i = 1; i < results.size(); i++) {
+      assertEquals(results.get(0), results.get(i));
+      assertNotSame(results.get(0), results.get(i));
+      assertNotSame(results.get(0).get(0), results.get(i).get(0));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void shouldNotCoalesceInASessionWithUncommittedWrites() throws Exception {
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        selectPeople("getPeopleShared");
+      }
+    };
+    reader.start();
+    Thread.sleep(100);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Map<String, Object> person = new HashMap<String, Object>();
+      person.put("id", 1);
+      person.put("name", "Joan");
+      sqlSession.update("org.apache.ibatis.submitted.query_coalescing.PersonMapper.rename", person);
+      List<Map<String, Object>> result = sqlSession.selectList("org.apache.ibatis.submitted.query_coalescing.PersonMapper.getPeopleShared");
+      assertEquals("Joan", result.get(0).get("NAME"));
+    } finally {
+      sqlSession.rollback(true);
+      sqlSession.close();
+    }
+    reader.join();
+    assertEquals(2, slowQueries.count.get());
+  }
+
+  private List<Object> selectPeople(String statement) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.selectList("org.apache.ibatis.submitted.query_coalescing.PersonMapper." + statement);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private List<List<Object>> selectConcurrently(final String statement) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<List<Object>> results = new ArrayList<List<Object>>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < SESSIONS; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          List<Object> result = selectPeople(statement);
+          synchronized (results) {
+            results.add(result);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(SESSIONS, results.size());
+    return results;
+  }
+
+  // counts the queries sent to the database, and makes them slow enough to overlap
+  @Intercepts(@Signature(type = StatementHandler.class, method = "query", args = { Statement.class, ResultHandler.class }))
+  public static class SlowQueries implements Interceptor {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      count.incrementAndGet();
+      Thread.sleep(300);
+      return invocation.proceed();
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+  }
+
+}
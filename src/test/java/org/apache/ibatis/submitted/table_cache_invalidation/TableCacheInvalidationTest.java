@@ -0,0 +1,152 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.table_cache_invalidation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TableCacheInvalidationTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/table_cache_invalidation/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/table_cache_invalidation/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldOnlyInvalidateResultsReadFromTheWrittenTables() throws Exception {
+    assertEquals(2, countPersons());
+    assertEquals(2, findPets());
+
+    // not seen by the caches
+    executeDirectly("delete from person where id = 2");
+    executeDirectly("delete from pet");
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.getMapper(PetMapper.class).insert(3, "Felix", 1);
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+
+    // person was not written, the result of the same namespace is still cached
+    assertEquals(2, countPersons());
+    assertEquals(1, findPets());
+  }
+
+  @Test
+  public void shouldInvalidateResultsCachedByOtherNamespaces() {
+    assertEquals(2, findPersons());
+    assertEquals(2, findPets());
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.getMapper(PetMapper.class).deleteOwner(2);
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+
+    assertEquals(1, findPersons());
+    SqlSession check = sqlSessionFactory.openSession();
+    try {
+      assertEquals(null, check.getMapper(PetMapper.class).findAll().get(1).get("OWNER"));
+    } finally {
+      check.close();
+    }
+  }
+
+  @Test
+  public void shouldNotReadCachedResultsOfTablesWrittenInTheCurrentTransaction() {
+    assertEquals(2, findPersons());
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      PersonMapper mapper = sqlSession.getMapper(PersonMapper.class);
+      mapper.delete(1);
+      assertEquals(1, mapper.findAll().size());
+      sqlSession.rollback();
+    } finally {
+      sqlSession.close();
+    }
+
+    assertEquals(2, findPersons());
+  }
+
+  private int findPersons() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PersonMapper.class).findAll().size();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private int countPersons() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PetMapper.class).countPersons();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private int findPets() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(PetMapper.class).findAll().size();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private void executeDirectly(String sql) throws Exception {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Statement statement = sqlSession.getConnection().createStatement();
+      statement.execute(sql);
+      statement.close();
+      sqlSession.getConnection().commit();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}